@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the time to launch a number of concurrent AsyncTasks on a DefaultAsyncTaskExecutor
+ * and wait until all of them have finished, including their callbacks.
+ *
+ * Callbacks run on a single thread standing in for the main thread.
+ * Every task performs a small amount of CPU work in {@link AsyncTask#doInBackground()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EndToEndThroughputBenchmark {
+
+  @Param({ "1", "25", "1000" })
+  public int concurrency;
+
+  @Param({ "BLOCKING", "NON_BLOCKING" })
+  public String mode;
+
+  private ExecutorService mCallbackThread;
+
+  private DefaultAsyncTaskExecutor mExecutor;
+
+  @Setup
+  public void setUp() {
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.OFF);
+    mCallbackThread = Executors.newSingleThreadExecutor();
+    mExecutor = new DefaultAsyncTaskExecutor.Builder()
+        .setCallbackDispatcher(new ExecutorCallbackDispatcher(mCallbackThread))
+        .setNonBlocking("NON_BLOCKING".equals(mode))
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    mExecutor.shutdown();
+    mCallbackThread.shutdown();
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.ALWAYS);
+  }
+
+  @Benchmark
+  public void launchAndComplete() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      mExecutor.execute(new WorkTask(latch));
+    }
+    latch.await();
+  }
+
+  private static class WorkTask extends AsyncTask<Void, RuntimeException> {
+
+    private static final long TOKENS = 1000;
+
+    private final CountDownLatch mLatch;
+
+    WorkTask(final CountDownLatch latch) {
+      mLatch = latch;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      Blackhole.consumeCPU(TOKENS);
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+
+    @Override
+    protected void onFinally() {
+      mLatch.countDown();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the time it takes to complete a batch of blocking AsyncTasks on the
+ * DefaultAsyncTaskExecutor thread pool model and on virtual threads.
+ *
+ * Every task blocks in {@link AsyncTask#doInBackground()} for a while, simulating network access.
+ * Callbacks run on a single thread standing in for the main thread.
+ *
+ * The VIRTUAL_THREADS executor requires the benchmarks to run on Java 21 or later.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ExecutorThroughputBenchmark {
+
+  @Param({ "THREAD_POOL", "VIRTUAL_THREADS" })
+  public String executor;
+
+  @Param({ "1000", "10000" })
+  public int taskCount;
+
+  @Param({ "1" })
+  public int blockingMillis;
+
+  private ExecutorService mCallbackThread;
+
+  private AsyncTaskExecutor mExecutor;
+
+  @Setup
+  public void setUp() {
+    mCallbackThread = Executors.newSingleThreadExecutor();
+    CallbackDispatcher dispatcher = new ExecutorCallbackDispatcher(mCallbackThread);
+
+    if ("VIRTUAL_THREADS".equals(executor)) {
+      mExecutor = new VirtualThreadAsyncTaskExecutor(dispatcher);
+    } else {
+      mExecutor = new DefaultAsyncTaskExecutor.Builder()
+          .setIoThreadCount(25)
+          .setCallbackDispatcher(dispatcher)
+          .build();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (mExecutor instanceof DefaultAsyncTaskExecutor) {
+      ((DefaultAsyncTaskExecutor) mExecutor).shutdown();
+    } else {
+      ((VirtualThreadAsyncTaskExecutor) mExecutor).shutdown();
+    }
+    mCallbackThread.shutdown();
+  }
+
+  @Benchmark
+  public void completeTasks() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(taskCount);
+    for (int i = 0; i < taskCount; i++) {
+      mExecutor.execute(new BlockingTask(blockingMillis, latch));
+    }
+    latch.await();
+  }
+
+  private static class BlockingTask extends AsyncTask<Void, InterruptedException> {
+
+    private final int mBlockingMillis;
+
+    private final CountDownLatch mLatch;
+
+    BlockingTask(final int blockingMillis, final CountDownLatch latch) {
+      mBlockingMillis = blockingMillis;
+      mLatch = latch;
+    }
+
+    @Override
+    protected Void doInBackground() throws InterruptedException {
+      Thread.sleep(mBlockingMillis);
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final InterruptedException e) {
+    }
+
+    @Override
+    protected void onFinally() {
+      mLatch.countDown();
+    }
+  }
+}
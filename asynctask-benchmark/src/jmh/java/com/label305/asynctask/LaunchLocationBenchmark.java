@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the cost of launching an AsyncTask for each {@link LaunchLocationPolicy}.
+ *
+ * The launch is performed at a configurable stack depth, since the cost of capturing
+ * the launch location grows with the depth of the calling stack.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LaunchLocationBenchmark {
+
+  private static final Executor NO_OP_EXECUTOR = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+    }
+  };
+
+  private static final CallbackDispatcher NO_OP_DISPATCHER = new CallbackDispatcher() {
+    @Override
+    public void dispatch(@NonNull final Runnable callback) {
+    }
+  };
+
+  private static final Runnable NO_OP = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  @Param({ "OFF", "SAMPLED_100", "LAZY", "ALWAYS" })
+  public String policy;
+
+  @Param({ "10", "50" })
+  public int stackDepth;
+
+  @Setup
+  public void setUp() {
+    switch (policy) {
+      case "OFF":
+        AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.OFF);
+        break;
+      case "SAMPLED_100":
+        AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.sampled(100));
+        break;
+      case "LAZY":
+        AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.LAZY);
+        break;
+      default:
+        AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.ALWAYS);
+        break;
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.ALWAYS);
+  }
+
+  @Benchmark
+  public AsyncTask<Void, RuntimeException> launch() {
+    return launchAtDepth(stackDepth);
+  }
+
+  private static AsyncTask<Void, RuntimeException> launchAtDepth(final int depth) {
+    if (depth > 0) {
+      return launchAtDepth(depth - 1);
+    }
+
+    return new NoOpAsyncTask().execute(NO_OP_EXECUTOR, NO_OP_DISPATCHER, new FutureTask<Void>(NO_OP, null));
+  }
+
+  private static class NoOpAsyncTask extends AsyncTask<Void, RuntimeException> {
+
+    @Override
+    protected Void doInBackground() {
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the latency of {@link Task}'s postToUiThreadAndWait, when the callbacks run on
+ * a separate thread standing in for the main thread.
+ *
+ * A successful run waits for the callback thread three times, once for every main thread stage.
+ * The difference with {@link TaskRunBenchmark#successfulRun()} divided by three approximates a single round trip.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class MainThreadRoundTripBenchmark {
+
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      command.run();
+    }
+  };
+
+  private ExecutorService mCallbackThread;
+
+  private CallbackDispatcher mDispatcher;
+
+  @Setup
+  public void setUp() {
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.OFF);
+    mCallbackThread = Executors.newSingleThreadExecutor();
+    mDispatcher = new ExecutorCallbackDispatcher(mCallbackThread);
+  }
+
+  @TearDown
+  public void tearDown() {
+    mCallbackThread.shutdown();
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.ALWAYS);
+  }
+
+  @Benchmark
+  public AsyncTask<Void, RuntimeException> threeRoundTrips() {
+    return new NoOpAsyncTask().execute(DIRECT_EXECUTOR, mDispatcher);
+  }
+
+  private static class NoOpAsyncTask extends AsyncTask<Void, RuntimeException> {
+
+    @Override
+    protected Void doInBackground() {
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+}
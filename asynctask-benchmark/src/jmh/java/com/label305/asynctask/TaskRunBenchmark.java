@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the overhead {@link Task} and {@link ContinuationTask} add to running an AsyncTask,
+ * with all callbacks dispatched inline through an {@link ImmediateCallbackDispatcher} and
+ * the background work run directly on the benchmark thread.
+ *
+ * Comparing against {@link #doInBackgroundOnly()} gives the cost of the lifecycle stages:
+ * a successful run has three main thread stages (pre execute, success and finally).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TaskRunBenchmark {
+
+  private static final CallbackDispatcher DISPATCHER = ImmediateCallbackDispatcher.instance();
+
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      command.run();
+    }
+  };
+
+  private final NoOpAsyncTask mTask = new NoOpAsyncTask();
+
+  @Setup
+  public void setUp() {
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.OFF);
+  }
+
+  @TearDown
+  public void tearDown() {
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.ALWAYS);
+  }
+
+  @Benchmark
+  public Object doInBackgroundOnly() {
+    return mTask.doInBackground();
+  }
+
+  @Benchmark
+  public AsyncTask<Object, RuntimeException> successfulRun() {
+    return new NoOpAsyncTask().execute(DIRECT_EXECUTOR, DISPATCHER);
+  }
+
+  @Benchmark
+  public AsyncTask<Object, Exception> failingRun() {
+    return new FailingAsyncTask().execute(DIRECT_EXECUTOR, DISPATCHER);
+  }
+
+  @Benchmark
+  public AsyncTask<Object, RuntimeException> successfulNonBlockingRun() {
+    return new NoOpAsyncTask().executeNonBlocking(DIRECT_EXECUTOR, DISPATCHER);
+  }
+
+  private static class NoOpAsyncTask extends AsyncTask<Object, RuntimeException> {
+
+    private final Object mResult = new Object();
+
+    @Override
+    protected Object doInBackground() {
+      return mResult;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+
+  private static class FailingAsyncTask extends AsyncTask<Object, Exception> {
+
+    private static final Exception EXCEPTION = new Exception();
+
+    @Override
+    protected Object doInBackground() throws Exception {
+      throw EXCEPTION;
+    }
+
+    @Override
+    protected void onException(@NonNull final Exception e) {
+    }
+  }
+}
@@ -16,22 +16,17 @@
 
 package com.label305.asynctask;
 
-import android.os.Handler;
 import android.support.annotation.NonNull;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
-import org.mockito.Mockito;
-import org.mockito.invocation.InvocationOnMock;
-import org.mockito.stubbing.Answer;
-
-import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.when;
 
 /**
  * An AsyncTaskExecutor that executes AsyncTasks synchronously.
  * Should only be used for tests.
  *
+ * Tasks with an {@link AsyncTask#getRetryPolicy()} wait out its backoff delays on the calling thread.
+ *
  * @author Niek Haarman <niek@label305.com>
  */
 public class TestAsyncTaskExecutor implements AsyncTaskExecutor {
@@ -40,17 +35,14 @@ public class TestAsyncTaskExecutor implements AsyncTaskExecutor {
 
   private final Executor mExecutor = new TestExecutor();
 
-  private final Handler mHandler;
+  private final CallbackDispatcher mDispatcher = ImmediateCallbackDispatcher.instance();
 
   private TestAsyncTaskExecutor() {
-    mHandler = Mockito.mock(Handler.class);
-    when(mHandler.post(any(Runnable.class)))
-        .then(new TestAnswer());
   }
 
   @Override
   public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
-    return task.execute(mExecutor, new TestFutureTask<Void>(new Task<>(task, mHandler), null));
+    return task.execute(mExecutor, mDispatcher, new TestFutureTask<Void>(new Task<>(task, mDispatcher), null));
   }
 
   public static AsyncTaskExecutor instance() {
@@ -89,14 +81,4 @@ public class TestAsyncTaskExecutor implements AsyncTaskExecutor {
       command.run();
     }
   }
-
-  private static class TestAnswer implements Answer<Void> {
-
-    @Override
-    public Void answer(final InvocationOnMock invocation) throws Throwable {
-      Runnable runnable = (Runnable) invocation.getArguments()[0];
-      runnable.run();
-      return null;
-    }
-  }
 }
\ No newline at end of file
@@ -21,8 +21,14 @@ import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A class similar but unrelated to Android's {@link android.os.AsyncTask},
@@ -38,12 +44,84 @@ import java.util.concurrent.FutureTask;
  */
 public abstract class AsyncTask<T, E extends Exception> {
 
+  private static final int RESULT_PENDING = 0;
+
+  private static final int RESULT_SUCCESS = 1;
+
+  private static final int RESULT_FAILURE = 2;
+
+  @NonNull
+  private static volatile LaunchLocationPolicy sLaunchLocationPolicy = LaunchLocationPolicy.ALWAYS;
+
+  @Nullable
+  private static volatile TaskMetricsListener sTaskMetricsListener;
+
+  @Nullable
+  private Throwable mLaunchLocation;
+
+  /**
+   * The stack trace of {@link #mLaunchLocation}, which is only converted once.
+   */
   @Nullable
-  private StackTraceElement[] mLaunchLocation;
+  private volatile StackTraceElement[] mLaunchStack;
 
   @Nullable
   private FutureTask<Void> mFutureTask;
 
+  @Nullable
+  private volatile CallbackDispatcher mDispatcher;
+
+  @Nullable
+  private TaskMetrics mMetrics;
+
+  @Nullable
+  private BackgroundSource<T, E> mBackgroundSource;
+
+  @Nullable
+  private volatile Runnable mCancellationListener;
+
+  @Nullable
+  private volatile TaskScope mScope;
+
+  private volatile long mDefaultTimeoutNanos;
+
+  private volatile boolean mTimedOut;
+
+  /**
+   * Guards the outcome of {@link #doInBackground()}, as exposed by {@link #get()} and {@link #addResultListener(ResultListener)}.
+   */
+  @NonNull
+  private final Object mResultLock = new Object();
+
+  private int mResultState = RESULT_PENDING;
+
+  @Nullable
+  private T mResult;
+
+  @Nullable
+  private Exception mFailure;
+
+  @Nullable
+  private List<ResultListener<? super T>> mResultListeners;
+
+  /**
+   * Sets the policy used to capture the location at which AsyncTasks are executed.
+   * Defaults to {@link LaunchLocationPolicy#ALWAYS}.
+   */
+  public static void setLaunchLocationPolicy(@NonNull final LaunchLocationPolicy policy) {
+    sLaunchLocationPolicy = policy;
+  }
+
+  /**
+   * Sets the listener that receives the lifecycle timestamps of every AsyncTask executed from now on,
+   * or {@code null} to stop recording them. Defaults to {@code null}.
+   *
+   * Tasks that are executed while no listener is installed do not record any timestamps.
+   */
+  public static void setTaskMetricsListener(@Nullable final TaskMetricsListener listener) {
+    sTaskMetricsListener = listener;
+  }
+
   /**
    * Executes this AsyncTask, using {@link AsyncTaskExecutor#DEFAULT_EXECUTOR}.
    *
@@ -65,27 +143,132 @@ public abstract class AsyncTask<T, E extends Exception> {
   @NonNull
   public <A extends AsyncTask<T, E>> A execute(@NonNull final Executor executor,
                                                @NonNull final Handler handler) {
-    mLaunchLocation = Thread.currentThread().getStackTrace();
-    mFutureTask = new FutureTask<>(new Task<>(this, handler), null);
+    return execute(executor, new HandlerCallbackDispatcher(handler));
+  }
+
+  /**
+   * Executes this AsyncTask, using given Executor and CallbackDispatcher.
+   *
+   * Tasks with a {@link #getPreferredCallbackDispatcher()} perform their callbacks on that instead of on given CallbackDispatcher.
+   * Tasks with a {@link #getRetryPolicy()} make all attempts within a single submission to given Executor: the worker thread waits out the backoff delays.
+   *
+   * @param executor The Executor to perform background operations on.
+   * @param dispatcher The CallbackDispatcher to perform main thread callbacks on.
+   *
+   * @return this instance.
+   */
+  @NonNull
+  public <A extends AsyncTask<T, E>> A execute(@NonNull final Executor executor,
+                                               @NonNull final CallbackDispatcher dispatcher) {
+    CallbackDispatcher preferred = getPreferredCallbackDispatcher();
+    CallbackDispatcher target = preferred == null ? dispatcher : preferred;
+
+    mLaunchLocation = sLaunchLocationPolicy.capture();
+    mLaunchStack = null;
+    resetOutcome();
+    mMetrics = createMetrics();
+    mDispatcher = target;
+    Task<T, E> task = Task.obtain(this, target);
+    mFutureTask = new AsyncTaskFuture(this, task);
     executor.execute(mFutureTask);
     return (A) this;
   }
 
   /**
-   * Executes this AsyncTask, using given Executor and Handler.
+   * Executes this AsyncTask in non-blocking mode, using given Executor and Handler.
+   *
+   * @param executor The Executor to perform background operations on.
+   * @param handler The Handler to perform main thread callbacks on.
+   *
+   * @return this instance.
+   *
+   * @see #executeNonBlocking(Executor, CallbackDispatcher)
+   */
+  @NonNull
+  public <A extends AsyncTask<T, E>> A executeNonBlocking(@NonNull final Executor executor,
+                                                          @NonNull final Handler handler) {
+    return executeNonBlocking(executor, new HandlerCallbackDispatcher(handler));
+  }
+
+  /**
+   * Executes this AsyncTask in non-blocking mode, using given Executor and CallbackDispatcher.
+   *
+   * Unlike {@link #execute(Executor, CallbackDispatcher)}, worker threads never wait for the main
+   * thread callbacks to finish: {@link #onPreExecute()} is dispatched to the main thread directly,
+   * which then submits {@link #doInBackground()} to the Executor. The result callback and
+   * {@link #onFinally()} are dispatched back to the main thread once {@link #doInBackground()} returns,
+   * and the worker thread is returned to the pool immediately.
+   *
+   * The ordering guarantees are the same as in blocking mode, except that
+   * {@link #onInterrupted(InterruptedException)} is never called.
+   *
+   * @param executor The Executor to perform background operations on.
+   * @param dispatcher The CallbackDispatcher to perform main thread callbacks on.
+   *
+   * @return this instance.
+   */
+  @NonNull
+  public <A extends AsyncTask<T, E>> A executeNonBlocking(@NonNull final Executor executor,
+                                                          @NonNull final CallbackDispatcher dispatcher) {
+    CallbackDispatcher preferred = getPreferredCallbackDispatcher();
+    CallbackDispatcher target = preferred == null ? dispatcher : preferred;
+
+    mLaunchLocation = sLaunchLocationPolicy.capture();
+    mLaunchStack = null;
+    resetOutcome();
+    mMetrics = createMetrics();
+    mDispatcher = target;
+    ContinuationTask<T, E> task = new ContinuationTask<>(this, executor, target);
+    mFutureTask = task.getFutureTask();
+    task.start();
+    return (A) this;
+  }
+
+  /**
+   * Executes given FutureTask, which runs this AsyncTask, using given Executor.
    *
    * @param executor The Executor to perform background operations on.
+   * @param dispatcher The CallbackDispatcher the FutureTask performs main thread callbacks on.
+   * @param futureTask The FutureTask running this AsyncTask.
+   *
    * @return this instance.
    */
   @NonNull
   <A extends AsyncTask<T, E>> A execute(@NonNull final Executor executor,
+                                        @NonNull final CallbackDispatcher dispatcher,
                                         @NonNull final FutureTask<Void> futureTask) {
-    mLaunchLocation = Thread.currentThread().getStackTrace();
+    mLaunchLocation = sLaunchLocationPolicy.capture();
+    mLaunchStack = null;
+    resetOutcome();
+    mMetrics = createMetrics();
+    mDispatcher = dispatcher;
     mFutureTask = futureTask;
     executor.execute(futureTask);
     return (A) this;
   }
 
+  @Nullable
+  private TaskMetrics createMetrics() {
+    TaskMetricsListener listener = sTaskMetricsListener;
+    if (listener == null) {
+      return null;
+    }
+
+    TaskMetrics metrics = new TaskMetrics(getClass(), listener);
+    metrics.record(TaskMetrics.ENQUEUED);
+    return metrics;
+  }
+
+  /**
+   * Records the current time for given {@link TaskMetrics} event, if metrics are being recorded for this task.
+   */
+  void recordMetric(final int event) {
+    TaskMetrics metrics = mMetrics;
+    if (metrics != null) {
+      metrics.record(event);
+    }
+  }
+
   /**
    * Attempts to cancel execution of this task.  This attempt will
    * fail if the task has already completed, has already been cancelled,
@@ -139,7 +322,192 @@ public abstract class AsyncTask<T, E extends Exception> {
       throw new IllegalStateException("You cannot cancel this task before calling execute()");
     }
 
-    return mFutureTask.cancel(mayInterruptIfRunning);
+    boolean cancelled = mFutureTask.cancel(mayInterruptIfRunning);
+    if (!cancelled) {
+      return false;
+    }
+
+    completeResult(null, new CancellationException("The task was cancelled"));
+
+    /* A blocking task that is cancelled before it starts never reaches the end of its lifecycle. */
+    leaveScope();
+
+    Runnable listener = mCancellationListener;
+    if (listener != null) {
+      listener.run();
+    }
+
+    return true;
+  }
+
+  /**
+   * Waits for {@link #doInBackground()} to complete, and returns its result.
+   * Returns as soon as {@link #doInBackground()} has returned, without waiting for the main thread callbacks.
+   *
+   * Do not call this method on the main thread: {@link #onPreExecute()} runs there before {@link #doInBackground()} starts.
+   *
+   * @throws E the Exception thrown by {@link #doInBackground()}.
+   * @throws CancellationException if the task was cancelled.
+   * @throws InterruptedException if the calling thread was interrupted while waiting.
+   */
+  @WorkerThread
+  public T get() throws E, InterruptedException {
+    checkExecuted();
+
+    synchronized (mResultLock) {
+      while (mResultState == RESULT_PENDING) {
+        mResultLock.wait();
+      }
+    }
+
+    return reportResult();
+  }
+
+  /**
+   * Waits at most given time for {@link #doInBackground()} to complete, and returns its result.
+   *
+   * @throws E the Exception thrown by {@link #doInBackground()}.
+   * @throws CancellationException if the task was cancelled.
+   * @throws InterruptedException if the calling thread was interrupted while waiting.
+   * @throws TimeoutException if the wait timed out.
+   *
+   * @see #get()
+   */
+  @WorkerThread
+  public T get(final long timeout, @NonNull final TimeUnit unit) throws E, InterruptedException, TimeoutException {
+    checkExecuted();
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (mResultLock) {
+      while (mResultState == RESULT_PENDING) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new TimeoutException();
+        }
+
+        TimeUnit.NANOSECONDS.timedWait(mResultLock, remaining);
+      }
+    }
+
+    return reportResult();
+  }
+
+  /**
+   * Adds a listener that is notified of the outcome of {@link #doInBackground()} as soon as it is known,
+   * without waiting for the main thread callbacks. If the outcome is already known, the listener is notified immediately.
+   */
+  public void addResultListener(@NonNull final ResultListener<? super T> listener) {
+    synchronized (mResultLock) {
+      if (mResultState == RESULT_PENDING) {
+        if (mResultListeners == null) {
+          mResultListeners = new ArrayList<>(1);
+        }
+        mResultListeners.add(listener);
+        return;
+      }
+    }
+
+    notifyResultListener(listener);
+  }
+
+  /**
+   * Forgets the outcome of a previous execution, so that {@link #get()} and {@link #isTimedOut()} reflect the upcoming one.
+   * Result listeners that were added in the meantime are kept, since they are waiting for the upcoming outcome.
+   */
+  private void resetOutcome() {
+    synchronized (mResultLock) {
+      mResultState = RESULT_PENDING;
+      mResult = null;
+      mFailure = null;
+    }
+    mTimedOut = false;
+  }
+
+  /**
+   * Records the outcome of {@link #doInBackground()}, unless an outcome was already recorded.
+   *
+   * @param result The result, if {@code failure} is {@code null}.
+   * @param failure The Exception thrown by {@link #doInBackground()}, or a CancellationException.
+   */
+  void completeResult(@Nullable final T result, @Nullable final Exception failure) {
+    List<ResultListener<? super T>> listeners;
+    synchronized (mResultLock) {
+      if (mResultState != RESULT_PENDING) {
+        return;
+      }
+
+      mResult = result;
+      mFailure = failure;
+      mResultState = failure == null ? RESULT_SUCCESS : RESULT_FAILURE;
+      mResultLock.notifyAll();
+
+      listeners = mResultListeners;
+      mResultListeners = null;
+    }
+
+    if (listeners != null) {
+      for (ResultListener<? super T> listener : listeners) {
+        notifyResultListener(listener);
+      }
+    }
+  }
+
+  private void notifyResultListener(@NonNull final ResultListener<? super T> listener) {
+    Exception failure;
+    T result;
+    synchronized (mResultLock) {
+      failure = mFailure;
+      result = mResult;
+    }
+
+    if (failure == null) {
+      listener.onResult(result);
+    } else {
+      listener.onFailure(failure);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private T reportResult() throws E {
+    Exception failure;
+    T result;
+    synchronized (mResultLock) {
+      failure = mFailure;
+      result = mResult;
+    }
+
+    if (failure == null) {
+      return result;
+    }
+
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+
+    throw (E) failure;
+  }
+
+  private void checkExecuted() {
+    if (mFutureTask == null) {
+      throw new IllegalStateException("You cannot wait for this task before calling execute()");
+    }
+  }
+
+  /**
+   * Returns whether this task was cancelled because {@link #doInBackground()} exceeded its timeout.
+   *
+   * @see #getTimeoutMillis()
+   */
+  public boolean isTimedOut() {
+    return mTimedOut;
+  }
+
+  /**
+   * Marks this task as timed out, and cancels it with interrupt.
+   */
+  void expire() {
+    mTimedOut = true;
+    cancelInterrupt();
   }
 
   /**
@@ -153,15 +521,224 @@ public abstract class AsyncTask<T, E extends Exception> {
     return mFutureTask.isCancelled();
   }
 
+  /**
+   * Returns the CallbackDispatcher this task performs its main thread callbacks on,
+   * or {@code null} if it hasn't been executed yet.
+   */
+  @Nullable
+  CallbackDispatcher getCallbackDispatcher() {
+    return mDispatcher;
+  }
+
+  /**
+   * Sets the BackgroundSource that provides the result of the background stage instead of {@link #doInBackground()}.
+   * Must be called before this task is executed.
+   */
+  void setBackgroundSource(@Nullable final BackgroundSource<T, E> source) {
+    mBackgroundSource = source;
+  }
+
+  @Nullable
+  BackgroundSource<T, E> getBackgroundSource() {
+    return mBackgroundSource;
+  }
+
+  /**
+   * Runs the background stage: {@link #doInBackground()}, unless a BackgroundSource was set.
+   */
+  @WorkerThread
+  T performBackground() throws E {
+    BackgroundSource<T, E> source = mBackgroundSource;
+    if (source != null) {
+      return source.get();
+    }
+
+    return doInBackground();
+  }
+
+  /**
+   * Sets a listener that is notified when a call to {@link #cancel()} or {@link #cancelInterrupt()} succeeds.
+   */
+  void setCancellationListener(@Nullable final Runnable listener) {
+    mCancellationListener = listener;
+  }
+
+  /**
+   * Sets the TaskScope this task was launched into.
+   */
+  void setScope(@Nullable final TaskScope scope) {
+    mScope = scope;
+  }
+
+  /**
+   * Returns whether none of the main thread callbacks of this task may run anymore, because it was launched into
+   * a TaskScope that has been cancelled, or because the target of its callbacks has been garbage collected.
+   */
+  boolean isCallbackSuppressed() {
+    TaskScope scope = mScope;
+    return scope != null && scope.isCancelled() || isCallbackTargetCollected();
+  }
+
+  /**
+   * Returns whether the object receiving the callbacks of this task has been garbage collected.
+   *
+   * @see WeakTargetAsyncTask
+   */
+  boolean isCallbackTargetCollected() {
+    return false;
+  }
+
+  /**
+   * Removes this task from its TaskScope, once its lifecycle has finished.
+   */
+  void leaveScope() {
+    TaskScope scope = mScope;
+    if (scope != null) {
+      scope.remove(this);
+    }
+  }
+
+  /**
+   * Returns whether given Future runs the current execution of this task.
+   */
+  boolean isRunBy(@NonNull final Future<?> future) {
+    return mFutureTask == future;
+  }
+
+  /**
+   * Cancels this task through {@link #cancel()} or {@link #cancelInterrupt()} if it has been executed, or does nothing otherwise.
+   */
+  void cancelIfExecuted(final boolean mayInterruptIfRunning) {
+    if (mFutureTask == null) {
+      return;
+    }
+
+    if (mayInterruptIfRunning) {
+      cancelInterrupt();
+    } else {
+      cancel();
+    }
+  }
+
   @Nullable
   StackTraceElement[] getLaunchLocation() {
-    if (mLaunchLocation == null) {
-      return null;
+    StackTraceElement[] launchStack = mLaunchStack;
+    if (launchStack == null && mLaunchLocation != null) {
+      launchStack = mLaunchLocation.getStackTrace();
+      mLaunchStack = launchStack;
     }
 
-    StackTraceElement[] result = new StackTraceElement[mLaunchLocation.length];
-    System.arraycopy(mLaunchLocation, 0, result, 0, mLaunchLocation.length);
-    return result;
+    return launchStack;
+  }
+
+  /**
+   * Returns the priority with which this task is taken from the work queue of a {@link DefaultAsyncTaskExecutor}.
+   * Override this method to change the default priority of {@link TaskPriority#NORMAL}.
+   */
+  @NonNull
+  public TaskPriority getPriority() {
+    return TaskPriority.NORMAL;
+  }
+
+  /**
+   * Returns the lane of a {@link DefaultAsyncTaskExecutor} this task is executed on.
+   * Override this method to change the default lane of {@link ExecutionLane#IO}.
+   */
+  @NonNull
+  public ExecutionLane getExecutionLane() {
+    return ExecutionLane.IO;
+  }
+
+  /**
+   * Returns a key identifying the work this task performs, or {@code null} if it has none.
+   * Executors such as {@link CoalescingAsyncTaskExecutor} use this key to recognize tasks of the same class that do the same work.
+   * Override this method to change the default of {@code null}. The key must implement {@code equals} and {@code hashCode}.
+   */
+  @Nullable
+  public Object getKey() {
+    return null;
+  }
+
+  /**
+   * Returns the key of the rate limit this task counts against in a {@link RateLimitingAsyncTaskExecutor},
+   * or {@code null} to count against the rate limit of its class. Tasks of different classes that call the same endpoint
+   * can return equal keys to share a rate limit. Override this method to change the default of {@code null}.
+   */
+  @Nullable
+  public Object getRateLimitKey() {
+    return null;
+  }
+
+  /**
+   * Returns the maximum time in milliseconds {@link #doInBackground()} may run. When it runs longer, this task is cancelled
+   * with interrupt and {@link #onTimeout()} is called instead of the result callback.
+   * Override this method to change the default of {@code 0}, which applies the timeout of the executor, if any.
+   */
+  public long getTimeoutMillis() {
+    return 0;
+  }
+
+  /**
+   * Returns the CallbackDispatcher to perform the callbacks of this task on, regardless of the executor it is executed on,
+   * or {@code null} to use the CallbackDispatcher of the executor. Override this method to change the default of {@code null}.
+   *
+   * Tasks that don't touch views, such as flushing analytics or warming a cache, can return
+   * {@link ImmediateCallbackDispatcher#instance()} to perform their callbacks inline on the worker thread,
+   * or a {@link HandlerCallbackDispatcher} for a background Looper, to keep them off the main thread.
+   */
+  @Nullable
+  public CallbackDispatcher getPreferredCallbackDispatcher() {
+    return null;
+  }
+
+  /**
+   * Returns the RetryPolicy that decides whether {@link #doInBackground()} is attempted again when it throws an Exception,
+   * or {@code null} to never retry. Override this method to change the default of {@code null}.
+   *
+   * In non-blocking mode, retries are resubmitted to the Executor once the backoff delay has passed, and no worker thread is held in the meantime.
+   * In blocking mode, all attempts are made within a single submission to the Executor, and the worker thread waits out the backoff delays.
+   */
+  @Nullable
+  public RetryPolicy<E> getRetryPolicy() {
+    return null;
+  }
+
+  /**
+   * Returns whether {@link #doInBackground()} should be attempted again, now that its last attempt threw given Exception.
+   *
+   * @param retryPolicy The RetryPolicy of this task, as returned by {@link #getRetryPolicy()} when it was executed.
+   * @param attempts The number of attempts made so far.
+   */
+  boolean shouldRetry(@Nullable final RetryPolicy<E> retryPolicy, @NonNull final E exception, final int attempts) {
+    if (retryPolicy == null || isCancelled() || isTimedOut()) {
+      return false;
+    }
+
+    try {
+      return retryPolicy.shouldRetry(exception, attempts);
+    } catch (RuntimeException ignored) {
+      /* A failing RetryCondition must not swallow the original Exception. */
+      return false;
+    }
+  }
+
+  /**
+   * Sets the timeout that applies when {@link #getTimeoutMillis()} returns {@code 0}.
+   */
+  void setDefaultTimeoutNanos(final long timeoutNanos) {
+    mDefaultTimeoutNanos = timeoutNanos;
+  }
+
+  /**
+   * Returns the effective timeout of this task, or {@code 0} if it has none.
+   */
+  long getTimeoutNanos() {
+    long timeoutMillis = getTimeoutMillis();
+    if (timeoutMillis > 0) {
+      return TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    return mDefaultTimeoutNanos;
   }
 
   /**
@@ -181,23 +758,6 @@ public abstract class AsyncTask<T, E extends Exception> {
   @WorkerThread
   protected abstract T doInBackground() throws E;
 
-  /**
-   * Override this method to perform a computation on a background thread. The
-   * specified parameters are the parameters passed to {@link #execute}
-   * by the caller of this task.
-   *
-   * This method can call {@link #publishProgress} to publish updates
-   * on the UI thread.
-   *
-   * @param params The parameters of the task.
-   *
-   * @return A result, defined by the subclass of this task.
-   *
-   * @see #onPreExecute()
-   * @see #onPostExecute
-   * @see #publishProgress
-   */
-
   /**
    * Called after the asynchronous {@link #doInBackground()} method, on the original thread, iff
    * {@link #doInBackground()} didn't throw an Exception, and this AsyncTask wasn't cancelled.
@@ -216,6 +776,18 @@ public abstract class AsyncTask<T, E extends Exception> {
   protected void onCancelled() {
   }
 
+  /**
+   * Called when {@link #doInBackground()} exceeded its timeout, on the main thread, instead of
+   * {@link #onSuccess(Object)}, {@link #onException(Exception)} or {@link #onCancelled()}.
+   * By default, calls {@link #onCancelled()}.
+   *
+   * @see #getTimeoutMillis()
+   */
+  @MainThread
+  protected void onTimeout() {
+    onCancelled();
+  }
+
   /**
    * Called when the thread has been interrupted, likely because the task was
    * cancelled.
@@ -27,5 +27,13 @@ public interface AsyncTaskExecutor {
 
   AsyncTaskExecutor DEFAULT_EXECUTOR = new DefaultAsyncTaskExecutor();
 
+  /**
+   * An AsyncTaskExecutor sharing the thread pool of {@link #DEFAULT_EXECUTOR}, which
+   * never blocks worker threads while main thread callbacks are executed.
+   *
+   * @see AsyncTask#executeNonBlocking(java.util.concurrent.Executor, CallbackDispatcher)
+   */
+  AsyncTaskExecutor NON_BLOCKING_EXECUTOR = new DefaultAsyncTaskExecutor(true);
+
   <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull A task);
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A FutureTask that remembers the AsyncTask it executes, so executors can inspect it while it is queued.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+class AsyncTaskFuture extends FutureTask<Void> {
+
+  @NonNull
+  private final AsyncTask<?, ?> mAsyncTask;
+
+  /**
+   * The lifecycle of a blocking execution, or {@code null} in non-blocking mode.
+   */
+  @Nullable
+  private final Task<?, ?> mTask;
+
+  AsyncTaskFuture(@NonNull final AsyncTask<?, ?> asyncTask, @NonNull final Runnable runnable) {
+    super(runnable, null);
+    mAsyncTask = asyncTask;
+    mTask = null;
+  }
+
+  AsyncTaskFuture(@NonNull final AsyncTask<?, ?> asyncTask, @NonNull final Task<?, ?> task) {
+    super(task, null);
+    mAsyncTask = asyncTask;
+    mTask = task;
+  }
+
+  @NonNull
+  AsyncTask<?, ?> getAsyncTask() {
+    return mAsyncTask;
+  }
+
+  /**
+   * Cancels this FutureTask so that it never starts. If it runs the current execution of its AsyncTask,
+   * the AsyncTask is cancelled through {@link AsyncTask#cancel()}, so that waiters and listeners learn about it.
+   */
+  void discard() {
+    if (mAsyncTask.isRunBy(this)) {
+      mAsyncTask.cancel();
+    } else {
+      cancel(false);
+    }
+  }
+
+  /**
+   * Ends the metrics of a blocking execution that was cancelled before it started, since its lifecycle never runs.
+   */
+  @Override
+  protected void done() {
+    if (mTask != null && isCancelled() && mTask.claimUnstarted() && mAsyncTask.isRunBy(this)) {
+      mAsyncTask.recordMetric(TaskMetrics.FINISHED);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A CallbackDispatcher which coalesces the callbacks of many AsyncTasks into a single Handler message.
+ *
+ * Dispatched callbacks are collected in a queue, which is drained by one message on the Handler.
+ * When draining takes longer than the time budget, the remaining callbacks are left for a new message,
+ * so that other messages, such as frame rendering, get a chance to run in between.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class BatchingCallbackDispatcher implements CallbackDispatcher {
+
+  private static final long DEFAULT_BUDGET_MILLIS = 4;
+
+  @NonNull
+  private final Handler mHandler;
+
+  private final long mBudgetNanos;
+
+  private final Queue<Runnable> mCallbacks = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Whether a drain message has been posted and has not finished yet.
+   */
+  private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+  private final Runnable mDrain = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  /**
+   * Creates a BatchingCallbackDispatcher on the main thread, with a time budget of 4 milliseconds per message.
+   */
+  public BatchingCallbackDispatcher() {
+    this(new Handler(Looper.getMainLooper()), DEFAULT_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param handler The Handler to post drain messages to.
+   * @param budget The time after which a drain message yields.
+   * @param unit The unit of {@code budget}.
+   */
+  public BatchingCallbackDispatcher(@NonNull final Handler handler, final long budget, @NonNull final TimeUnit unit) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("budget must be positive: " + budget);
+    }
+
+    mHandler = handler;
+    mBudgetNanos = unit.toNanos(budget);
+  }
+
+  @Override
+  public void dispatch(@NonNull final Runnable callback) {
+    mCallbacks.add(callback);
+    scheduleDrain();
+  }
+
+  private void scheduleDrain() {
+    if (mScheduled.compareAndSet(false, true)) {
+      mHandler.post(mDrain);
+    }
+  }
+
+  private void drain() {
+    long deadline = System.nanoTime() + mBudgetNanos;
+
+    try {
+      Runnable callback;
+      while ((callback = mCallbacks.poll()) != null) {
+        callback.run();
+
+        if (System.nanoTime() - deadline >= 0) {
+          break;
+        }
+      }
+    } finally {
+      mScheduled.set(false);
+
+      /* Callbacks may have been dispatched after the last poll, or the budget ran out. */
+      if (!mCallbacks.isEmpty()) {
+        scheduleDrain();
+      }
+    }
+  }
+}
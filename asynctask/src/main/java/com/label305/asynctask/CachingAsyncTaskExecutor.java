@@ -0,0 +1,486 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An AsyncTaskExecutor that memoizes the results of tasks with a {@link AsyncTask#getKey()}.
+ *
+ * Results are cached per task class and key. When a task is executed while a fresh result is cached,
+ * that result is passed to {@link AsyncTask#onSuccess(Object)} without running {@link AsyncTask#doInBackground()}
+ * and without a worker thread hop. Otherwise, the task is executed on the delegate executor, and its result is cached.
+ * Exceptions are never cached.
+ *
+ * A cached result is fresh for the time to live. After that, it may still be served for the stale-while-revalidate
+ * period, while a single refresh is executed in the background. The refresh runs the {@link AsyncTask#doInBackground()} of a new task
+ * created by the {@link TaskFactory}, so the task that received the stale result is never run twice.
+ * When the cache is full, the least recently used result is evicted.
+ *
+ * Concurrent executions of tasks of the same class and key that find no usable result share a single run,
+ * as on a {@link CoalescingAsyncTaskExecutor}.
+ *
+ * Tasks without a key are passed to the delegate executor as is.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class CachingAsyncTaskExecutor implements AsyncTaskExecutor {
+
+  /**
+   * Runs the background stage of cache hits on the callback thread, since it only returns the cached result.
+   */
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      command.run();
+    }
+  };
+
+  @NonNull
+  private final AsyncTaskExecutor mDelegate;
+
+  /**
+   * Executes tasks for which no usable result is cached, sharing a single run between concurrent identical tasks.
+   */
+  @NonNull
+  private final CoalescingAsyncTaskExecutor mLoader;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  @Nullable
+  private final TaskFactory mRevalidationFactory;
+
+  private final long mTimeToLiveNanos;
+
+  private final long mStaleWhileRevalidateNanos;
+
+  /**
+   * The cached results in access order. Guarded by itself.
+   */
+  @NonNull
+  private final LruMap mEntries;
+
+  private final AtomicLong mHitCount = new AtomicLong();
+
+  private final AtomicLong mStaleHitCount = new AtomicLong();
+
+  private final AtomicLong mMissCount = new AtomicLong();
+
+  CachingAsyncTaskExecutor(@NonNull final AsyncTaskExecutor delegate,
+                           @NonNull final CallbackDispatcher dispatcher,
+                           final int maxSize,
+                           final long timeToLiveNanos,
+                           final long staleWhileRevalidateNanos,
+                           @Nullable final TaskFactory revalidationFactory) {
+    mDelegate = delegate;
+    mLoader = new CoalescingAsyncTaskExecutor(delegate, dispatcher);
+    mDispatcher = dispatcher;
+    mRevalidationFactory = revalidationFactory;
+    mTimeToLiveNanos = timeToLiveNanos;
+    mStaleWhileRevalidateNanos = staleWhileRevalidateNanos;
+    mEntries = new LruMap(maxSize);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+    Object key = task.getKey();
+    if (key == null) {
+      return mDelegate.execute(task);
+    }
+
+    TaskKey taskKey = new TaskKey(task.getClass(), key);
+    Entry entry;
+    synchronized (mEntries) {
+      entry = mEntries.get(taskKey);
+    }
+
+    if (entry != null) {
+      long age = nanoTime() - entry.mCreatedNanos;
+
+      if (age < mTimeToLiveNanos) {
+        mHitCount.incrementAndGet();
+        return deliverCached(task, (T) entry.mValue);
+      }
+
+      if (age - mTimeToLiveNanos < mStaleWhileRevalidateNanos) {
+        mStaleHitCount.incrementAndGet();
+        revalidate(taskKey, entry, task.getExecutionLane());
+        return deliverCached(task, (T) entry.mValue);
+      }
+    }
+
+    mMissCount.incrementAndGet();
+    BackgroundSource<T, E> source = task.getBackgroundSource();
+    task.setBackgroundSource(new StoringSource<>(taskKey, task, source));
+    A result = mLoader.execute(task);
+    restoreSourceWhenDone(task, source);
+    return result;
+  }
+
+  @NonNull
+  private <T, E extends Exception, A extends AsyncTask<T, E>> A deliverCached(@NonNull final A task, @Nullable final T value) {
+    BackgroundSource<T, E> source = task.getBackgroundSource();
+    task.setBackgroundSource(
+        new BackgroundSource<T, E>() {
+          @Override
+          public T get() {
+            return value;
+          }
+        }
+    );
+    A result = task.executeNonBlocking(DIRECT_EXECUTOR, mDispatcher);
+    restoreSourceWhenDone(task, source);
+    return result;
+  }
+
+  private void revalidate(@NonNull final TaskKey taskKey, @NonNull final Entry entry, @NonNull final ExecutionLane lane) {
+    if (mRevalidationFactory == null || !entry.mRevalidating.compareAndSet(false, true)) {
+      return;
+    }
+
+    AsyncTask<?, ?> task = mRevalidationFactory.create(taskKey.getTaskClass(), taskKey.getKey());
+    if (task == null) {
+      entry.mRevalidating.set(false);
+      return;
+    }
+
+    revalidate(taskKey, entry, lane, task);
+  }
+
+  private <T, E extends Exception> void revalidate(@NonNull final TaskKey taskKey,
+                                                   @NonNull final Entry entry,
+                                                   @NonNull final ExecutionLane lane,
+                                                   @NonNull final AsyncTask<T, E> task) {
+    try {
+      mDelegate.execute(new RevalidateTask<>(entry, lane, new StoringSource<>(taskKey, task, task.getBackgroundSource())));
+    } catch (RuntimeException ignored) {
+      /* Keep serving the stale result, and try again on the next stale hit. */
+      entry.mRevalidating.set(false);
+    }
+  }
+
+  /**
+   * Gives given task back the BackgroundSource it had before it was executed on this executor, once its outcome is known.
+   * This way, executing the task again elsewhere runs the task itself instead of this executor's cache.
+   */
+  private static <T, E extends Exception> void restoreSourceWhenDone(@NonNull final AsyncTask<T, E> task, @Nullable final BackgroundSource<T, E> source) {
+    task.addResultListener(
+        new ResultListener<T>() {
+          @Override
+          public void onResult(@Nullable final T result) {
+            task.setBackgroundSource(source);
+          }
+
+          @Override
+          public void onFailure(@NonNull final Exception e) {
+            task.setBackgroundSource(source);
+          }
+        }
+    );
+  }
+
+  private void put(@NonNull final TaskKey taskKey, @Nullable final Object value) {
+    Entry entry = new Entry(value, nanoTime());
+    synchronized (mEntries) {
+      mEntries.put(taskKey, entry);
+    }
+  }
+
+  /**
+   * Removes the cached result of tasks of given class with given key.
+   */
+  public void invalidate(@NonNull final Class<?> taskClass, @NonNull final Object key) {
+    synchronized (mEntries) {
+      mEntries.remove(new TaskKey(taskClass, key));
+    }
+  }
+
+  /**
+   * Removes all cached results.
+   */
+  public void invalidateAll() {
+    synchronized (mEntries) {
+      mEntries.clear();
+    }
+  }
+
+  /**
+   * Returns the number of cached results.
+   */
+  public int size() {
+    synchronized (mEntries) {
+      return mEntries.size();
+    }
+  }
+
+  /**
+   * Returns the number of tasks that received a fresh cached result.
+   */
+  public long getHitCount() {
+    return mHitCount.get();
+  }
+
+  /**
+   * Returns the number of tasks that received a stale cached result while it was being revalidated.
+   */
+  public long getStaleHitCount() {
+    return mStaleHitCount.get();
+  }
+
+  /**
+   * Returns the number of tasks that had to be executed because no usable result was cached.
+   */
+  public long getMissCount() {
+    return mMissCount.get();
+  }
+
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * A LinkedHashMap in access order that evicts the least recently used entry when it grows beyond its maximum size.
+   */
+  private static class LruMap extends LinkedHashMap<TaskKey, Entry> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int mMaxSize;
+
+    LruMap(final int maxSize) {
+      super(16, 0.75f, true);
+      mMaxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<TaskKey, Entry> eldest) {
+      return size() > mMaxSize;
+    }
+  }
+
+  private static class Entry {
+
+    @Nullable
+    private final Object mValue;
+
+    private final long mCreatedNanos;
+
+    private final AtomicBoolean mRevalidating = new AtomicBoolean();
+
+    Entry(@Nullable final Object value, final long createdNanos) {
+      mValue = value;
+      mCreatedNanos = createdNanos;
+    }
+  }
+
+  /**
+   * Runs the background stage of a task through the BackgroundSource it had before, if any, and caches its result if it succeeds.
+   */
+  private class StoringSource<T, E extends Exception> implements BackgroundSource<T, E> {
+
+    @NonNull
+    private final TaskKey mTaskKey;
+
+    @NonNull
+    private final AsyncTask<T, E> mTask;
+
+    @Nullable
+    private final BackgroundSource<T, E> mSource;
+
+    StoringSource(@NonNull final TaskKey taskKey, @NonNull final AsyncTask<T, E> task, @Nullable final BackgroundSource<T, E> source) {
+      mTaskKey = taskKey;
+      mTask = task;
+      mSource = source;
+    }
+
+    @Override
+    public T get() throws E {
+      T result = mSource == null ? mTask.doInBackground() : mSource.get();
+      put(mTaskKey, result);
+      return result;
+    }
+  }
+
+  /**
+   * Refreshes a stale cached result through the background stage of a task created by the {@link TaskFactory}.
+   * That task is never executed itself, so none of its callbacks are called. Failures leave the stale result in place, until it expires.
+   */
+  private class RevalidateTask<T, E extends Exception> extends AsyncTask<Void, RuntimeException> {
+
+    @NonNull
+    private final Entry mEntry;
+
+    @NonNull
+    private final ExecutionLane mExecutionLane;
+
+    @NonNull
+    private final StoringSource<T, E> mSource;
+
+    RevalidateTask(@NonNull final Entry entry, @NonNull final ExecutionLane executionLane, @NonNull final StoringSource<T, E> source) {
+      mEntry = entry;
+      mExecutionLane = executionLane;
+      mSource = source;
+    }
+
+    @NonNull
+    @Override
+    public TaskPriority getPriority() {
+      return TaskPriority.PREFETCH;
+    }
+
+    @NonNull
+    @Override
+    public ExecutionLane getExecutionLane() {
+      return mExecutionLane;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      try {
+        mSource.get();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception ignored) {
+        /* Keep serving the stale result. */
+      } finally {
+        mEntry.mRevalidating.set(false);
+      }
+
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+
+  /**
+   * Creates the tasks that refresh stale cached results.
+   */
+  public interface TaskFactory {
+
+    /**
+     * Returns a new task of given class with given key, whose {@link AsyncTask#doInBackground()} computes a fresh result,
+     * or {@code null} to keep serving the stale result without refreshing it.
+     */
+    @Nullable
+    AsyncTask<?, ?> create(@NonNull Class<?> taskClass, @NonNull Object key);
+  }
+
+  /**
+   * Creates CachingAsyncTaskExecutors.
+   */
+  public static class Builder {
+
+    @NonNull
+    private final AsyncTaskExecutor mDelegate;
+
+    @Nullable
+    private CallbackDispatcher mDispatcher;
+
+    private int mMaxSize = 64;
+
+    private long mTimeToLiveNanos = TimeUnit.MINUTES.toNanos(5);
+
+    private long mStaleWhileRevalidateNanos;
+
+    @Nullable
+    private TaskFactory mRevalidationFactory;
+
+    /**
+     * @param delegate The AsyncTaskExecutor to execute tasks on when no usable result is cached.
+     */
+    public Builder(@NonNull final AsyncTaskExecutor delegate) {
+      mDelegate = delegate;
+    }
+
+    /**
+     * Sets the maximum number of cached results. Defaults to 64.
+     */
+    @NonNull
+    public Builder setMaxSize(final int maxSize) {
+      if (maxSize <= 0) {
+        throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+      }
+
+      mMaxSize = maxSize;
+      return this;
+    }
+
+    /**
+     * Sets the time for which a cached result is fresh. Defaults to 5 minutes.
+     */
+    @NonNull
+    public Builder setTimeToLive(final long timeToLive, @NonNull final TimeUnit unit) {
+      if (timeToLive <= 0) {
+        throw new IllegalArgumentException("timeToLive must be positive: " + timeToLive);
+      }
+
+      mTimeToLiveNanos = unit.toNanos(timeToLive);
+      return this;
+    }
+
+    /**
+     * Sets the time after expiry during which a cached result is still served while it is refreshed in the background.
+     * Defaults to 0, disabling stale-while-revalidate.
+     *
+     * @param revalidationFactory Creates the tasks whose {@link AsyncTask#doInBackground()} refreshes a stale result.
+     */
+    @NonNull
+    public Builder setStaleWhileRevalidate(final long staleWhileRevalidate,
+                                           @NonNull final TimeUnit unit,
+                                           @NonNull final TaskFactory revalidationFactory) {
+      if (staleWhileRevalidate < 0) {
+        throw new IllegalArgumentException("staleWhileRevalidate must not be negative: " + staleWhileRevalidate);
+      }
+
+      mStaleWhileRevalidateNanos = unit.toNanos(staleWhileRevalidate);
+      mRevalidationFactory = revalidationFactory;
+      return this;
+    }
+
+    /**
+     * Sets the CallbackDispatcher to deliver cached results on. Defaults to the main thread.
+     */
+    @NonNull
+    public Builder setCallbackDispatcher(@NonNull final CallbackDispatcher dispatcher) {
+      mDispatcher = dispatcher;
+      return this;
+    }
+
+    @NonNull
+    public CachingAsyncTaskExecutor build() {
+      CallbackDispatcher dispatcher = mDispatcher;
+      if (dispatcher == null) {
+        dispatcher = new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper()));
+      }
+
+      return new CachingAsyncTaskExecutor(mDelegate, dispatcher, mMaxSize, mTimeToLiveNanos, mStaleWhileRevalidateNanos, mRevalidationFactory);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Runs the main thread callbacks of AsyncTasks, such as {@link AsyncTask#onPreExecute()} and {@link AsyncTask#onSuccess(Object)}.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public interface CallbackDispatcher {
+
+  /**
+   * Runs given callback on the callback thread. Callbacks must be run in the order in which they were dispatched.
+   *
+   * @param callback The callback to run.
+   */
+  void dispatch(@NonNull Runnable callback);
+}
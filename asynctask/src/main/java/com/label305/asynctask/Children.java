@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The child tasks of a {@link ParentAsyncTask}.
+ *
+ * Children are forked from {@link ParentAsyncTask#doInBackground(Children)}, and run in parallel on worker threads.
+ * Only the {@link AsyncTask#doInBackground()} of a child is run: its outcome is reported to the parent through {@link #join()},
+ * and none of its own callbacks are called.
+ *
+ * When a child fails, its running siblings are cancelled with interrupt, unless the parent disabled this
+ * through {@link ParentAsyncTask#cancelsSiblingsOnFailure()}.
+ *
+ * @param <E> the type of the Exception the children may throw.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public final class Children<E extends Exception> {
+
+  @NonNull
+  private final Executor mExecutor;
+
+  private final boolean mCancelSiblingsOnFailure;
+
+  /**
+   * All children that have been forked, guarded by this.
+   */
+  @NonNull
+  private final List<Child<?>> mChildren = new ArrayList<>();
+
+  /**
+   * The number of children that haven't completed yet, guarded by this.
+   */
+  private int mPending;
+
+  /**
+   * The first failure of a child, guarded by this.
+   */
+  @Nullable
+  private Exception mFailure;
+
+  /**
+   * Whether the parent was cancelled, guarded by this.
+   */
+  private boolean mCancelled;
+
+  Children(@NonNull final Executor executor, final boolean cancelSiblingsOnFailure) {
+    mExecutor = executor;
+    mCancelSiblingsOnFailure = cancelSiblingsOnFailure;
+  }
+
+  /**
+   * Starts running the {@link AsyncTask#doInBackground()} of given task in parallel.
+   *
+   * @return the Child, which provides the result once {@link #join()} has returned.
+   */
+  @NonNull
+  @WorkerThread
+  public <C> Child<C> fork(@NonNull final AsyncTask<C, ? extends E> task) {
+    Child<C> child = new Child<>(task);
+
+    boolean cancelled;
+    synchronized (this) {
+      mChildren.add(child);
+      mPending++;
+      cancelled = mCancelled;
+    }
+
+    if (cancelled) {
+      child.mFuture.cancel(false);
+    } else {
+      mExecutor.execute(child.mFuture);
+    }
+
+    return child;
+  }
+
+  /**
+   * Waits until all forked children have completed. While waiting, children that haven't been picked up
+   * by the Executor yet are run on the calling thread.
+   *
+   * @throws E the Exception of the first child that failed.
+   * @throws CancellationException if the parent was cancelled.
+   */
+  @WorkerThread
+  public void join() throws E {
+    for (Child<?> child : snapshot()) {
+      if (isSettled()) {
+        break;
+      }
+
+      child.mFuture.run();
+      if (child.mFuture.isCancelled()) {
+        /* The child was cancelled while it ran on this thread, which delivers an interrupt to this thread. */
+        Thread.interrupted();
+      }
+    }
+
+    Exception failure;
+    synchronized (this) {
+      while (!isSettled()) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          mCancelled = true;
+        }
+      }
+
+      failure = mFailure;
+      if (failure == null && mCancelled) {
+        throw new CancellationException("The parent task was cancelled");
+      }
+    }
+
+    if (failure != null) {
+      cancel();
+      Children.<E>rethrow(failure);
+    }
+  }
+
+  /**
+   * Cancels all children that haven't completed yet, and makes {@link #join()} throw a CancellationException.
+   */
+  void cancel() {
+    synchronized (this) {
+      mCancelled = true;
+      notifyAll();
+    }
+
+    cancelAll();
+  }
+
+  private void cancelAll() {
+    for (Child<?> child : snapshot()) {
+      child.mFuture.cancel(true);
+    }
+  }
+
+  @NonNull
+  private synchronized List<Child<?>> snapshot() {
+    return new ArrayList<>(mChildren);
+  }
+
+  private synchronized boolean isSettled() {
+    return mPending == 0 || mCancelled || mFailure != null && mCancelSiblingsOnFailure;
+  }
+
+  private void onChildDone(@NonNull final FutureTask<?> future) {
+    Exception failure = null;
+    if (!future.isCancelled()) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          failure = (Exception) cause;
+        }
+      } catch (InterruptedException ignored) {
+        /* The future is done, so get() does not wait. */
+      }
+    }
+
+    boolean cancelSiblings;
+    synchronized (this) {
+      mPending--;
+      cancelSiblings = failure != null && mFailure == null && mCancelSiblingsOnFailure;
+      if (failure != null && mFailure == null) {
+        mFailure = failure;
+      }
+      notifyAll();
+    }
+
+    if (cancelSiblings) {
+      cancelAll();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E extends Exception> void rethrow(@NonNull final Exception e) throws E {
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+
+    throw (E) e;
+  }
+
+  /**
+   * A child task, forked through {@link Children#fork(AsyncTask)}.
+   *
+   * @param <C> the type of the result of the child.
+   */
+  public final class Child<C> {
+
+    @NonNull
+    private final FutureTask<C> mFuture;
+
+    Child(@NonNull final AsyncTask<C, ? extends E> task) {
+      mFuture = new FutureTask<C>(
+          new Callable<C>() {
+            @Override
+            public C call() throws Exception {
+              return task.doInBackground();
+            }
+          }
+      ) {
+        @Override
+        protected void done() {
+          onChildDone(this);
+        }
+      };
+    }
+
+    /**
+     * Returns whether this child completed successfully.
+     */
+    public boolean isSuccessful() {
+      if (!mFuture.isDone() || mFuture.isCancelled()) {
+        return false;
+      }
+
+      try {
+        mFuture.get();
+        return true;
+      } catch (ExecutionException ignored) {
+        return false;
+      } catch (InterruptedException ignored) {
+        return false;
+      }
+    }
+
+    /**
+     * Returns the result of this child.
+     *
+     * @throws IllegalStateException if this child did not complete successfully, for example because {@link Children#join()} wasn't called.
+     */
+    public C get() {
+      if (!isSuccessful()) {
+        throw new IllegalStateException("This child did not complete successfully");
+      }
+
+      try {
+        return mFuture.get();
+      } catch (ExecutionException | InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * An AsyncTaskExecutor that joins concurrent executions of identical tasks onto a single {@link AsyncTask#doInBackground()} run.
+ *
+ * Tasks are identical when they are of the same class and have equal {@link AsyncTask#getKey()}s.
+ * When a task is executed while an identical task is still running, it waits for the result of that run
+ * instead of starting its own. Every waiting task receives its own {@link AsyncTask#onPreExecute()}, result callback,
+ * and {@link AsyncTask#onFinally()}. Tasks without a key are passed to the delegate executor as is.
+ *
+ * Cancelling a waiting task only cancels that task: the shared run is cancelled, with interrupt, once all of its waiting tasks have been cancelled.
+ * Conversely, when the shared run is cancelled before it completes, for example because the delegate discarded or rejected it,
+ * all waiting tasks are cancelled.
+ *
+ * Waiting tasks are executed using {@link AsyncTask#executeNonBlocking(Executor, CallbackDispatcher)},
+ * so that they don't occupy worker threads while the shared run is in progress. The shared run starts once the
+ * {@link AsyncTask#onPreExecute()} of a waiting task has finished, and runs the {@link AsyncTask#doInBackground()} of that task.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class CoalescingAsyncTaskExecutor implements AsyncTaskExecutor {
+
+  @NonNull
+  private final AsyncTaskExecutor mDelegate;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  @NonNull
+  private final ConcurrentMap<TaskKey, CoalescedRun<?, ?>> mRuns = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a CoalescingAsyncTaskExecutor that performs callbacks on the main thread.
+   *
+   * @param delegate The AsyncTaskExecutor to execute shared runs and tasks without a key on.
+   */
+  public CoalescingAsyncTaskExecutor(@NonNull final AsyncTaskExecutor delegate) {
+    this(delegate, new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper())));
+  }
+
+  /**
+   * @param delegate The AsyncTaskExecutor to execute shared runs and tasks without a key on.
+   * @param dispatcher The CallbackDispatcher to perform the callbacks of waiting tasks on.
+   */
+  public CoalescingAsyncTaskExecutor(@NonNull final AsyncTaskExecutor delegate, @NonNull final CallbackDispatcher dispatcher) {
+    mDelegate = delegate;
+    mDispatcher = dispatcher;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+    Object key = task.getKey();
+    if (key == null) {
+      return mDelegate.execute(task);
+    }
+
+    TaskKey taskKey = new TaskKey(task.getClass(), key);
+    while (true) {
+      CoalescedRun<T, E> run = (CoalescedRun<T, E>) mRuns.get(taskKey);
+
+      if (run == null) {
+        CoalescedRun<T, E> newRun = new CoalescedRun<>(taskKey);
+        if (mRuns.putIfAbsent(taskKey, newRun) == null) {
+          newRun.join(task);
+          return task;
+        }
+      } else if (run.join(task)) {
+        return task;
+      } else {
+        /* The run has completed or was abandoned, but hasn't been removed yet. */
+        mRuns.remove(taskKey, run);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of shared runs in progress.
+   */
+  int getRunCount() {
+    return mRuns.size();
+  }
+
+  /**
+   * A single {@link AsyncTask#doInBackground()} run, shared by all tasks waiting for it.
+   *
+   * The background stages of the waiting tasks are parked until the shared run completes, after which they pick up its outcome through {@link #get()}.
+   * The first background stage to be parked starts the shared run.
+   */
+  private class CoalescedRun<T, E extends Exception> implements BackgroundSource<T, E> {
+
+    @NonNull
+    private final TaskKey mKey;
+
+    /**
+     * The shared run, once it has been started. Guarded by this.
+     */
+    @Nullable
+    private SharedRunTask<T, E> mSharedRunTask;
+
+    /**
+     * The background stages of waiting tasks, parked until the shared run completes.
+     */
+    @NonNull
+    private final List<Runnable> mParked = new ArrayList<>();
+
+    @NonNull
+    private final List<AsyncTask<T, E>> mWaiters = new ArrayList<>();
+
+    /**
+     * Whether the shared run has been executed on the delegate executor.
+     */
+    private boolean mStarted;
+
+    private boolean mCompleted;
+
+    private boolean mAbandoned;
+
+    @Nullable
+    private T mResult;
+
+    @Nullable
+    private E mException;
+
+    @Nullable
+    private RuntimeException mRuntimeException;
+
+    CoalescedRun(@NonNull final TaskKey key) {
+      mKey = key;
+    }
+
+    /**
+     * Executes the shared run on the delegate executor. Only called once.
+     */
+    private void start(@NonNull final SharedRunTask<T, E> sharedRunTask) {
+      sharedRunTask.setCancellationListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              abort();
+            }
+          }
+      );
+
+      try {
+        mDelegate.execute(sharedRunTask);
+      } catch (RuntimeException ignored) {
+        /* The waiting tasks are cancelled instead. */
+        abort();
+        return;
+      }
+
+      boolean abandoned;
+      synchronized (this) {
+        mStarted = true;
+        abandoned = mAbandoned;
+      }
+
+      /* All waiting tasks may have been cancelled while the shared run was being executed. */
+      if (abandoned) {
+        sharedRunTask.cancelInterrupt();
+      }
+    }
+
+    /**
+     * Adds given task to the waiters of this run, and executes it.
+     *
+     * @return {@code false} if this run no longer accepts waiters.
+     */
+    boolean join(@NonNull final AsyncTask<T, E> task) {
+      synchronized (this) {
+        if (mCompleted || mAbandoned) {
+          return false;
+        }
+
+        mWaiters.add(task);
+      }
+
+      Waiter<T, E> waiter = new Waiter<>(this, task, task.getBackgroundSource());
+      task.setBackgroundSource(this);
+      task.setCancellationListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              leave(task);
+            }
+          }
+      );
+      task.executeNonBlocking(waiter, mDispatcher);
+      return true;
+    }
+
+    private void leave(@NonNull final AsyncTask<T, E> task) {
+      SharedRunTask<T, E> sharedRunTask;
+      synchronized (this) {
+        mWaiters.remove(task);
+        if (!mWaiters.isEmpty() || mCompleted || mAbandoned) {
+          return;
+        }
+
+        mAbandoned = true;
+        sharedRunTask = mStarted ? mSharedRunTask : null;
+      }
+
+      mRuns.remove(mKey, this);
+
+      /* If the shared run hasn't been executed yet, start() cancels it. */
+      if (sharedRunTask != null) {
+        sharedRunTask.cancelInterrupt();
+      }
+    }
+
+    /**
+     * Cancels all waiting tasks, since the shared run ended without completing: it was cancelled,
+     * discarded by the delegate, or could not be executed at all.
+     */
+    void abort() {
+      List<AsyncTask<T, E>> waiters;
+      synchronized (this) {
+        if (mCompleted || mAbandoned) {
+          return;
+        }
+
+        mAbandoned = true;
+        waiters = new ArrayList<>(mWaiters);
+        mWaiters.clear();
+        mParked.clear();
+      }
+
+      mRuns.remove(mKey, this);
+
+      for (AsyncTask<T, E> waiter : waiters) {
+        waiter.cancel();
+      }
+    }
+
+    /**
+     * Parks the background stage of given waiting task, or runs it right away if the shared run has completed.
+     * The first background stage to be parked starts the shared run, running the background stage of given task:
+     * its {@link AsyncTask#onPreExecute()} has finished by now.
+     */
+    void park(@NonNull final Waiter<T, E> waiter, @NonNull final Runnable backgroundStage) {
+      boolean completed;
+      SharedRunTask<T, E> sharedRunTask = null;
+      synchronized (this) {
+        completed = mCompleted;
+        if (!completed) {
+          mParked.add(backgroundStage);
+
+          if (mSharedRunTask == null && !mAbandoned) {
+            mSharedRunTask = new SharedRunTask<>(this, waiter.mTask, waiter.mSource);
+            sharedRunTask = mSharedRunTask;
+          }
+        }
+      }
+
+      if (completed) {
+        backgroundStage.run();
+      } else if (sharedRunTask != null) {
+        start(sharedRunTask);
+      }
+    }
+
+    void complete(@Nullable final T result, @Nullable final E exception, @Nullable final RuntimeException runtimeException) {
+      List<Runnable> parked;
+      synchronized (this) {
+        if (mAbandoned) {
+          return;
+        }
+
+        mResult = result;
+        mException = exception;
+        mRuntimeException = runtimeException;
+        mCompleted = true;
+
+        parked = new ArrayList<>(mParked);
+        mParked.clear();
+      }
+
+      mRuns.remove(mKey, this);
+
+      for (Runnable backgroundStage : parked) {
+        backgroundStage.run();
+      }
+    }
+
+    @Override
+    public T get() throws E {
+      synchronized (this) {
+        if (mRuntimeException != null) {
+          throw mRuntimeException;
+        }
+
+        if (mException != null) {
+          throw mException;
+        }
+
+        return mResult;
+      }
+    }
+  }
+
+  /**
+   * The Executor a waiting task is executed on, which parks its background stage in the {@link CoalescedRun}.
+   */
+  private static class Waiter<T, E extends Exception> implements Executor {
+
+    @NonNull
+    private final CoalescingAsyncTaskExecutor.CoalescedRun<T, E> mRun;
+
+    @NonNull
+    private final AsyncTask<T, E> mTask;
+
+    /**
+     * The BackgroundSource the task had before it joined the run, if any.
+     */
+    @Nullable
+    private final BackgroundSource<T, E> mSource;
+
+    Waiter(@NonNull final CoalescingAsyncTaskExecutor.CoalescedRun<T, E> run,
+           @NonNull final AsyncTask<T, E> task,
+           @Nullable final BackgroundSource<T, E> source) {
+      mRun = run;
+      mTask = task;
+      mSource = source;
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable backgroundStage) {
+      mRun.park(this, backgroundStage);
+    }
+  }
+
+  /**
+   * Executes the {@link AsyncTask#doInBackground()} of the task that started a {@link CoalescedRun} on the delegate executor.
+   * Its outcome is delivered through the waiting tasks, so its own callbacks do nothing, and are performed inline on the worker thread.
+   */
+  private static class SharedRunTask<T, E extends Exception> extends AsyncTask<Void, RuntimeException> {
+
+    @NonNull
+    private final CoalescingAsyncTaskExecutor.CoalescedRun<T, E> mRun;
+
+    @NonNull
+    private final AsyncTask<T, E> mTask;
+
+    /**
+     * The BackgroundSource the task had before it joined the run, if any.
+     */
+    @Nullable
+    private final BackgroundSource<T, E> mSource;
+
+    SharedRunTask(@NonNull final CoalescingAsyncTaskExecutor.CoalescedRun<T, E> run,
+                  @NonNull final AsyncTask<T, E> task,
+                  @Nullable final BackgroundSource<T, E> source) {
+      mRun = run;
+      mTask = task;
+      mSource = source;
+    }
+
+    @NonNull
+    @Override
+    public TaskPriority getPriority() {
+      return mTask.getPriority();
+    }
+
+    @NonNull
+    @Override
+    public ExecutionLane getExecutionLane() {
+      return mTask.getExecutionLane();
+    }
+
+    @Nullable
+    @Override
+    public CallbackDispatcher getPreferredCallbackDispatcher() {
+      return ImmediateCallbackDispatcher.instance();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected Void doInBackground() {
+      T result = null;
+      E exception = null;
+      RuntimeException runtimeException = null;
+
+      //noinspection OverlyBroadCatchBlock
+      try {
+        result = mSource == null ? mTask.doInBackground() : mSource.get();
+      } catch (RuntimeException e) {
+        runtimeException = e;
+      } catch (Exception e) {
+        exception = (E) e;
+      }
+
+      mRun.complete(result, exception, runtimeException);
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+
+    @Override
+    protected void onInterrupted(@NonNull final InterruptedException e) {
+    }
+
+    @Override
+    protected void onFinally() {
+      /* Does nothing if the run has completed. */
+      mRun.abort();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.CancellationException;
+
+/**
+ * An AsyncTask that runs a composition of {@link Stage}s in the background.
+ *
+ * All stages run on worker threads; only the outcome of the composition is delivered to the callbacks of this task:
+ * <pre>
+ *   Stage&lt;Profile, IOException&gt; profile = Stage.of(new RetrieveUserTask(userId))
+ *       .then(new Continuation&lt;User, Profile, IOException&gt;() {
+ *         public Profile then(User user) throws IOException {
+ *           return mWebService.retrieveProfile(user);
+ *         }
+ *       });
+ *
+ *   new ComposedAsyncTask&lt;Profile, IOException&gt;(profile) {
+ *     protected void onSuccess(Profile profile) { ... }
+ *     protected void onException(IOException e) { ... }
+ *   }.execute();
+ * </pre>
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public abstract class ComposedAsyncTask<T, E extends Exception> extends AsyncTask<T, E> {
+
+  @NonNull
+  private final Stage<T, E> mStage;
+
+  protected ComposedAsyncTask(@NonNull final Stage<T, E> stage) {
+    mStage = stage;
+  }
+
+  @Override
+  protected final T doInBackground() throws E {
+    try {
+      return mStage.get();
+    } catch (CancellationException e) {
+      if (isCancelled()) {
+        /* The composition was interrupted because this task was cancelled, which is reported through onCancelled(). */
+        return null;
+      }
+
+      throw e;
+    }
+  }
+}
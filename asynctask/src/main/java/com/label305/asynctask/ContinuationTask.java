@@ -0,0 +1,319 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A non-blocking alternative to {@link Task}.
+ *
+ * Instead of parking a worker thread while the main thread runs a callback,
+ * each stage hands off to the next one and returns:
+ * <ol>
+ * <li>{@link AsyncTask#onPreExecute()} is posted to the main thread, which then submits the background stage;</li>
+ * <li>{@link AsyncTask#doInBackground()} runs on a worker thread, which then posts the completion stage;</li>
+ * <li>the result callback and {@link AsyncTask#onFinally()} run in a single main thread message.</li>
+ * </ol>
+ * Since no worker ever waits for the main thread, {@link AsyncTask#onInterrupted(InterruptedException)}
+ * is never called in this mode.
+ *
+ * When the background stage fails and the {@link RetryPolicy} of the task allows another attempt,
+ * the same FutureTask is resubmitted to the Executor from the {@link SharedScheduler} once the backoff delay has passed.
+ * No thread is held in the meantime. If the Executor rejects the retry, the Exception of the last attempt is delivered.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+class ContinuationTask<T, E extends Exception> implements Runnable {
+
+  @NonNull
+  private final AsyncTask<T, E> mParent;
+
+  @NonNull
+  private final Executor mExecutor;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  @NonNull
+  private final BackgroundFutureTask mFutureTask;
+
+  @Nullable
+  private final RetryPolicy<E> mRetryPolicy;
+
+  /**
+   * The number of times the background stage has been attempted.
+   */
+  private int mAttempts;
+
+  /**
+   * Guards the completion stage, which must be posted exactly once: either by the
+   * background stage, or by a cancellation that happened before the background stage started.
+   * It is released again while waiting for a retry, so that a cancellation during the backoff delay is delivered.
+   */
+  @NonNull
+  private final AtomicBoolean mCompletionClaimed = new AtomicBoolean();
+
+  ContinuationTask(@NonNull final AsyncTask<T, E> parent, @NonNull final Executor executor, @NonNull final CallbackDispatcher dispatcher) {
+    mParent = parent;
+    mExecutor = executor;
+    mDispatcher = dispatcher;
+    mFutureTask = new BackgroundFutureTask();
+    mRetryPolicy = parent.getRetryPolicy();
+  }
+
+  /**
+   * Returns the FutureTask wrapping the background stage, which is used to cancel this task.
+   */
+  @NonNull
+  FutureTask<Void> getFutureTask() {
+    return mFutureTask;
+  }
+
+  /**
+   * Starts the pipeline by posting the pre execute stage to the main thread.
+   */
+  void start() {
+    if (mParent.isCallbackSuppressed()) {
+      /* Nobody is interested in the outcome anymore. */
+      mParent.cancel();
+      return;
+    }
+
+    mDispatcher.dispatch(
+        new Runnable() {
+          @Override
+          public void run() {
+            doPreExecute();
+          }
+        }
+    );
+  }
+
+  private void doPreExecute() {
+    if (mParent.isCallbackSuppressed()) {
+      mParent.cancel();
+      return;
+    }
+
+    mParent.recordMetric(TaskMetrics.STARTED);
+
+    try {
+      mParent.onPreExecute();
+      mParent.recordMetric(TaskMetrics.PRE_EXECUTED);
+
+      if (!mParent.isCancelled()) {
+        mExecutor.execute(mFutureTask);
+      }
+    } catch (RuntimeException e) {
+      mParent.completeResult(null, e);
+
+      if (mCompletionClaimed.compareAndSet(false, true)) {
+        new Completion(null, null, e).run();
+      } else {
+        /* A cancellation has already posted the completion stage, which will call onFinally(). */
+        Task.fixStackTrace(mParent, e);
+        mParent.onRuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * The background stage, executed by {@link #mFutureTask} on a worker thread.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void run() {
+    if (!mCompletionClaimed.compareAndSet(false, true)) {
+      return;
+    }
+
+    T result = null;
+    E exception = null;
+    RuntimeException runtimeException = null;
+
+    mParent.recordMetric(TaskMetrics.BACKGROUND_STARTED);
+    Deadline deadline = Deadline.start(mParent);
+
+    //noinspection OverlyBroadCatchBlock
+    try {
+      result = mParent.performBackground();
+    } catch (RuntimeException e) {
+      runtimeException = e;
+    } catch (Exception e) {
+      exception = (E) e;
+    } finally {
+      if (deadline != null) {
+        deadline.finish();
+      }
+    }
+
+    mParent.recordMetric(TaskMetrics.BACKGROUND_DONE);
+    mAttempts++;
+
+    if (exception != null && mParent.shouldRetry(mRetryPolicy, exception, mAttempts)) {
+      scheduleRetry(exception);
+      return;
+    }
+
+    complete(result, exception, runtimeException);
+  }
+
+  /**
+   * Records the final outcome of the background stage, and posts the completion stage. Must hold the completion claim.
+   */
+  private void complete(@Nullable final T result, @Nullable final E exception, @Nullable final RuntimeException runtimeException) {
+    mParent.completeResult(result, exception != null ? exception : runtimeException);
+    mFutureTask.complete();
+    dispatchCompletion(new Completion(result, exception, runtimeException));
+  }
+
+  private void scheduleRetry(@NonNull final E exception) {
+    assert mRetryPolicy != null;
+
+    mCompletionClaimed.set(false);
+    SharedScheduler.instance().schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (mFutureTask.isCancelled()) {
+              return;
+            }
+
+            try {
+              mExecutor.execute(mFutureTask);
+            } catch (RejectedExecutionException ignored) {
+              /* The retry can't run, so the last attempt was final. */
+              if (mCompletionClaimed.compareAndSet(false, true)) {
+                complete(null, exception, null);
+              }
+            }
+          }
+        },
+        mRetryPolicy.delayNanos(mAttempts)
+    );
+  }
+
+  private void onFutureTaskDone() {
+    if (mFutureTask.isCancelled() && mCompletionClaimed.compareAndSet(false, true)) {
+      dispatchCompletion(new Completion(null, null, null));
+    }
+  }
+
+  /**
+   * Posts given completion stage to the main thread, unless the callbacks of the parent are suppressed.
+   */
+  private void dispatchCompletion(@NonNull final Completion completion) {
+    if (mParent.isCallbackSuppressed()) {
+      mParent.recordMetric(TaskMetrics.FINISHED);
+      mParent.leaveScope();
+    } else {
+      mDispatcher.dispatch(completion);
+    }
+  }
+
+  /**
+   * Delivers the outcome of this task, followed by {@link AsyncTask#onFinally()}, on the main thread.
+   */
+  private class Completion implements Runnable {
+
+    @Nullable
+    private final T mResult;
+
+    @Nullable
+    private final E mException;
+
+    @Nullable
+    private final RuntimeException mRuntimeException;
+
+    Completion(@Nullable final T result, @Nullable final E exception, @Nullable final RuntimeException runtimeException) {
+      mResult = result;
+      mException = exception;
+      mRuntimeException = runtimeException;
+    }
+
+    @Override
+    public void run() {
+      if (mParent.isCallbackSuppressed()) {
+        mParent.recordMetric(TaskMetrics.FINISHED);
+        mParent.leaveScope();
+        return;
+      }
+
+      try {
+        if (mParent.isTimedOut()) {
+          /* The outcome of an interrupted doInBackground() is meaningless. */
+          mParent.onTimeout();
+        } else if (mRuntimeException != null) {
+          //noinspection ProhibitedExceptionThrown
+          throw mRuntimeException;
+        } else if (mException != null) {
+          Task.fixStackTrace(mParent, mException);
+          mParent.onException(mException);
+        } else if (mParent.isCancelled()) {
+          mParent.onCancelled();
+        } else {
+          mParent.onSuccess(mResult);
+        }
+
+        mParent.recordMetric(TaskMetrics.CALLBACK_DELIVERED);
+      } catch (RuntimeException e) {
+        Task.fixStackTrace(mParent, e);
+        mParent.onRuntimeException(e);
+      } finally {
+        try {
+          mParent.onFinally();
+        } catch (RuntimeException e) {
+          Task.fixStackTrace(mParent, e);
+          mParent.onRuntimeException(e);
+        } finally {
+          mParent.recordMetric(TaskMetrics.FINISHED);
+          mParent.leaveScope();
+        }
+      }
+    }
+  }
+
+  private class BackgroundFutureTask extends AsyncTaskFuture {
+
+    BackgroundFutureTask() {
+      super(mParent, ContinuationTask.this);
+    }
+
+    /**
+     * Runs the background stage without completing this FutureTask, so that it can be resubmitted for a retry.
+     * {@link #complete()} is called once the background stage has a final outcome.
+     */
+    @Override
+    public void run() {
+      runAndReset();
+    }
+
+    void complete() {
+      set(null);
+    }
+
+    @Override
+    protected void done() {
+      onFutureTaskDone();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.Future;
+
+/**
+ * Bounds the time {@link AsyncTask#doInBackground()} may run, using the {@link SharedScheduler}.
+ *
+ * When the deadline expires before {@link #finish()} is called, the task is marked as timed out and cancelled with interrupt.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+final class Deadline implements Runnable {
+
+  @NonNull
+  private final AsyncTask<?, ?> mTask;
+
+  @Nullable
+  private Future<?> mTimer;
+
+  /**
+   * Guarded by this.
+   */
+  private boolean mFinished;
+
+  /**
+   * Guarded by this.
+   */
+  private boolean mExpired;
+
+  private Deadline(@NonNull final AsyncTask<?, ?> task) {
+    mTask = task;
+  }
+
+  /**
+   * Starts the deadline of given task, if it has a timeout.
+   *
+   * @return The started Deadline, or {@code null} if the task has no timeout.
+   */
+  @Nullable
+  static Deadline start(@NonNull final AsyncTask<?, ?> task) {
+    long timeoutNanos = task.getTimeoutNanos();
+    if (timeoutNanos <= 0) {
+      return null;
+    }
+
+    Deadline deadline = new Deadline(task);
+    deadline.mTimer = SharedScheduler.instance().schedule(deadline, timeoutNanos);
+    return deadline;
+  }
+
+  @Override
+  public void run() {
+    synchronized (this) {
+      if (mFinished) {
+        return;
+      }
+
+      mExpired = true;
+      mTask.expire();
+    }
+  }
+
+  /**
+   * Stops this deadline. Must be called on the thread running {@link AsyncTask#doInBackground()}, once it has returned.
+   *
+   * If the deadline has expired, the interrupt it caused is cleared, so that it doesn't affect the remaining callbacks.
+   */
+  void finish() {
+    boolean expired;
+    synchronized (this) {
+      mFinished = true;
+      expired = mExpired;
+    }
+
+    if (expired) {
+      //noinspection ResultOfMethodCallIgnored
+      Thread.interrupted();
+    } else if (mTimer != null) {
+      mTimer.cancel(false);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An AsyncTaskExecutor that holds back every task until no newer task of the same class and key
+ * has been executed for the debounce delay. Only the newest task of a burst then runs.
+ *
+ * Tasks without a key are debounced per class. Superseded tasks are cancelled before they start,
+ * so none of their callbacks are called, not even {@link AsyncTask#onPreExecute()}.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class DebouncingAsyncTaskExecutor extends SupersedingAsyncTaskExecutor {
+
+  private final long mDelayNanos;
+
+  /**
+   * Creates a DebouncingAsyncTaskExecutor on the IO thread pool of the default executors, which performs callbacks on the main thread.
+   */
+  public DebouncingAsyncTaskExecutor(final long delay, @NonNull final TimeUnit unit) {
+    this(DefaultAsyncTaskExecutor.ioThreadPool(), new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper())), delay, unit);
+  }
+
+  /**
+   * @param executor The Executor to perform background operations on.
+   * @param dispatcher The CallbackDispatcher to perform callbacks on.
+   */
+  public DebouncingAsyncTaskExecutor(@NonNull final Executor executor,
+                                     @NonNull final CallbackDispatcher dispatcher,
+                                     final long delay,
+                                     @NonNull final TimeUnit unit) {
+    this(executor, dispatcher, SharedScheduler.instance(), unit.toNanos(delay));
+  }
+
+  DebouncingAsyncTaskExecutor(@NonNull final Executor executor,
+                              @NonNull final CallbackDispatcher dispatcher,
+                              @NonNull final Scheduler scheduler,
+                              final long delayNanos) {
+    super(executor, dispatcher, scheduler);
+
+    if (delayNanos <= 0) {
+      throw new IllegalArgumentException("delay must be positive: " + delayNanos);
+    }
+
+    mDelayNanos = delayNanos;
+  }
+
+  @Override
+  long delayNanos(@Nullable final Long lastReleaseNanos, final long nowNanos) {
+    return mDelayNanos;
+  }
+
+  @Override
+  long retentionNanos() {
+    return 0;
+  }
+}
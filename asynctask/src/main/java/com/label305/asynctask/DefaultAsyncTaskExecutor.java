@@ -19,23 +19,254 @@ package com.label305.asynctask;
 import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An AsyncTaskExecutor that runs AsyncTasks in a thread pool and executes callbacks on the main thread.
  *
+ * Tasks are routed to a thread pool by their {@link AsyncTask#getExecutionLane()}:
+ * the {@link ExecutionLane#CPU} lane has as many threads as there are available processors,
+ * and the {@link ExecutionLane#IO} lane grows on demand and releases idle threads.
+ *
+ * Queued tasks are started in order of their {@link AsyncTask#getPriority()}. Use a {@link Builder}
+ * to create an instance with its own thread pools, or with bounded work queues. Those thread pools are released
+ * through {@link #shutdown()}.
+ *
  * @author Niek Haarman <niek@label305.com>
  */
-class DefaultAsyncTaskExecutor implements AsyncTaskExecutor {
+public class DefaultAsyncTaskExecutor implements AsyncTaskExecutor {
+
+  private static final int DEFAULT_CPU_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+  private static final int DEFAULT_IO_THREAD_COUNT = 64;
+
+  private static final long DEFAULT_IO_KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * The CPU thread pool shared by the blocking and non-blocking default executors.
+   */
+  private static final Executor CPU_THREAD_POOL =
+      new PriorityTaskExecutor("AsyncTask CPU", DEFAULT_CPU_THREAD_COUNT, 0L, Integer.MAX_VALUE, OverflowPolicy.REJECT);
+
+  /**
+   * The IO thread pool shared by the blocking and non-blocking default executors.
+   */
+  private static final Executor IO_THREAD_POOL =
+      new PriorityTaskExecutor("AsyncTask IO", DEFAULT_IO_THREAD_COUNT, DEFAULT_IO_KEEP_ALIVE_MILLIS, Integer.MAX_VALUE, OverflowPolicy.REJECT);
 
-  @SuppressWarnings("MagicNumber")
-  private final Executor mExecutor = Executors.newFixedThreadPool(25);
+  @NonNull
+  private final Executor mCpuExecutor;
 
-  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  @NonNull
+  private final Executor mIoExecutor;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  private final boolean mNonBlocking;
+
+  private final long mTimeoutNanos;
+
+  /**
+   * Whether the thread pools were created for this instance by a {@link Builder}, rather than shared by the default executors.
+   */
+  private final boolean mOwnsThreadPools;
+
+  DefaultAsyncTaskExecutor() {
+    this(false);
+  }
+
+  /**
+   * @param nonBlocking Whether tasks should be executed using {@link AsyncTask#executeNonBlocking(Executor, CallbackDispatcher)}.
+   */
+  DefaultAsyncTaskExecutor(final boolean nonBlocking) {
+    this(CPU_THREAD_POOL, IO_THREAD_POOL, new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper())), nonBlocking, 0L, false);
+  }
+
+  private DefaultAsyncTaskExecutor(@NonNull final Executor cpuExecutor,
+                                   @NonNull final Executor ioExecutor,
+                                   @NonNull final CallbackDispatcher dispatcher,
+                                   final boolean nonBlocking,
+                                   final long timeoutNanos,
+                                   final boolean ownsThreadPools) {
+    mCpuExecutor = cpuExecutor;
+    mIoExecutor = ioExecutor;
+    mDispatcher = dispatcher;
+    mNonBlocking = nonBlocking;
+    mTimeoutNanos = timeoutNanos;
+    mOwnsThreadPools = ownsThreadPools;
+  }
+
+  /**
+   * Returns the IO thread pool shared by the default executors.
+   */
+  @NonNull
+  static Executor ioThreadPool() {
+    return IO_THREAD_POOL;
+  }
 
   @Override
   public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
-    return (A) task.execute(mExecutor, mHandler);
+    Executor executor = task.getExecutionLane() == ExecutionLane.CPU ? mCpuExecutor : mIoExecutor;
+    task.setDefaultTimeoutNanos(mTimeoutNanos);
+
+    if (mNonBlocking) {
+      return (A) task.executeNonBlocking(executor, mDispatcher);
+    }
+
+    return (A) task.execute(executor, mDispatcher);
+  }
+
+  /**
+   * Shuts down the thread pools of this executor: tasks that were already executed still complete,
+   * but executing new tasks throws a {@link java.util.concurrent.RejectedExecutionException}.
+   *
+   * @throws IllegalStateException if this executor wasn't created by a {@link Builder}, since the thread pools
+   *                               of the default executors are shared.
+   */
+  public void shutdown() {
+    if (!mOwnsThreadPools) {
+      throw new IllegalStateException("The default executors share their thread pools, which can't be shut down");
+    }
+
+    ((PriorityTaskExecutor) mCpuExecutor).shutdown();
+    ((PriorityTaskExecutor) mIoExecutor).shutdown();
+  }
+
+  /**
+   * Creates DefaultAsyncTaskExecutors with their own thread pools.
+   */
+  public static class Builder {
+
+    private int mCpuThreadCount = DEFAULT_CPU_THREAD_COUNT;
+
+    private int mIoThreadCount = DEFAULT_IO_THREAD_COUNT;
+
+    private long mIoKeepAliveMillis = DEFAULT_IO_KEEP_ALIVE_MILLIS;
+
+    private int mQueueCapacity = Integer.MAX_VALUE;
+
+    @NonNull
+    private OverflowPolicy mOverflowPolicy = OverflowPolicy.REJECT;
+
+    private boolean mNonBlocking;
+
+    @Nullable
+    private CallbackDispatcher mDispatcher;
+
+    private long mTimeoutNanos;
+
+    /**
+     * Sets the number of threads in the {@link ExecutionLane#CPU} lane. Defaults to the number of available processors.
+     */
+    @NonNull
+    public Builder setCpuThreadCount(final int threadCount) {
+      if (threadCount <= 0) {
+        throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+      }
+
+      mCpuThreadCount = threadCount;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of threads in the {@link ExecutionLane#IO} lane. Defaults to 64.
+     */
+    @NonNull
+    public Builder setIoThreadCount(final int threadCount) {
+      if (threadCount <= 0) {
+        throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+      }
+
+      mIoThreadCount = threadCount;
+      return this;
+    }
+
+    /**
+     * Sets the time after which idle threads in the {@link ExecutionLane#IO} lane are released. Defaults to 30 seconds.
+     */
+    @NonNull
+    public Builder setIoKeepAlive(final long time, @NonNull final TimeUnit unit) {
+      if (time <= 0) {
+        throw new IllegalArgumentException("time must be positive: " + time);
+      }
+
+      mIoKeepAliveMillis = unit.toMillis(time);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of tasks waiting for a thread, per lane. Defaults to {@link Integer#MAX_VALUE}.
+     */
+    @NonNull
+    public Builder setQueueCapacity(final int queueCapacity) {
+      if (queueCapacity <= 0) {
+        throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+      }
+
+      mQueueCapacity = queueCapacity;
+      return this;
+    }
+
+    /**
+     * Sets what happens to tasks that are executed while the work queue is full. Defaults to {@link OverflowPolicy#REJECT}.
+     */
+    @NonNull
+    public Builder setOverflowPolicy(@NonNull final OverflowPolicy overflowPolicy) {
+      mOverflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    /**
+     * Sets whether tasks are executed using {@link AsyncTask#executeNonBlocking(Executor, CallbackDispatcher)}. Defaults to {@code false}.
+     */
+    @NonNull
+    public Builder setNonBlocking(final boolean nonBlocking) {
+      mNonBlocking = nonBlocking;
+      return this;
+    }
+
+    /**
+     * Sets the CallbackDispatcher to perform main thread callbacks on, for example a {@link BatchingCallbackDispatcher}.
+     * Defaults to a {@link HandlerCallbackDispatcher} on the main thread.
+     */
+    @NonNull
+    public Builder setCallbackDispatcher(@NonNull final CallbackDispatcher dispatcher) {
+      mDispatcher = dispatcher;
+      return this;
+    }
+
+    /**
+     * Sets the maximum time {@link AsyncTask#doInBackground()} may run, for tasks that don't specify their own
+     * {@link AsyncTask#getTimeoutMillis()}. Defaults to no timeout.
+     */
+    @NonNull
+    public Builder setTimeout(final long timeout, @NonNull final TimeUnit unit) {
+      if (timeout <= 0) {
+        throw new IllegalArgumentException("timeout must be positive: " + timeout);
+      }
+
+      mTimeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    @NonNull
+    public DefaultAsyncTaskExecutor build() {
+      CallbackDispatcher dispatcher = mDispatcher;
+      if (dispatcher == null) {
+        dispatcher = new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper()));
+      }
+
+      return new DefaultAsyncTaskExecutor(
+          new PriorityTaskExecutor("AsyncTask CPU", mCpuThreadCount, 0L, mQueueCapacity, mOverflowPolicy),
+          new PriorityTaskExecutor("AsyncTask IO", mIoThreadCount, mIoKeepAliveMillis, mQueueCapacity, mOverflowPolicy),
+          dispatcher,
+          mNonBlocking,
+          mTimeoutNanos,
+          true
+      );
+    }
   }
-}
\ No newline at end of file
+}
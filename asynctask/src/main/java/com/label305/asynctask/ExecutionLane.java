@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+/**
+ * The thread pool of a {@link DefaultAsyncTaskExecutor} an AsyncTask is executed on.
+ *
+ * @see AsyncTask#getExecutionLane()
+ * @author Niek Haarman <niek@label305.com>
+ */
+public enum ExecutionLane {
+
+  /**
+   * For computations that keep a core busy, such as parsing or image processing.
+   * This lane has as many threads as there are available processors.
+   */
+  CPU,
+
+  /**
+   * For work that mostly waits, such as network and disk access. This is the default.
+   * This lane grows up to a larger number of threads, which are released when idle.
+   */
+  IO
+}
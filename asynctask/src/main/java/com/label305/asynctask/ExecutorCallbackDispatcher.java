@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.Executor;
+
+/**
+ * A CallbackDispatcher which runs callbacks on an Executor, for hosts without an Android main thread.
+ *
+ * The Executor must run callbacks one at a time, in the order in which they were submitted,
+ * such as {@link java.util.concurrent.Executors#newSingleThreadExecutor()}.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class ExecutorCallbackDispatcher implements CallbackDispatcher {
+
+  @NonNull
+  private final Executor mExecutor;
+
+  public ExecutorCallbackDispatcher(@NonNull final Executor executor) {
+    mExecutor = executor;
+  }
+
+  @Override
+  public void dispatch(@NonNull final Runnable callback) {
+    mExecutor.execute(callback);
+  }
+}
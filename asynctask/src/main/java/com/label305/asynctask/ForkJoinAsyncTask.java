@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An AsyncTask whose background work is a {@link ForkJoinTask}, which can recursively fork and join subtasks:
+ * <pre>
+ *   ForkJoinAsyncTask&lt;Bitmap, RuntimeException&gt; task = new ForkJoinAsyncTask&lt;Bitmap, RuntimeException&gt;() {
+ *     protected ForkJoinTask&lt;Bitmap&gt; createComputation() {
+ *       return new DecodeTilesTask(source, 0, source.getTileCount());
+ *     }
+ *
+ *     protected void onSuccess(Bitmap bitmap) { ... }
+ *     protected void onException(RuntimeException e) { ... }
+ *   };
+ *   new ForkJoinAsyncTaskExecutor().execute(task);
+ * </pre>
+ * Here {@code DecodeTilesTask} is a {@link RecursiveTask} that splits its range of tiles in two, forks one half and computes the other.
+ *
+ * When this task runs on a worker of a ForkJoinPool, as it does on a {@link ForkJoinAsyncTaskExecutor},
+ * the computation runs directly on that worker, and forked subtasks are stolen by idle workers of the same pool.
+ * Otherwise, the computation is handed to {@link #getForkJoinPool()} and the calling thread waits for it.
+ *
+ * Cancelling this task cancels the computation, which keeps subtasks that haven't started from running.
+ * Subtasks that take long can poll {@link #isCancelled()} to stop early.
+ *
+ * ForkJoinPool is available on Android 5.0 (API level 21) and later.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public abstract class ForkJoinAsyncTask<T, E extends Exception> extends AsyncTask<T, E> {
+
+  @Nullable
+  private volatile ForkJoinTask<T> mComputation;
+
+  /**
+   * Creates the computation producing the result of this task. Runs on a worker thread.
+   */
+  @WorkerThread
+  @NonNull
+  protected abstract ForkJoinTask<T> createComputation() throws E;
+
+  /**
+   * Returns the ForkJoinPool to run the computation in when this task doesn't run on a ForkJoinPool worker itself.
+   * Override this method to change the default, which is {@link ForkJoinAsyncTaskExecutor#sharedPool()}.
+   */
+  @NonNull
+  protected ForkJoinPool getForkJoinPool() {
+    return ForkJoinAsyncTaskExecutor.sharedPool();
+  }
+
+  @Override
+  protected final T doInBackground() throws E {
+    ForkJoinTask<T> computation = createComputation();
+    mComputation = computation;
+
+    if (isCancelled()) {
+      computation.cancel(false);
+    }
+
+    try {
+      if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+        /* Forked subtasks are pushed onto the queue of this worker, from which idle workers steal. */
+        return computation.invoke();
+      }
+
+      return getForkJoinPool().invoke(computation);
+    } catch (CancellationException e) {
+      if (isCancelled()) {
+        /* The computation was cancelled because this task was cancelled, which is reported through onCancelled(). */
+        return null;
+      }
+
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean cancel() {
+    boolean cancelled = super.cancel();
+    cancelComputation();
+    return cancelled;
+  }
+
+  @Override
+  public boolean cancelInterrupt() {
+    boolean cancelled = super.cancelInterrupt();
+    cancelComputation();
+    return cancelled;
+  }
+
+  private void cancelComputation() {
+    ForkJoinTask<T> computation = mComputation;
+    if (computation != null) {
+      computation.cancel(false);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An AsyncTaskExecutor that runs AsyncTasks in a {@link ForkJoinPool}.
+ *
+ * Every worker of a ForkJoinPool has its own work queue, and idle workers steal work from busy ones.
+ * This keeps all cores busy for {@link ForkJoinAsyncTask}s, which split their work into subtasks,
+ * without contention on the single queue of a regular thread pool.
+ *
+ * Tasks are always executed using {@link AsyncTask#executeNonBlocking(Executor, CallbackDispatcher)}, since a worker
+ * that waits for the main thread can't take part in work stealing. {@link AsyncTask#getPriority()} and
+ * {@link AsyncTask#getExecutionLane()} are ignored.
+ *
+ * ForkJoinPool is available on Android 5.0 (API level 21) and later.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class ForkJoinAsyncTaskExecutor implements AsyncTaskExecutor {
+
+  @NonNull
+  private final ForkJoinPool mPool;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  /**
+   * Creates a ForkJoinAsyncTaskExecutor using the shared ForkJoinPool, performing callbacks on the main thread.
+   */
+  public ForkJoinAsyncTaskExecutor() {
+    this(sharedPool(), new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper())));
+  }
+
+  /**
+   * @param pool The ForkJoinPool to run tasks in.
+   * @param dispatcher The CallbackDispatcher to perform callbacks on.
+   */
+  public ForkJoinAsyncTaskExecutor(@NonNull final ForkJoinPool pool, @NonNull final CallbackDispatcher dispatcher) {
+    mPool = pool;
+    mDispatcher = dispatcher;
+  }
+
+  /**
+   * Returns the ForkJoinPool shared by default, which has as many workers as there are available processors.
+   */
+  @NonNull
+  public static ForkJoinPool sharedPool() {
+    return SharedPoolHolder.POOL;
+  }
+
+  @Override
+  public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+    return (A) task.executeNonBlocking(mPool, mDispatcher);
+  }
+
+  /**
+   * Creates the shared ForkJoinPool on first use only, so that loading this class doesn't start any threads.
+   */
+  private static class SharedPoolHolder {
+
+    static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+/**
+ * A CallbackDispatcher which posts every callback to a Handler.
+ *
+ * The Handler doesn't need to belong to the main thread: tasks that don't touch views can have their callbacks
+ * performed on a background Looper, such as the one of a {@link android.os.HandlerThread}.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class HandlerCallbackDispatcher implements CallbackDispatcher {
+
+  @NonNull
+  private final Handler mHandler;
+
+  public HandlerCallbackDispatcher(@NonNull final Handler handler) {
+    mHandler = handler;
+  }
+
+  /**
+   * Creates a HandlerCallbackDispatcher posting to given Looper.
+   */
+  public HandlerCallbackDispatcher(@NonNull final Looper looper) {
+    this(new Handler(looper));
+  }
+
+  @Override
+  public void dispatch(@NonNull final Runnable callback) {
+    mHandler.post(callback);
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A CallbackDispatcher which runs callbacks immediately, on the thread that dispatches them.
+ *
+ * Useful for tests, and for tasks whose callbacks do not need to run on the main thread.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class ImmediateCallbackDispatcher implements CallbackDispatcher {
+
+  private static final ImmediateCallbackDispatcher INSTANCE = new ImmediateCallbackDispatcher();
+
+  private ImmediateCallbackDispatcher() {
+  }
+
+  @NonNull
+  public static CallbackDispatcher instance() {
+    return INSTANCE;
+  }
+
+  @Override
+  public void dispatch(@NonNull final Runnable callback) {
+    callback.run();
+  }
+}
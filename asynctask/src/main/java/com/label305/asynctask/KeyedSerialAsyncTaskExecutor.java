@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An AsyncTaskExecutor that runs tasks with equal {@link AsyncTask#getKey()}s one at a time, in the order in which they were executed.
+ *
+ * Tasks with different keys run concurrently on the shared thread pool, and tasks without a key are not ordered at all.
+ * Unlike {@link CoalescingAsyncTaskExecutor}, tasks of different classes with equal keys are ordered with respect to each other,
+ * so that for example all writes to a single conversation are applied in order.
+ *
+ * Every key has its own lock-free queue, which is discarded as soon as it is empty.
+ * In blocking mode, a task holds its place until {@link AsyncTask#onFinally()} has returned.
+ * In non-blocking mode, only the {@link AsyncTask#doInBackground()} calls are ordered: a task holds its place until its outcome is known,
+ * so the retries of a task with a {@link AsyncTask#getRetryPolicy()} run before the next task.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class KeyedSerialAsyncTaskExecutor implements AsyncTaskExecutor {
+
+  @NonNull
+  private final Executor mExecutor;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  private final boolean mNonBlocking;
+
+  @NonNull
+  private final ConcurrentMap<Object, SerialQueue> mQueues = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a KeyedSerialAsyncTaskExecutor on the IO thread pool of the default executors, which performs callbacks on the main thread.
+   */
+  public KeyedSerialAsyncTaskExecutor() {
+    this(DefaultAsyncTaskExecutor.ioThreadPool(), new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper())), false);
+  }
+
+  /**
+   * @param executor The Executor to perform background operations on.
+   * @param dispatcher The CallbackDispatcher to perform callbacks on.
+   * @param nonBlocking Whether tasks should be executed using {@link AsyncTask#executeNonBlocking(Executor, CallbackDispatcher)}.
+   */
+  public KeyedSerialAsyncTaskExecutor(@NonNull final Executor executor, @NonNull final CallbackDispatcher dispatcher, final boolean nonBlocking) {
+    mExecutor = executor;
+    mDispatcher = dispatcher;
+    mNonBlocking = nonBlocking;
+  }
+
+  @Override
+  public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+    Object key = task.getKey();
+    Executor executor = key == null ? mExecutor : new KeyedExecutor<>(key, task);
+
+    if (mNonBlocking) {
+      return task.executeNonBlocking(executor, mDispatcher);
+    }
+
+    return task.execute(executor, mDispatcher);
+  }
+
+  private void enqueue(@NonNull final Object key, @NonNull final Turn<?> command) {
+    while (true) {
+      SerialQueue queue = mQueues.get(key);
+      if (queue == null) {
+        SerialQueue newQueue = new SerialQueue(key);
+        queue = mQueues.putIfAbsent(key, newQueue);
+        if (queue == null) {
+          queue = newQueue;
+        }
+      }
+
+      if (queue.offer(command)) {
+        return;
+      }
+
+      /* The queue was discarded after it ran empty. */
+      mQueues.remove(key, queue);
+    }
+  }
+
+  /**
+   * Returns the number of keys that have queued or running tasks.
+   */
+  int getQueueCount() {
+    return mQueues.size();
+  }
+
+  /**
+   * The Executor of a single task with a key.
+   *
+   * The first command it receives takes a {@link Turn} in the queue of the key. Any later commands are retries,
+   * which run right away, since the task still holds its place.
+   */
+  private class KeyedExecutor<T> implements Executor {
+
+    @NonNull
+    private final Object mKey;
+
+    @NonNull
+    private final AsyncTask<T, ?> mTask;
+
+    @NonNull
+    private final AtomicBoolean mQueued = new AtomicBoolean();
+
+    KeyedExecutor(@NonNull final Object key, @NonNull final AsyncTask<T, ?> task) {
+      mKey = key;
+      mTask = task;
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      if (mQueued.compareAndSet(false, true)) {
+        enqueue(mKey, new Turn<>(mTask, command));
+      } else {
+        mExecutor.execute(command);
+      }
+    }
+  }
+
+  /**
+   * The place of a task in the queue of its key, which is released once its command has run and its outcome is known,
+   * in whichever order these happen.
+   */
+  private static class Turn<T> implements Runnable, ResultListener<T> {
+
+    @NonNull
+    private final AsyncTask<T, ?> mTask;
+
+    @NonNull
+    private final Runnable mCommand;
+
+    /**
+     * Counts down from 2: once when the command has run, and once when the outcome of the task is known.
+     */
+    @NonNull
+    private final AtomicInteger mRemaining = new AtomicInteger(2);
+
+    @Nullable
+    private SerialQueue mQueue;
+
+    Turn(@NonNull final AsyncTask<T, ?> task, @NonNull final Runnable command) {
+      mTask = task;
+      mCommand = command;
+    }
+
+    @Override
+    public void run() {
+      /* Registered only now, since the outcome of a previous execution is forgotten when the task is executed. */
+      mTask.addResultListener(this);
+
+      try {
+        mCommand.run();
+      } finally {
+        countDown();
+      }
+    }
+
+    @Override
+    public void onResult(@Nullable final T result) {
+      countDown();
+    }
+
+    @Override
+    public void onFailure(@NonNull final Exception e) {
+      countDown();
+    }
+
+    private void countDown() {
+      if (mRemaining.decrementAndGet() == 0) {
+        assert mQueue != null;
+        mQueue.release();
+      }
+    }
+  }
+
+  /**
+   * The queue of a single key, which runs its commands one at a time on the shared Executor.
+   *
+   * {@link #mPending} counts the commands that were offered but haven't been released yet. The thread that raises it from zero
+   * schedules this queue, and the thread that lowers it to zero discards this queue by setting it to {@code -1}.
+   * A command is counted before it is added to {@link #mCommands}, so that a discarded queue never holds a command.
+   * A counted command may not have been added yet when the queue runs, in which case the queue waits for it.
+   */
+  private class SerialQueue implements Runnable {
+
+    @NonNull
+    private final Object mKey;
+
+    @NonNull
+    private final Queue<Turn<?>> mCommands = new ConcurrentLinkedQueue<>();
+
+    @NonNull
+    private final AtomicInteger mPending = new AtomicInteger();
+
+    SerialQueue(@NonNull final Object key) {
+      mKey = key;
+    }
+
+    /**
+     * @return {@code false} if this queue has been discarded.
+     */
+    boolean offer(@NonNull final Turn<?> command) {
+      while (true) {
+        int pending = mPending.get();
+        if (pending < 0) {
+          return false;
+        }
+
+        if (mPending.compareAndSet(pending, pending + 1)) {
+          command.mQueue = this;
+          mCommands.add(command);
+          if (pending == 0) {
+            mExecutor.execute(this);
+          }
+          return true;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      nextCommand().run();
+    }
+
+    /**
+     * Called when the running command has been released, to run the next one.
+     */
+    void release() {
+      if (mPending.decrementAndGet() > 0) {
+        /* Resubmit instead of looping, so that other keys get their turn. */
+        mExecutor.execute(this);
+      } else if (mPending.compareAndSet(0, -1)) {
+        mQueues.remove(mKey, this);
+      }
+    }
+
+    /**
+     * Takes the next command, waiting for a command that has been counted but not added yet.
+     */
+    @NonNull
+    private Turn<?> nextCommand() {
+      Turn<?> command = mCommands.poll();
+      while (command == null) {
+        Thread.yield();
+        command = mCommands.poll();
+      }
+
+      return command;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, using power of two buckets.
+ *
+ * Bucket {@code i} counts durations {@code d} with {@code 2^(i-1) <= d < 2^i}, bucket {@code 0} counts zero durations.
+ * Percentiles are therefore reported with a precision of a factor two, which is enough to spot
+ * regressions in queueing, main thread latency or background work.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public final class LatencyHistogram {
+
+  static final int BUCKET_COUNT = 64;
+
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+  private final AtomicLong mCount = new AtomicLong();
+
+  private final AtomicLong mSumNanos = new AtomicLong();
+
+  private final AtomicLong mMaxNanos = new AtomicLong();
+
+  LatencyHistogram() {
+  }
+
+  /**
+   * Records given duration. Negative durations, denoting stages that were never reached, are ignored.
+   */
+  void record(final long nanos) {
+    if (nanos < 0) {
+      return;
+    }
+
+    mBuckets.incrementAndGet(bucketOf(nanos));
+    mCount.incrementAndGet();
+    mSumNanos.addAndGet(nanos);
+
+    long max = mMaxNanos.get();
+    while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+      max = mMaxNanos.get();
+    }
+  }
+
+  static int bucketOf(final long nanos) {
+    return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+  }
+
+  /**
+   * Returns the number of recorded durations.
+   */
+  public long getCount() {
+    return mCount.get();
+  }
+
+  /**
+   * Returns the mean of the recorded durations, or {@code 0} if nothing was recorded.
+   */
+  public long getMeanNanos() {
+    long count = mCount.get();
+    return count == 0 ? 0 : mSumNanos.get() / count;
+  }
+
+  /**
+   * Returns the longest recorded duration.
+   */
+  public long getMaxNanos() {
+    return mMaxNanos.get();
+  }
+
+  /**
+   * Returns an upper bound of given percentile of the recorded durations, or {@code 0} if nothing was recorded.
+   *
+   * @param percentile The percentile, between {@code 0} and {@code 100}.
+   */
+  public long getPercentileNanos(final double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+    }
+
+    long[] buckets = getBucketCounts();
+    long total = 0;
+    for (long count : buckets) {
+      total += count;
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        long upperBound = i == 0 ? 0 : (1L << i) - 1;
+        return Math.min(upperBound, getMaxNanos());
+      }
+    }
+
+    return getMaxNanos();
+  }
+
+  /**
+   * Returns a snapshot of the bucket counts.
+   */
+  public long[] getBucketCounts() {
+    long[] result = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      result[i] = mBuckets.get(i);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram{" +
+        "count=" + getCount() +
+        ", meanNanos=" + getMeanNanos() +
+        ", p50Nanos=" + getPercentileNanos(50) +
+        ", p99Nanos=" + getPercentileNanos(99) +
+        ", maxNanos=" + getMaxNanos() +
+        '}';
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Determines whether the location at which an AsyncTask is executed is captured.
+ * The launch location is appended to the stack trace of Exceptions passed to
+ * {@link AsyncTask#onException(Exception)} and {@link AsyncTask#onRuntimeException(RuntimeException)}.
+ *
+ * Capturing the launch location walks the stack of the calling thread, which is relatively
+ * expensive when many tasks are executed. Use {@link AsyncTask#setLaunchLocationPolicy(LaunchLocationPolicy)}
+ * to choose a cheaper policy for release builds.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public abstract class LaunchLocationPolicy {
+
+  /**
+   * Never captures the launch location.
+   */
+  public static final LaunchLocationPolicy OFF = new LaunchLocationPolicy() {
+    @Nullable
+    @Override
+    Throwable capture() {
+      return null;
+    }
+  };
+
+  /**
+   * Captures the launch location without converting it into stack trace elements.
+   * The conversion only happens when an Exception actually occurs.
+   */
+  public static final LaunchLocationPolicy LAZY = new LaunchLocationPolicy() {
+    @NonNull
+    @Override
+    Throwable capture() {
+      return new Throwable();
+    }
+  };
+
+  /**
+   * Captures the launch location and converts it into stack trace elements immediately.
+   * This is the default.
+   */
+  public static final LaunchLocationPolicy ALWAYS = new LaunchLocationPolicy() {
+    @NonNull
+    @Override
+    Throwable capture() {
+      Throwable throwable = new Throwable();
+      throwable.getStackTrace();
+      return throwable;
+    }
+  };
+
+  LaunchLocationPolicy() {
+  }
+
+  /**
+   * Returns a policy that lazily captures the launch location of one in every {@code n} executed tasks.
+   *
+   * @param n The sampling interval, must be positive.
+   */
+  @NonNull
+  public static LaunchLocationPolicy sampled(final int n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("n must be positive: " + n);
+    }
+
+    return new SampledLaunchLocationPolicy(n);
+  }
+
+  /**
+   * Captures the current location, or returns {@code null} if this policy does not capture it.
+   */
+  @Nullable
+  abstract Throwable capture();
+
+  private static class SampledLaunchLocationPolicy extends LaunchLocationPolicy {
+
+    private final int mInterval;
+
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    SampledLaunchLocationPolicy(final int interval) {
+      mInterval = interval;
+    }
+
+    @Nullable
+    @Override
+    Throwable capture() {
+      int count = mCount.getAndIncrement() & Integer.MAX_VALUE;
+      if (count % mInterval != 0) {
+        return null;
+      }
+
+      return new Throwable();
+    }
+  }
+}
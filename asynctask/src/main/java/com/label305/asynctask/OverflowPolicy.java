@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+/**
+ * Determines what a {@link DefaultAsyncTaskExecutor} does with a task that is executed while its work queue is full.
+ *
+ * A task that is discarded or shed is cancelled through {@link AsyncTask#cancel()} before {@link AsyncTask#doInBackground()}
+ * has started, so {@link AsyncTask#isCancelled()} returns {@code true}. In blocking mode, none of its callbacks are called,
+ * not even {@link AsyncTask#onPreExecute()}. In non-blocking mode, a task is only queued after {@link AsyncTask#onPreExecute()}
+ * has been called, so it receives {@link AsyncTask#onCancelled()} and {@link AsyncTask#onFinally()} instead.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Throws a {@link java.util.concurrent.RejectedExecutionException} from {@code execute}.
+   */
+  REJECT,
+
+  /**
+   * Discards the newly executed task.
+   */
+  DISCARD,
+
+  /**
+   * Sheds the most recently queued task with the lowest priority, if its priority is lower than that of
+   * the newly executed task. Otherwise, the newly executed task is discarded.
+   */
+  SHED_LOWEST_PRIORITY
+}
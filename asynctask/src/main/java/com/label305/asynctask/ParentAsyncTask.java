@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * An AsyncTask that fans out to child tasks, and delivers their aggregated outcome to its own callbacks:
+ * <pre>
+ *   new ParentAsyncTask&lt;Screen, IOException&gt;() {
+ *     protected Screen doInBackground(Children&lt;IOException&gt; children) throws IOException {
+ *       Children&lt;IOException&gt;.Child&lt;User&gt; user = children.fork(new RetrieveUserTask(userId));
+ *       Children&lt;IOException&gt;.Child&lt;List&lt;Post&gt;&gt; posts = children.fork(new RetrievePostsTask(userId));
+ *       children.join();
+ *       return new Screen(user.get(), posts.get());
+ *     }
+ *
+ *     protected void onSuccess(Screen screen) { ... }
+ *     protected void onException(IOException e) { ... }
+ *   }.execute();
+ * </pre>
+ *
+ * The children never outlive their parent: when the parent is cancelled, or {@link #doInBackground(Children)} returns,
+ * children that are still running are cancelled with interrupt.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public abstract class ParentAsyncTask<T, E extends Exception> extends AsyncTask<T, E> {
+
+  @Nullable
+  private volatile Children<E> mChildren;
+
+  /**
+   * Forks the children of this task, waits for them with {@link Children#join()}, and aggregates their results.
+   * Runs on a worker thread.
+   */
+  @WorkerThread
+  protected abstract T doInBackground(@NonNull Children<E> children) throws E;
+
+  /**
+   * Returns whether a failing child cancels its siblings, so that {@link Children#join()} throws as soon as the first child fails.
+   * Otherwise, {@link Children#join()} waits for all children and then throws the Exception of the first child that failed.
+   * Override this method to change the default of {@code true}.
+   */
+  protected boolean cancelsSiblingsOnFailure() {
+    return true;
+  }
+
+  /**
+   * Returns the Executor the children of this task run on. Override this method to change the default,
+   * which is the IO thread pool of the default executors.
+   */
+  @NonNull
+  protected Executor getChildExecutor() {
+    return DefaultAsyncTaskExecutor.ioThreadPool();
+  }
+
+  @Override
+  protected final T doInBackground() throws E {
+    Children<E> children = new Children<>(getChildExecutor(), cancelsSiblingsOnFailure());
+    mChildren = children;
+
+    if (isCancelled()) {
+      children.cancel();
+    }
+
+    try {
+      return doInBackground(children);
+    } catch (CancellationException e) {
+      if (isCancelled()) {
+        /* The children were cancelled because this task was cancelled, which is reported through onCancelled(). */
+        return null;
+      }
+
+      throw e;
+    } finally {
+      children.cancel();
+    }
+  }
+
+  @Override
+  public boolean cancel() {
+    boolean cancelled = super.cancel();
+    cancelChildren();
+    return cancelled;
+  }
+
+  @Override
+  public boolean cancelInterrupt() {
+    boolean cancelled = super.cancelInterrupt();
+    cancelChildren();
+    return cancelled;
+  }
+
+  private void cancelChildren() {
+    Children<E> children = mChildren;
+    if (children != null) {
+      children.cancel();
+    }
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An Executor backed by a thread pool with a bounded work queue, which
+ * orders queued AsyncTasks by {@link AsyncTask#getPriority()}.
+ *
+ * Threads are created on demand up to the maximum thread count. If a keep alive time is given,
+ * threads that have been idle for that long are released.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+class PriorityTaskExecutor implements Executor {
+
+  @NonNull
+  private final ThreadPoolExecutor mThreadPool;
+
+  @NonNull
+  private final OverflowPolicy mOverflowPolicy;
+
+  private final AtomicLong mSequence = new AtomicLong();
+
+  PriorityTaskExecutor(final int threadCount, final int queueCapacity, @NonNull final OverflowPolicy overflowPolicy) {
+    this("AsyncTask", threadCount, 0L, queueCapacity, overflowPolicy);
+  }
+
+  /**
+   * @param name The prefix of the names of the created threads.
+   * @param threadCount The maximum number of threads.
+   * @param keepAliveMillis The time after which idle threads are released, or {@code 0} to keep them alive.
+   * @param queueCapacity The maximum number of queued tasks.
+   * @param overflowPolicy What to do with tasks that are executed when the queue is full.
+   */
+  PriorityTaskExecutor(@NonNull final String name,
+                       final int threadCount,
+                       final long keepAliveMillis,
+                       final int queueCapacity,
+                       @NonNull final OverflowPolicy overflowPolicy) {
+    mOverflowPolicy = overflowPolicy;
+
+    /* With a core pool size equal to the maximum pool size, the pool grows on demand while tasks are queued. */
+    mThreadPool = new ThreadPoolExecutor(
+        threadCount,
+        threadCount,
+        keepAliveMillis,
+        TimeUnit.MILLISECONDS,
+        new BoundedPriorityBlockingQueue(queueCapacity),
+        new NamedThreadFactory(name),
+        new OverflowHandler()
+    );
+
+    if (keepAliveMillis > 0) {
+      mThreadPool.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  @Override
+  public void execute(@NonNull final Runnable command) {
+    mThreadPool.execute(new QueuedRunnable(command, priorityOf(command), mSequence.getAndIncrement()));
+  }
+
+  /**
+   * Shuts down the thread pool: queued and running tasks still complete, but new tasks are rejected.
+   */
+  void shutdown() {
+    mThreadPool.shutdown();
+  }
+
+  @NonNull
+  private static TaskPriority priorityOf(@NonNull final Runnable command) {
+    if (command instanceof AsyncTaskFuture) {
+      return ((AsyncTaskFuture) command).getAsyncTask().getPriority();
+    }
+
+    return TaskPriority.NORMAL;
+  }
+
+  private void onOverflow(@NonNull final QueuedRunnable runnable) {
+    switch (mOverflowPolicy) {
+      case DISCARD:
+        runnable.discard();
+        break;
+      case SHED_LOWEST_PRIORITY:
+        shed(runnable);
+        break;
+      default:
+        throw new RejectedExecutionException("Work queue is full, rejected " + runnable.mCommand);
+    }
+  }
+
+  /**
+   * Queues given task in place of the most recently queued task with the lowest priority, or discards it if there is none.
+   *
+   * The queue is locked while the victim is replaced, so that concurrent overflows shed one victim each.
+   * Room that became available in the meantime is used without shedding anything.
+   */
+  private void shed(@NonNull final QueuedRunnable runnable) {
+    BlockingQueue<Runnable> queue = mThreadPool.getQueue();
+
+    QueuedRunnable victim = null;
+    boolean queued;
+    synchronized (queue) {
+      queued = queue.offer(runnable);
+      if (!queued) {
+        QueuedRunnable candidate = findShedCandidate(runnable);
+        if (candidate != null) {
+          if (queue.remove(candidate)) {
+            victim = candidate;
+          }
+
+          /* Either the candidate was removed, or a worker took it: both leave room. */
+          queued = queue.offer(runnable);
+        }
+      }
+    }
+
+    if (victim != null) {
+      victim.discard();
+    }
+
+    if (!queued) {
+      runnable.discard();
+    }
+  }
+
+  /**
+   * Returns the most recently queued task with the lowest priority, if its priority is lower than that of given task.
+   */
+  @Nullable
+  private QueuedRunnable findShedCandidate(@NonNull final QueuedRunnable runnable) {
+    QueuedRunnable result = null;
+    for (Runnable queued : mThreadPool.getQueue()) {
+      QueuedRunnable candidate = (QueuedRunnable) queued;
+      if (candidate.mPriority.compareTo(runnable.mPriority) > 0 && (result == null || candidate.compareTo(result) > 0)) {
+        result = candidate;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Wraps a queued command together with its priority and the order in which it was executed.
+   */
+  private static class QueuedRunnable implements Runnable, Comparable<QueuedRunnable> {
+
+    @NonNull
+    private final Runnable mCommand;
+
+    @NonNull
+    private final TaskPriority mPriority;
+
+    private final long mSequence;
+
+    QueuedRunnable(@NonNull final Runnable command, @NonNull final TaskPriority priority, final long sequence) {
+      mCommand = command;
+      mPriority = priority;
+      mSequence = sequence;
+    }
+
+    @Override
+    public void run() {
+      mCommand.run();
+    }
+
+    /**
+     * Cancels the wrapped command if possible, so that it never starts.
+     */
+    void discard() {
+      if (mCommand instanceof AsyncTaskFuture) {
+        ((AsyncTaskFuture) mCommand).discard();
+      } else if (mCommand instanceof Future) {
+        ((Future<?>) mCommand).cancel(false);
+      }
+    }
+
+    @Override
+    public int compareTo(@NonNull final QueuedRunnable other) {
+      int result = mPriority.compareTo(other.mPriority);
+      if (result != 0) {
+        return result;
+      }
+
+      return mSequence < other.mSequence ? -1 : mSequence == other.mSequence ? 0 : 1;
+    }
+  }
+
+  /**
+   * A PriorityBlockingQueue which refuses new elements when its capacity is reached.
+   * Insertions are synchronized on the queue itself.
+   */
+  private static class BoundedPriorityBlockingQueue extends PriorityBlockingQueue<Runnable> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int mCapacity;
+
+    BoundedPriorityBlockingQueue(final int capacity) {
+      mCapacity = capacity;
+    }
+
+    @Override
+    public synchronized boolean offer(@NonNull final Runnable runnable) {
+      return size() < mCapacity && super.offer(runnable);
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+
+    @NonNull
+    private final String mName;
+
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    NamedThreadFactory(@NonNull final String name) {
+      mName = name;
+    }
+
+    @Override
+    public Thread newThread(@NonNull final Runnable runnable) {
+      return new Thread(runnable, mName + " #" + mCount.incrementAndGet());
+    }
+  }
+
+  private class OverflowHandler implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(@NonNull final Runnable runnable, @NonNull final ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Executor has been shut down, rejected " + ((QueuedRunnable) runnable).mCommand);
+      }
+
+      onOverflow((QueuedRunnable) runnable);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An AsyncTask which can publish progress from {@link #doInBackground()} to the main thread.
+ *
+ * Progress updates are conflated: when {@link #publishProgress(Object)} is called faster than the
+ * main thread can process them, intermediate values are dropped, and only the latest value is passed
+ * to {@link #onProgressUpdate(Object)}. At most one progress callback is pending at any time.
+ *
+ * @param <T> the type of the result.
+ * @param <P> the type of the progress values.
+ * @param <E> the type of the Exception {@link #doInBackground()} may throw.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public abstract class ProgressAsyncTask<T, P, E extends Exception> extends AsyncTask<T, E> {
+
+  /**
+   * Marks that no progress is pending, since {@code null} is a valid progress value.
+   */
+  private static final Object NO_PROGRESS = new Object();
+
+  private final AtomicReference<Object> mPendingProgress = new AtomicReference<>(NO_PROGRESS);
+
+  private final Runnable mDeliverProgress = new Runnable() {
+    @Override
+    public void run() {
+      deliverProgress();
+    }
+  };
+
+  /**
+   * Publishes a progress value, which is passed to {@link #onProgressUpdate(Object)} on the main thread.
+   * If a previously published value has not been delivered yet, it is replaced by given value.
+   * Progress published after this task has been cancelled, or while its callbacks are suppressed, is ignored.
+   *
+   * @param progress The progress value.
+   */
+  @WorkerThread
+  protected final void publishProgress(@Nullable final P progress) {
+    if (isCancelled() || isCallbackSuppressed()) {
+      return;
+    }
+
+    if (mPendingProgress.getAndSet(progress) == NO_PROGRESS) {
+      CallbackDispatcher dispatcher = getCallbackDispatcher();
+      if (dispatcher == null) {
+        throw new IllegalStateException("You cannot publish progress before calling execute()");
+      }
+
+      dispatcher.dispatch(mDeliverProgress);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void deliverProgress() {
+    Object progress = mPendingProgress.getAndSet(NO_PROGRESS);
+    if (progress == NO_PROGRESS || isCancelled() || isCallbackSuppressed()) {
+      return;
+    }
+
+    try {
+      onProgressUpdate((P) progress);
+    } catch (RuntimeException e) {
+      Task.fixStackTrace(this, e);
+      onRuntimeException(e);
+    }
+  }
+
+  /**
+   * Called on the main thread with the latest value passed to {@link #publishProgress(Object)}.
+   * Called before {@link #onSuccess(Object)} for progress published in {@link #doInBackground()}.
+   *
+   * @param progress The latest progress value.
+   */
+  @MainThread
+  protected void onProgressUpdate(@Nullable final P progress) {
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A CallbackDispatcher which queues callbacks until the owning thread drains them.
+ *
+ * This allows any thread to act as the callback thread, by calling {@link #drain()} or
+ * {@link #runNext()} from its own loop. In tests, it gives full control over when callbacks run.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class QueueCallbackDispatcher implements CallbackDispatcher {
+
+  private final Queue<Runnable> mCallbacks = new ConcurrentLinkedQueue<>();
+
+  @Override
+  public void dispatch(@NonNull final Runnable callback) {
+    mCallbacks.add(callback);
+  }
+
+  /**
+   * Runs the oldest pending callback, if any.
+   *
+   * @return {@code true} if a callback was run.
+   */
+  public boolean runNext() {
+    Runnable callback = mCallbacks.poll();
+    if (callback == null) {
+      return false;
+    }
+
+    callback.run();
+    return true;
+  }
+
+  /**
+   * Runs pending callbacks until none are left, including callbacks dispatched while draining.
+   *
+   * @return The number of callbacks that were run.
+   */
+  public int drain() {
+    int count = 0;
+    while (runNext()) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Returns whether there are no pending callbacks.
+   */
+  public boolean isEmpty() {
+    return mCallbacks.isEmpty();
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An AsyncTaskExecutor that starts at most a given number of tasks per period, for every rate limit key.
+ *
+ * Every key has a token bucket which holds up to {@code permits} tokens, and which is refilled at a rate of {@code permits} per period.
+ * A task takes a token when it is executed, so a burst of up to {@code permits} tasks starts at once.
+ * When the bucket is empty, the task reserves the next token and is held back until that token is available.
+ * Held back tasks wait on the {@link SharedScheduler} rather than on a worker thread, and start in the order in which they were executed.
+ *
+ * Tasks are grouped by their {@link AsyncTask#getRateLimitKey()}, or by class if they don't have one.
+ * A token bucket is a single atomic timestamp, so taking a token never blocks. Buckets are kept for as long as
+ * this executor is in use, so rate limit keys should be taken from a small set, such as the endpoints of a web service.
+ *
+ * A task that is cancelled while it is held back doesn't return its token.
+ * A held back task that the Executor rejects once its token is available is cancelled.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class RateLimitingAsyncTaskExecutor implements AsyncTaskExecutor {
+
+  @NonNull
+  private final Executor mExecutor;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  @NonNull
+  private final Scheduler mScheduler;
+
+  /**
+   * The time it takes to refill a single token.
+   */
+  private final long mIntervalNanos;
+
+  /**
+   * How far a bucket may run ahead of the current time, which is the time it takes to refill all tokens but one.
+   */
+  private final long mBurstNanos;
+
+  @NonNull
+  private final ConcurrentMap<Object, Bucket> mBuckets = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a RateLimitingAsyncTaskExecutor on the IO thread pool of the default executors, which performs callbacks on the main thread.
+   *
+   * @param permits The number of tasks that may start per period.
+   */
+  public RateLimitingAsyncTaskExecutor(final int permits, final long period, @NonNull final TimeUnit unit) {
+    this(DefaultAsyncTaskExecutor.ioThreadPool(), new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper())), permits, period, unit);
+  }
+
+  /**
+   * @param executor The Executor to perform background operations on.
+   * @param dispatcher The CallbackDispatcher to perform callbacks on.
+   * @param permits The number of tasks that may start per period.
+   */
+  public RateLimitingAsyncTaskExecutor(@NonNull final Executor executor,
+                                       @NonNull final CallbackDispatcher dispatcher,
+                                       final int permits,
+                                       final long period,
+                                       @NonNull final TimeUnit unit) {
+    this(executor, dispatcher, SharedScheduler.instance(), permits, unit.toNanos(period));
+  }
+
+  RateLimitingAsyncTaskExecutor(@NonNull final Executor executor,
+                                @NonNull final CallbackDispatcher dispatcher,
+                                @NonNull final Scheduler scheduler,
+                                final int permits,
+                                final long periodNanos) {
+    if (permits <= 0) {
+      throw new IllegalArgumentException("permits must be positive: " + permits);
+    }
+    if (periodNanos < permits) {
+      throw new IllegalArgumentException("period too short for " + permits + " permits: " + periodNanos + "ns");
+    }
+
+    mExecutor = executor;
+    mDispatcher = dispatcher;
+    mScheduler = scheduler;
+    mIntervalNanos = periodNanos / permits;
+    mBurstNanos = mIntervalNanos * (permits - 1);
+  }
+
+  @Override
+  public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+    Object key = task.getRateLimitKey();
+    final Bucket bucket = getBucket(key == null ? task.getClass() : key);
+
+    return task.execute(
+        new Executor() {
+          @Override
+          public void execute(@NonNull final Runnable command) {
+            submit(bucket, task, command);
+          }
+        },
+        mDispatcher
+    );
+  }
+
+  @NonNull
+  private Bucket getBucket(@NonNull final Object key) {
+    Bucket bucket = mBuckets.get(key);
+    if (bucket == null) {
+      Bucket newBucket = new Bucket(mScheduler.nanoTime());
+      bucket = mBuckets.putIfAbsent(key, newBucket);
+      if (bucket == null) {
+        bucket = newBucket;
+      }
+    }
+
+    return bucket;
+  }
+
+  private void submit(@NonNull final Bucket bucket, @NonNull final AsyncTask<?, ?> task, @NonNull final Runnable command) {
+    long now = mScheduler.nanoTime();
+    long delay = bucket.reserve(now) - now;
+
+    if (delay <= 0) {
+      mExecutor.execute(command);
+      return;
+    }
+
+    mScheduler.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              mExecutor.execute(command);
+            } catch (RejectedExecutionException ignored) {
+              /* There is no caller to throw to on the timer thread, so the task is cancelled instead. */
+              task.cancel();
+            }
+          }
+        },
+        delay
+    );
+  }
+
+  /**
+   * Returns the number of rate limit keys this executor has seen.
+   */
+  int getBucketCount() {
+    return mBuckets.size();
+  }
+
+  /**
+   * The token bucket of a single key.
+   *
+   * Instead of counting tokens, it keeps the time at which the bucket would be full again if no more tokens were taken.
+   * A token is available as long as that time is at most {@link #mBurstNanos} ahead, and taking one moves it {@link #mIntervalNanos} further.
+   */
+  private class Bucket {
+
+    @NonNull
+    private final AtomicLong mFullNanos;
+
+    Bucket(final long nowNanos) {
+      mFullNanos = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes the next token, and returns the time at which it is available.
+     */
+    long reserve(final long nowNanos) {
+      while (true) {
+        long full = mFullNanos.get();
+
+        long available = full - mBurstNanos;
+        if (available - nowNanos < 0) {
+          available = nowNanos;
+        }
+
+        long start = full - available > 0 ? full : available;
+        if (mFullNanos.compareAndSet(full, start + mIntervalNanos)) {
+          return available;
+        }
+      }
+    }
+  }
+}
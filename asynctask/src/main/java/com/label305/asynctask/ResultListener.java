@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Receives the outcome of {@link AsyncTask#doInBackground()} as soon as it is known, without waiting for the main thread callbacks.
+ *
+ * The methods of this interface are called on the thread that completes the task, which typically is a worker thread,
+ * or on the thread that registers the listener if the task has already completed. They must return quickly.
+ *
+ * @param <T> the type of the result.
+ *
+ * @see AsyncTask#addResultListener(ResultListener)
+ * @author Niek Haarman <niek@label305.com>
+ */
+public interface ResultListener<T> {
+
+  /**
+   * Called when {@link AsyncTask#doInBackground()} returned successfully.
+   */
+  void onResult(@Nullable T result);
+
+  /**
+   * Called when {@link AsyncTask#doInBackground()} threw an Exception, or when the task was cancelled,
+   * in which case the Exception is a {@link java.util.concurrent.CancellationException}.
+   */
+  void onFailure(@NonNull Exception e);
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes how often, and after which delay, {@link AsyncTask#doInBackground()} is attempted again after it threw an Exception.
+ *
+ * The delay before attempt {@code n + 1} is {@code initialDelay * multiplier^(n - 1)}, capped at the maximum delay,
+ * and then reduced by a random fraction of up to the jitter, so that tasks that failed together don't retry together.
+ *
+ * In non-blocking mode, retries are scheduled on a shared timer, so no worker thread is held while waiting.
+ * In blocking mode, the worker thread waits, so that all attempts are made within a single submission to the Executor.
+ * RuntimeExceptions are never retried.
+ * A RetryPolicy is immutable, and can be shared by all tasks of a class:
+ * <pre>
+ *   private static final RetryPolicy&lt;IOException&gt; RETRY_POLICY = new RetryPolicy.Builder&lt;IOException&gt;()
+ *       .setMaxAttempts(4)
+ *       .setInitialDelay(500, TimeUnit.MILLISECONDS)
+ *       .build();
+ * </pre>
+ *
+ * @param <E> the type of the Exception {@link AsyncTask#doInBackground()} may throw.
+ *
+ * @see AsyncTask#getRetryPolicy()
+ * @author Niek Haarman <niek@label305.com>
+ */
+public final class RetryPolicy<E extends Exception> {
+
+  private final int mMaxAttempts;
+
+  private final long mInitialDelayNanos;
+
+  private final double mMultiplier;
+
+  private final long mMaxDelayNanos;
+
+  private final double mJitter;
+
+  @Nullable
+  private final RetryCondition<? super E> mCondition;
+
+  @NonNull
+  private final Random mRandom = new Random();
+
+  private RetryPolicy(@NonNull final Builder<E> builder) {
+    mMaxAttempts = builder.mMaxAttempts;
+    mInitialDelayNanos = builder.mInitialDelayNanos;
+    mMultiplier = builder.mMultiplier;
+    mMaxDelayNanos = builder.mMaxDelayNanos;
+    mJitter = builder.mJitter;
+    mCondition = builder.mCondition;
+  }
+
+  /**
+   * Returns whether another attempt should be made.
+   *
+   * @param e The Exception thrown by the last attempt.
+   * @param attempts The number of attempts made so far.
+   */
+  boolean shouldRetry(@NonNull final E e, final int attempts) {
+    return attempts < mMaxAttempts && (mCondition == null || mCondition.shouldRetry(e));
+  }
+
+  /**
+   * Returns the delay before the next attempt.
+   *
+   * @param attempts The number of attempts made so far.
+   */
+  long delayNanos(final int attempts) {
+    double delay = mInitialDelayNanos * Math.pow(mMultiplier, attempts - 1);
+    delay = Math.min(delay, mMaxDelayNanos);
+
+    double jitter;
+    synchronized (mRandom) {
+      jitter = mRandom.nextDouble();
+    }
+
+    return (long) (delay * (1 - mJitter * jitter));
+  }
+
+  /**
+   * Creates RetryPolicies.
+   */
+  public static class Builder<E extends Exception> {
+
+    private int mMaxAttempts = 3;
+
+    private long mInitialDelayNanos = TimeUnit.SECONDS.toNanos(1);
+
+    private double mMultiplier = 2;
+
+    private long mMaxDelayNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private double mJitter = 0.5;
+
+    @Nullable
+    private RetryCondition<? super E> mCondition;
+
+    /**
+     * Sets the maximum number of attempts, including the first one. Defaults to 3.
+     */
+    @NonNull
+    public Builder<E> setMaxAttempts(final int maxAttempts) {
+      if (maxAttempts <= 0) {
+        throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+      }
+
+      mMaxAttempts = maxAttempts;
+      return this;
+    }
+
+    /**
+     * Sets the delay before the second attempt. Defaults to 1 second.
+     */
+    @NonNull
+    public Builder<E> setInitialDelay(final long delay, @NonNull final TimeUnit unit) {
+      if (delay < 0) {
+        throw new IllegalArgumentException("delay must not be negative: " + delay);
+      }
+
+      mInitialDelayNanos = unit.toNanos(delay);
+      return this;
+    }
+
+    /**
+     * Sets the factor by which the delay grows after every attempt. Defaults to 2.
+     */
+    @NonNull
+    public Builder<E> setMultiplier(final double multiplier) {
+      if (multiplier < 1) {
+        throw new IllegalArgumentException("multiplier must be at least 1: " + multiplier);
+      }
+
+      mMultiplier = multiplier;
+      return this;
+    }
+
+    /**
+     * Sets the maximum delay between two attempts. Defaults to 30 seconds.
+     */
+    @NonNull
+    public Builder<E> setMaxDelay(final long delay, @NonNull final TimeUnit unit) {
+      if (delay < 0) {
+        throw new IllegalArgumentException("delay must not be negative: " + delay);
+      }
+
+      mMaxDelayNanos = unit.toNanos(delay);
+      return this;
+    }
+
+    /**
+     * Sets the maximum fraction by which a delay is randomly reduced, between 0 and 1. Defaults to 0.5.
+     */
+    @NonNull
+    public Builder<E> setJitter(final double jitter) {
+      if (jitter < 0 || jitter > 1) {
+        throw new IllegalArgumentException("jitter must be between 0 and 1: " + jitter);
+      }
+
+      mJitter = jitter;
+      return this;
+    }
+
+    /**
+     * Sets the condition an Exception must meet to be retried. Defaults to retrying every Exception.
+     */
+    @NonNull
+    public Builder<E> setRetryCondition(@NonNull final RetryCondition<? super E> condition) {
+      mCondition = condition;
+      return this;
+    }
+
+    @NonNull
+    public RetryPolicy<E> build() {
+      return new RetryPolicy<>(this);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.Future;
+
+/**
+ * Runs actions after a delay, for executors that time their tasks.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+interface Scheduler {
+
+  /**
+   * Runs given action after given delay. The action must be short, since it may hold up other scheduled actions.
+   * It must also handle its own failures: they are only held by the returned Future.
+   *
+   * @return A Future that can be used to cancel the action.
+   */
+  @NonNull
+  Future<?> schedule(@NonNull Runnable action, long delayNanos);
+
+  /**
+   * Returns the current time of this scheduler, in {@link System#nanoTime()} units.
+   */
+  long nanoTime();
+}
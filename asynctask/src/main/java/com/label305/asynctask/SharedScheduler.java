@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The Scheduler shared by all executors: a hashed timer wheel, driven by a single daemon thread.
+ *
+ * Scheduling and cancelling are O(1) and lock-free, which keeps deadlines cheap even when every task has one.
+ * Actions run up to one tick late, and actions expiring in the same tick run in the order in which they were scheduled.
+ * Cancelled actions are removed from the wheel on the next tick, and the thread only wakes up every tick while actions are scheduled.
+ * As with a {@link java.util.concurrent.ScheduledExecutorService}, the failure of an action is only held by its Future:
+ * actions must handle their own failures, and fail the task they act on.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+final class SharedScheduler implements Scheduler {
+
+  private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /**
+   * The number of buckets, a power of two. One revolution of the wheel covers about five seconds.
+   */
+  private static final int WHEEL_SIZE = 512;
+
+  private static final SharedScheduler INSTANCE = new SharedScheduler();
+
+  /**
+   * Scheduled actions that haven't been put in a bucket yet.
+   */
+  @NonNull
+  private final Queue<Timeout> mPending = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Cancelled actions that may still have to be removed from their bucket.
+   */
+  @NonNull
+  private final Queue<Timeout> mCancelled = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of actions that are scheduled and haven't been removed from the wheel yet.
+   */
+  @NonNull
+  private final AtomicInteger mCount = new AtomicInteger();
+
+  private final long mStartNanos = System.nanoTime();
+
+  /**
+   * The buckets, each holding a linked list of Timeouts in the order in which they were scheduled. Only accessed by {@link #mThread}.
+   */
+  @NonNull
+  private final Timeout[] mBuckets = new Timeout[WHEEL_SIZE];
+
+  /**
+   * The last Timeout of each bucket, so that Timeouts expiring in the same tick run in the order in which they were scheduled.
+   * Only accessed by {@link #mThread}.
+   */
+  @NonNull
+  private final Timeout[] mTails = new Timeout[WHEEL_SIZE];
+
+  /**
+   * The next tick to process. Only accessed by {@link #mThread}.
+   */
+  private long mTick;
+
+  @NonNull
+  private final Thread mThread;
+
+  /**
+   * Use {@link #instance()} instead; separate instances only exist for testing.
+   */
+  SharedScheduler() {
+    mThread = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            loop();
+          }
+        },
+        "AsyncTask Timer"
+    );
+    mThread.setDaemon(true);
+    mThread.start();
+  }
+
+  @NonNull
+  static SharedScheduler instance() {
+    return INSTANCE;
+  }
+
+  @NonNull
+  @Override
+  public Future<?> schedule(@NonNull final Runnable action, final long delayNanos) {
+    Timeout timeout = new Timeout(action, nanoTime() + Math.max(0, delayNanos));
+    mPending.add(timeout);
+
+    if (mCount.getAndIncrement() == 0) {
+      LockSupport.unpark(mThread);
+    }
+
+    return timeout;
+  }
+
+  @Override
+  public long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Returns the number of actions that are scheduled and haven't been removed from the wheel yet.
+   */
+  int getScheduledCount() {
+    return mCount.get();
+  }
+
+  private void loop() {
+    //noinspection InfiniteLoopStatement
+    while (true) {
+      if (mCount.get() == 0) {
+        LockSupport.park(this);
+
+        /* The wheel is empty, so there is no need to process the ticks that passed while parked. */
+        mTick = currentTick();
+        continue;
+      }
+
+      long currentTick = currentTick();
+      while (mTick <= currentTick) {
+        transferPending();
+        expire(mTick);
+        mTick++;
+      }
+      purgeCancelled();
+
+      if (mCount.get() > 0) {
+        LockSupport.parkNanos(this, mStartNanos + mTick * TICK_NANOS - System.nanoTime());
+      }
+    }
+  }
+
+  private long currentTick() {
+    return (System.nanoTime() - mStartNanos) / TICK_NANOS;
+  }
+
+  private void transferPending() {
+    Timeout timeout;
+    while ((timeout = mPending.poll()) != null) {
+      if (timeout.isCancelled()) {
+        mCount.decrementAndGet();
+        continue;
+      }
+
+      long deadlineTick = (timeout.mDeadlineNanos - mStartNanos + TICK_NANOS - 1) / TICK_NANOS;
+      deadlineTick = Math.max(deadlineTick, mTick);
+
+      timeout.mRounds = (deadlineTick - mTick) / WHEEL_SIZE;
+
+      link(timeout, (int) (deadlineTick & (WHEEL_SIZE - 1)));
+    }
+  }
+
+  private void purgeCancelled() {
+    Timeout timeout;
+    while ((timeout = mCancelled.poll()) != null) {
+      /* Timeouts that are still pending are discarded by transferPending(), and expired ones are already unlinked. */
+      if (timeout.mBucket >= 0) {
+        unlink(timeout);
+      }
+    }
+  }
+
+  private void expire(final long tick) {
+    int bucket = (int) (tick & (WHEEL_SIZE - 1));
+
+    Timeout timeout = mBuckets[bucket];
+    while (timeout != null) {
+      Timeout next = timeout.mNext;
+
+      if (timeout.isCancelled() || timeout.mRounds <= 0) {
+        unlink(timeout);
+        timeout.run();
+      } else {
+        timeout.mRounds--;
+      }
+
+      timeout = next;
+    }
+  }
+
+  private void link(@NonNull final Timeout timeout, final int bucket) {
+    timeout.mBucket = bucket;
+    timeout.mPrevious = mTails[bucket];
+    if (timeout.mPrevious == null) {
+      mBuckets[bucket] = timeout;
+    } else {
+      timeout.mPrevious.mNext = timeout;
+    }
+    mTails[bucket] = timeout;
+  }
+
+  private void unlink(@NonNull final Timeout timeout) {
+    int bucket = timeout.mBucket;
+    if (timeout.mPrevious == null) {
+      mBuckets[bucket] = timeout.mNext;
+    } else {
+      timeout.mPrevious.mNext = timeout.mNext;
+    }
+    if (timeout.mNext == null) {
+      mTails[bucket] = timeout.mPrevious;
+    } else {
+      timeout.mNext.mPrevious = timeout.mPrevious;
+    }
+
+    timeout.mBucket = -1;
+    timeout.mPrevious = null;
+    timeout.mNext = null;
+    mCount.decrementAndGet();
+  }
+
+  private class Timeout extends FutureTask<Void> {
+
+    private final long mDeadlineNanos;
+
+    /**
+     * The number of revolutions of the wheel left before this Timeout expires. Only accessed by the wheel thread.
+     */
+    private long mRounds;
+
+    /**
+     * The bucket this Timeout is linked into, or -1 if it isn't in the wheel. Only accessed by the wheel thread.
+     */
+    private int mBucket = -1;
+
+    @Nullable
+    private Timeout mPrevious;
+
+    @Nullable
+    private Timeout mNext;
+
+    Timeout(@NonNull final Runnable action, final long deadlineNanos) {
+      super(action, null);
+      mDeadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        mCancelled.add(this);
+      }
+      return cancelled;
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A step of background work in a composition of AsyncTasks, which is executed by a {@link ComposedAsyncTask}.
+ *
+ * Stages run entirely on worker threads: the result of one stage is passed to the next without a main thread round trip.
+ * Stages combined with {@link #zip}, {@link #allOf} or {@link #anyOf} run in parallel. The worker thread running the composition
+ * runs any stage that hasn't been picked up by the Executor yet, and for {@link #zip} and {@link #allOf} also runs the first
+ * stage itself, so a composition never waits for work that is stuck in the queue of a saturated thread pool.
+ *
+ * @param <T> the type of the result.
+ * @param <E> the type of the Exception this stage may throw.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public abstract class Stage<T, E extends Exception> {
+
+  /**
+   * Runs this stage on the calling thread.
+   *
+   * @throws CancellationException if the calling thread was interrupted while waiting for a parallel stage.
+   */
+  @WorkerThread
+  public abstract T get() throws E;
+
+  /**
+   * Returns a Stage that passes the result of this stage to given Continuation.
+   */
+  @NonNull
+  public <U> Stage<U, E> then(@NonNull final Continuation<? super T, U, E> continuation) {
+    final Stage<T, E> previous = this;
+    return new Stage<U, E>() {
+      @Override
+      public U get() throws E {
+        return continuation.then(previous.get());
+      }
+    };
+  }
+
+  /**
+   * Returns a Stage that runs the {@link AsyncTask#doInBackground()} of given task.
+   * The task is never executed itself, so none of its callbacks are called.
+   */
+  @NonNull
+  public static <T, E extends Exception> Stage<T, E> of(@NonNull final AsyncTask<T, ? extends E> task) {
+    return new Stage<T, E>() {
+      @Override
+      public T get() throws E {
+        return task.doInBackground();
+      }
+    };
+  }
+
+  /**
+   * Returns a Stage that runs given stages in parallel on the IO thread pool of the default executors, and combines their results.
+   *
+   * @see #zip(Executor, Stage, Stage, Combiner)
+   */
+  @NonNull
+  public static <A, B, C, E extends Exception> Stage<C, E> zip(@NonNull final Stage<A, E> first,
+                                                               @NonNull final Stage<B, E> second,
+                                                               @NonNull final Combiner<? super A, ? super B, C, E> combiner) {
+    return zip(DefaultAsyncTaskExecutor.ioThreadPool(), first, second, combiner);
+  }
+
+  /**
+   * Returns a Stage that runs given stages in parallel, and combines their results.
+   * If either stage fails, the other one is cancelled with interrupt.
+   *
+   * @param executor The Executor to run the second stage on.
+   */
+  @NonNull
+  public static <A, B, C, E extends Exception> Stage<C, E> zip(@NonNull final Executor executor,
+                                                               @NonNull final Stage<A, E> first,
+                                                               @NonNull final Stage<B, E> second,
+                                                               @NonNull final Combiner<? super A, ? super B, C, E> combiner) {
+    return new Stage<C, E>() {
+      @Override
+      public C get() throws E {
+        Fork<B, E> fork = new Fork<>(second, null);
+        executor.execute(fork);
+
+        try {
+          A a = first.get();
+          B b = fork.join();
+          return combiner.combine(a, b);
+        } finally {
+          fork.cancel(true);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a Stage that runs given stages in parallel on the IO thread pool of the default executors.
+   *
+   * @see #allOf(Executor, List)
+   */
+  @NonNull
+  public static <T, E extends Exception> Stage<List<T>, E> allOf(@NonNull final List<? extends Stage<T, E>> stages) {
+    return allOf(DefaultAsyncTaskExecutor.ioThreadPool(), stages);
+  }
+
+  /**
+   * Returns a Stage that runs given stages in parallel, and results in the list of their results, in the same order.
+   * If any stage fails, the others are cancelled with interrupt.
+   *
+   * @param executor The Executor to run all but the first stage on.
+   */
+  @NonNull
+  public static <T, E extends Exception> Stage<List<T>, E> allOf(@NonNull final Executor executor,
+                                                                 @NonNull final List<? extends Stage<T, E>> stages) {
+    return new Stage<List<T>, E>() {
+      @Override
+      public List<T> get() throws E {
+        if (stages.isEmpty()) {
+          return Collections.emptyList();
+        }
+
+        List<Fork<T, E>> forks = fork(executor, stages.subList(1, stages.size()), null);
+
+        try {
+          List<T> results = new ArrayList<>(stages.size());
+          results.add(stages.get(0).get());
+          for (Fork<T, E> fork : forks) {
+            results.add(fork.join());
+          }
+          return results;
+        } finally {
+          cancelAll(forks);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a Stage that runs given stages in parallel on the IO thread pool of the default executors.
+   *
+   * @see #anyOf(Executor, List)
+   */
+  @NonNull
+  public static <T, E extends Exception> Stage<T, E> anyOf(@NonNull final List<? extends Stage<T, E>> stages) {
+    return anyOf(DefaultAsyncTaskExecutor.ioThreadPool(), stages);
+  }
+
+  /**
+   * Returns a Stage that runs given stages in parallel, and results in the result of the first one that succeeds.
+   * The others are then cancelled with interrupt. If all stages fail, the Exception of the first stage is thrown.
+   *
+   * @param executor The Executor to run the stages on.
+   */
+  @NonNull
+  public static <T, E extends Exception> Stage<T, E> anyOf(@NonNull final Executor executor,
+                                                           @NonNull final List<? extends Stage<T, E>> stages) {
+    if (stages.isEmpty()) {
+      throw new IllegalArgumentException("anyOf requires at least one stage");
+    }
+
+    return new Stage<T, E>() {
+      @Override
+      public T get() throws E {
+        BlockingQueue<Fork<T, E>> completed = new LinkedBlockingQueue<>();
+        List<Fork<T, E>> forks = fork(executor, stages, completed);
+
+        try {
+          int helped = 0;
+          for (int remaining = forks.size(); remaining > 0; remaining--) {
+            Fork<T, E> fork = completed.poll();
+            while (fork == null && helped < forks.size()) {
+              forks.get(helped++).run();
+              fork = completed.poll();
+            }
+            if (fork == null) {
+              fork = take(completed);
+            }
+
+            try {
+              return fork.join();
+            } catch (Exception ignored) {
+              /* Try the next one, reporting the failure of the first stage if all fail. */
+            }
+          }
+
+          return forks.get(0).join();
+        } finally {
+          cancelAll(forks);
+        }
+      }
+    };
+  }
+
+  @NonNull
+  private static <T, E extends Exception> List<Fork<T, E>> fork(@NonNull final Executor executor,
+                                                                @NonNull final List<? extends Stage<T, E>> stages,
+                                                                @Nullable final BlockingQueue<Fork<T, E>> completed) {
+    List<Fork<T, E>> forks = new ArrayList<>(stages.size());
+    for (Stage<T, E> stage : stages) {
+      Fork<T, E> fork = new Fork<>(stage, completed);
+      forks.add(fork);
+      executor.execute(fork);
+    }
+    return forks;
+  }
+
+  private static void cancelAll(@NonNull final List<? extends FutureTask<?>> forks) {
+    for (FutureTask<?> fork : forks) {
+      fork.cancel(true);
+    }
+  }
+
+  @NonNull
+  private static <T> T take(@NonNull final BlockingQueue<T> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for a parallel stage");
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T, E extends Exception> T rethrow(@NonNull final Exception e) throws E {
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+
+    throw (E) e;
+  }
+
+  /**
+   * A stage running in parallel, possibly on another thread.
+   */
+  private static class Fork<T, E extends Exception> extends FutureTask<T> {
+
+    @Nullable
+    private final BlockingQueue<Fork<T, E>> mCompleted;
+
+    Fork(@NonNull final Stage<T, E> stage, @Nullable final BlockingQueue<Fork<T, E>> completed) {
+      super(
+          new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+              return stage.get();
+            }
+          }
+      );
+      mCompleted = completed;
+    }
+
+    @Override
+    protected void done() {
+      if (mCompleted != null) {
+        mCompleted.add(this);
+      }
+    }
+
+    /**
+     * Returns the result of this stage, running it on the calling thread if no other thread has started it yet.
+     */
+    T join() throws E {
+      run();
+
+      try {
+        return get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException("Interrupted while waiting for a parallel stage");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+
+        return Stage.<T, E>rethrow((Exception) cause);
+      }
+    }
+  }
+}
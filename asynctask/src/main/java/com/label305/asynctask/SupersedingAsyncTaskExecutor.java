@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Base class for AsyncTaskExecutors that hold back tasks per key, where a newer task supersedes the task that is held back.
+ *
+ * Tasks are grouped by their class and {@link AsyncTask#getKey()}; tasks without a key are grouped by class only.
+ * Tasks are executed in blocking mode, so that a task that is held back has not started yet. A superseded task is
+ * cancelled through {@link AsyncTask#cancel()} before it reaches the Executor, so none of its callbacks are called.
+ * A held back task that the Executor rejects once it is released is cancelled the same way.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+abstract class SupersedingAsyncTaskExecutor implements AsyncTaskExecutor {
+
+  private static final Object NO_KEY = new Object();
+
+  @NonNull
+  private final Executor mExecutor;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  @NonNull
+  private final Scheduler mScheduler;
+
+  /**
+   * Guarded by itself.
+   */
+  @NonNull
+  private final Map<TaskKey, Slot> mSlots = new HashMap<>();
+
+  SupersedingAsyncTaskExecutor(@NonNull final Executor executor, @NonNull final CallbackDispatcher dispatcher, @NonNull final Scheduler scheduler) {
+    mExecutor = executor;
+    mDispatcher = dispatcher;
+    mScheduler = scheduler;
+  }
+
+  /**
+   * Returns how long a task that is executed now must be held back.
+   *
+   * @param lastReleaseNanos The time at which the last task of the same key was released, or {@code null} if there was none recently.
+   */
+  abstract long delayNanos(@Nullable Long lastReleaseNanos, long nowNanos);
+
+  /**
+   * Returns how long the time of release of a task must be remembered for its key.
+   */
+  abstract long retentionNanos();
+
+  @Override
+  public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+    Object key = task.getKey();
+    final TaskKey taskKey = new TaskKey(task.getClass(), key == null ? NO_KEY : key);
+
+    return task.execute(
+        new Executor() {
+          @Override
+          public void execute(@NonNull final Runnable command) {
+            submit(taskKey, task, command);
+          }
+        },
+        mDispatcher
+    );
+  }
+
+  private void submit(@NonNull final TaskKey taskKey, @NonNull final AsyncTask<?, ?> task, @NonNull final Runnable command) {
+    AsyncTask<?, ?> superseded = null;
+    boolean release = false;
+
+    synchronized (mSlots) {
+      Slot slot = mSlots.get(taskKey);
+      if (slot == null) {
+        slot = new Slot(taskKey);
+        mSlots.put(taskKey, slot);
+      }
+
+      if (slot.mHeldTask != null) {
+        superseded = slot.mHeldTask;
+        slot.mTimer.cancel(false);
+        slot.mHeldTask = null;
+        slot.mHeldCommand = null;
+      } else if (slot.mTimer != null) {
+        /* The retention timer is running, and will be restarted on release. */
+        slot.mTimer.cancel(false);
+      }
+
+      long now = mScheduler.nanoTime();
+      long delay = delayNanos(slot.mLastReleaseNanos, now);
+      if (delay <= 0) {
+        release = true;
+        onReleased(slot, now);
+      } else {
+        slot.mHeldTask = task;
+        slot.mHeldCommand = command;
+        slot.schedule(delay);
+      }
+    }
+
+    if (superseded != null) {
+      superseded.cancel();
+    }
+
+    if (release) {
+      mExecutor.execute(command);
+    }
+  }
+
+  /**
+   * Records the release of a task, and schedules the removal of the slot. Must hold the lock on {@link #mSlots}.
+   */
+  private void onReleased(@NonNull final Slot slot, final long now) {
+    long retention = retentionNanos();
+    if (retention <= 0) {
+      mSlots.remove(slot.mTaskKey);
+      slot.mTimer = null;
+    } else {
+      slot.mLastReleaseNanos = now;
+      slot.schedule(retention);
+    }
+  }
+
+  /**
+   * Returns the number of keys that have a held back task, or a recently released one.
+   */
+  int getSlotCount() {
+    synchronized (mSlots) {
+      return mSlots.size();
+    }
+  }
+
+  /**
+   * The state of a single key. Its timer either releases the held task, or expires the slot.
+   */
+  private class Slot {
+
+    @NonNull
+    private final TaskKey mTaskKey;
+
+    @Nullable
+    private AsyncTask<?, ?> mHeldTask;
+
+    @Nullable
+    private Runnable mHeldCommand;
+
+    @Nullable
+    private Future<?> mTimer;
+
+    @Nullable
+    private Long mLastReleaseNanos;
+
+    /**
+     * Identifies the current timer, since a cancelled timer may already be waiting for the lock.
+     */
+    private int mGeneration;
+
+    Slot(@NonNull final TaskKey taskKey) {
+      mTaskKey = taskKey;
+    }
+
+    /**
+     * Starts the timer of this slot. Must hold the lock on {@link #mSlots}.
+     */
+    void schedule(final long delayNanos) {
+      final int generation = ++mGeneration;
+      mTimer = mScheduler.schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              onTimer(generation);
+            }
+          },
+          delayNanos
+      );
+    }
+
+    private void onTimer(final int generation) {
+      AsyncTask<?, ?> task;
+      Runnable command;
+      synchronized (mSlots) {
+        if (mSlots.get(mTaskKey) != this || generation != mGeneration) {
+          return;
+        }
+
+        task = mHeldTask;
+        command = mHeldCommand;
+        mHeldTask = null;
+        mHeldCommand = null;
+
+        if (command == null) {
+          mSlots.remove(mTaskKey);
+          return;
+        }
+
+        onReleased(this, mScheduler.nanoTime());
+      }
+
+      try {
+        mExecutor.execute(command);
+      } catch (RejectedExecutionException ignored) {
+        /* There is no caller to throw to on the timer thread, so the task is cancelled instead. */
+        task.cancel();
+      }
+    }
+  }
+}
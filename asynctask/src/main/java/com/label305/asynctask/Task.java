@@ -16,32 +16,129 @@
 
 package com.label305.asynctask;
 
-import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
+ * Runs the lifecycle of an AsyncTask on a worker thread, blocking the worker while the main thread callbacks run.
+ *
+ * The main thread stages are run by a single {@link MainThreadStage}, which is posted once per stage and reused for the next one.
+ * Tasks obtained through {@link #obtain(AsyncTask, CallbackDispatcher)} are returned to a pool when their lifecycle has finished,
+ * so in steady state, running a task that succeeds does not allocate anything.
+ *
  * @author Niek Haarman <niek@label305.com>
  */
-class Task<T, E extends Exception> implements Runnable {
+class Task<T, E extends Exception> implements Runnable, Callable<Void> {
+
+  private static final int PRE_EXECUTE = 0;
+
+  private static final int SUCCESS = 1;
+
+  private static final int CANCEL = 2;
+
+  private static final int FINALLY = 3;
+
+  /**
+   * The maximum number of idle Tasks kept in the pool.
+   */
+  private static final int POOL_CAPACITY = 32;
+
+  /**
+   * The interval at which a worker waiting for a retry checks whether the parent was cancelled.
+   */
+  private static final long RETRY_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static final Task<?, ?>[] sPool = new Task<?, ?>[POOL_CAPACITY];
+
+  private static int sPoolSize;
+
+  private AsyncTask<T, E> mParent;
+
+  private CallbackDispatcher mDispatcher;
+
+  private final boolean mPooled;
 
   @NonNull
-  private final AsyncTask<T, E> mParent;
+  private final MainThreadStage mStage = new MainThreadStage();
 
+  /**
+   * Whether a worker stopped waiting for {@link #mStage} because it was interrupted.
+   * The stage may still be pending, so it can't be reused anymore.
+   */
+  private boolean mStageAbandoned;
+
+  /**
+   * Claimed by {@link #run()}, or by {@link #claimUnstarted()} when the task is cancelled before it starts, whichever comes first.
+   */
   @NonNull
-  private final Handler mHandler;
+  private final AtomicBoolean mClaimed = new AtomicBoolean();
+
+  Task(@NonNull final AsyncTask<T, E> parent, @NonNull final CallbackDispatcher dispatcher) {
+    this(parent, dispatcher, false);
+  }
 
-  Task(@NonNull final AsyncTask<T, E> parent, @NonNull final Handler handler) {
+  private Task(@NonNull final AsyncTask<T, E> parent, @NonNull final CallbackDispatcher dispatcher, final boolean pooled) {
     mParent = parent;
-    mHandler = handler;
+    mDispatcher = dispatcher;
+    mPooled = pooled;
+  }
+
+  /**
+   * Returns a Task from the pool, or a new one if the pool is empty.
+   * The Task returns itself to the pool once it has run.
+   */
+  @NonNull
+  @SuppressWarnings("unchecked")
+  static <T, E extends Exception> Task<T, E> obtain(@NonNull final AsyncTask<T, E> parent, @NonNull final CallbackDispatcher dispatcher) {
+    Task<T, E> task = null;
+    synchronized (sPool) {
+      if (sPoolSize > 0) {
+        task = (Task<T, E>) sPool[--sPoolSize];
+        sPool[sPoolSize] = null;
+      }
+    }
+
+    if (task == null) {
+      return new Task<>(parent, dispatcher, true);
+    }
+
+    task.mParent = parent;
+    task.mDispatcher = dispatcher;
+    task.mClaimed.set(false);
+    return task;
+  }
+
+  private void recycle() {
+    mParent = null;
+    mDispatcher = null;
+
+    synchronized (sPool) {
+      if (sPoolSize < POOL_CAPACITY) {
+        sPool[sPoolSize++] = this;
+      }
+    }
+  }
+
+  @Override
+  public Void call() {
+    run();
+    return null;
   }
 
   @SuppressWarnings("NestedTryStatement")
   @Override
   public void run() {
+    if (!mClaimed.compareAndSet(false, true)) {
+      /* The task was cancelled before it started, and has already ended. */
+      return;
+    }
+
+    mParent.recordMetric(TaskMetrics.STARTED);
+
     try {
       doPreExecute();
 
@@ -52,16 +149,47 @@ class Task<T, E extends Exception> implements Runnable {
 
       boolean success = false;
       RuntimeException runtimeException = null;
+      E exception = null;
       T result = null;
 
-      //noinspection OverlyBroadCatchBlock
-      try {
-        result = doDoInBackground();
-        success = true;
-      } catch (RuntimeException e) {
-        runtimeException = e;
-      } catch (Exception e) {
-        doException((E) e);
+      RetryPolicy<E> retryPolicy = mParent.getRetryPolicy();
+      boolean retryCancelled = false;
+      int attempts = 0;
+      while (true) {
+        //noinspection OverlyBroadCatchBlock
+        try {
+          result = doDoInBackground();
+          success = true;
+        } catch (RuntimeException e) {
+          runtimeException = e;
+        } catch (Exception e) {
+          exception = (E) e;
+        }
+
+        attempts++;
+        if (exception == null || !mParent.shouldRetry(retryPolicy, exception, attempts)) {
+          break;
+        }
+
+        assert retryPolicy != null;
+        if (!awaitRetry(retryPolicy.delayNanos(attempts))) {
+          retryCancelled = true;
+          break;
+        }
+
+        exception = null;
+      }
+
+      mParent.completeResult(result, exception != null ? exception : runtimeException);
+
+      if (mParent.isTimedOut() || retryCancelled) {
+        /* The outcome of an interrupted doInBackground() is meaningless, and a cancelled retry has no outcome. */
+        doCancel();
+        return;
+      }
+
+      if (exception != null) {
+        doException(exception);
       }
 
       if (runtimeException != null) {
@@ -77,139 +205,339 @@ class Task<T, E extends Exception> implements Runnable {
         }
       }
     } catch (RuntimeException e) {
+      mParent.completeResult(null, e);
       doRuntimeException(e);
     } finally {
       try {
         doFinally();
       } catch (RuntimeException e) {
         doRuntimeException(e);
+      } finally {
+        /* Also ends the metrics of a task whose callbacks were suppressed, so that onFinally() didn't run. */
+        mParent.recordMetric(TaskMetrics.FINISHED);
+        mParent.leaveScope();
+
+        if (mPooled && !mStageAbandoned) {
+          recycle();
+        }
       }
     }
   }
 
+  /**
+   * Claims this task for a cancellation that happened before it started, so that it never will.
+   * The claimed task is not returned to the pool, since its FutureTask may still call {@link #run()}.
+   *
+   * @return {@code false} if the task has already started.
+   */
+  boolean claimUnstarted() {
+    return mClaimed.compareAndSet(false, true);
+  }
+
   private void doPreExecute() {
-    postToUiThreadAndWait(
-        new Runnable() {
-          @Override
-          public void run() {
-            mParent.onPreExecute();
-          }
-        }
-    );
+    if (mParent.isCallbackSuppressed()) {
+      /* Nobody is interested in the outcome anymore. */
+      mParent.cancel();
+      return;
+    }
+
+    postToUiThreadAndWait(PRE_EXECUTE, null);
   }
 
   @Nullable
   private T doDoInBackground() throws E { // hihi doodoo
-    return mParent.doInBackground();
+    mParent.recordMetric(TaskMetrics.BACKGROUND_STARTED);
+    Deadline deadline = Deadline.start(mParent);
+    try {
+      return mParent.performBackground();
+    } finally {
+      if (deadline != null) {
+        deadline.finish();
+      }
+      mParent.recordMetric(TaskMetrics.BACKGROUND_DONE);
+    }
+  }
+
+  /**
+   * Waits for given backoff delay before the next attempt of {@link AsyncTask#doInBackground()}, holding the worker thread.
+   *
+   * @return {@code false} if the parent was cancelled in the meantime.
+   */
+  private boolean awaitRetry(final long delayNanos) {
+    long deadline = System.nanoTime() + delayNanos;
+    while (!mParent.isCancelled()) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return true;
+      }
+
+      /* Wake up regularly, since cancel() doesn't interrupt the worker. */
+      LockSupport.parkNanos(this, Math.min(remaining, RETRY_POLL_NANOS));
+    }
+
+    return false;
   }
 
   private void doSuccess(@Nullable final T r) {
-    postToUiThreadAndWait(
-        new Runnable() {
-          @Override
-          public void run() {
-            mParent.onSuccess(r);
-          }
-        }
-    );
+    postToUiThreadAndWait(SUCCESS, r);
   }
 
   private void doCancel() {
-    postToUiThreadAndWait(
-        new Runnable() {
-          @Override
-          public void run() {
-            mParent.onCancelled();
-          }
-        }
-    );
+    postToUiThreadAndWait(CANCEL, null);
   }
 
   private void doRuntimeException(@NonNull final RuntimeException e) {
-    fixStackTrace(e);
-    mHandler.post(
+    fixStackTrace(mParent, e);
+    final AsyncTask<T, E> parent = mParent;
+    dispatch(
         new Runnable() {
           @Override
           public void run() {
-            mParent.onRuntimeException(e);
+            parent.onRuntimeException(e);
           }
         }
     );
   }
 
   private void doException(@NonNull final E e) {
-    fixStackTrace(e);
-    mHandler.post(new Runnable() {
+    fixStackTrace(mParent, e);
+    final AsyncTask<T, E> parent = mParent;
+    dispatch(new Runnable() {
       @Override
       public void run() {
-        mParent.onException(e);
+        parent.onException(e);
+        parent.recordMetric(TaskMetrics.CALLBACK_DELIVERED);
       }
     });
   }
 
-  private void fixStackTrace(@NonNull final Exception e) {
-    StackTraceElement[] launchLocation = mParent.getLaunchLocation();
+  /**
+   * Appends the location at which given AsyncTask was executed to the stack trace of given Exception.
+   */
+  static void fixStackTrace(@NonNull final AsyncTask<?, ?> parent, @NonNull final Exception e) {
+    StackTraceElement[] launchLocation = parent.getLaunchLocation();
     if (launchLocation != null) {
-      final ArrayList<StackTraceElement> stack = new ArrayList<>(Arrays.asList(e.getStackTrace()));
-      stack.addAll(Arrays.asList(launchLocation));
-      e.setStackTrace(stack.toArray(new StackTraceElement[stack.size()]));
+      StackTraceElement[] stack = e.getStackTrace();
+      StackTraceElement[] fixed = new StackTraceElement[stack.length + launchLocation.length];
+      System.arraycopy(stack, 0, fixed, 0, stack.length);
+      System.arraycopy(launchLocation, 0, fixed, stack.length, launchLocation.length);
+      e.setStackTrace(fixed);
     }
   }
 
   private void doFinally() {
-    postToUiThreadAndWait(
-        new Runnable() {
-          @Override
-          public void run() {
-            mParent.onFinally();
-          }
-        }
-    );
+    postToUiThreadAndWait(FINALLY, null);
   }
 
   /**
-   * Posts the specified runnable to the UI thread using a handler, and
-   * waits for operation to finish.
+   * Posts the specified runnable to the UI thread using the CallbackDispatcher,
+   * unless the callbacks of the parent are suppressed.
    *
    * @param runnable the runnable to post
    */
-  private void postToUiThreadAndWait(@NonNull final Runnable runnable) {
-    final RuntimeException[] exceptions = new RuntimeException[1];
-    final CountDownLatch latch = new CountDownLatch(1);
+  private void dispatch(@NonNull final Runnable runnable) {
+    if (mParent.isCallbackSuppressed()) {
+      return;
+    }
 
-    // Execute the runnable in the UI thread, but wait for it to complete.
-    mHandler.post(
+    final AsyncTask<T, E> parent = mParent;
+    mDispatcher.dispatch(
         new Runnable() {
           @Override
           public void run() {
-            try {
+            if (!parent.isCallbackSuppressed()) {
               runnable.run();
-            } catch (RuntimeException e) {
-              exceptions[0] = e;
-            } finally {
-              latch.countDown();
             }
           }
         }
     );
+  }
+
+  /**
+   * Posts given stage to the UI thread using the CallbackDispatcher, and waits for it to finish.
+   * Does nothing if the callbacks of the parent are suppressed.
+   *
+   * @param stage the stage to run.
+   * @param result the result passed to {@link AsyncTask#onSuccess(Object)}.
+   */
+  private void postToUiThreadAndWait(final int stage, @Nullable final T result) {
+    if (mParent.isCallbackSuppressed()) {
+      return;
+    }
+
+    if (mDispatcher instanceof ImmediateCallbackDispatcher) {
+      runStageInline(stage, result);
+      return;
+    }
+
+    MainThreadStage mainThreadStage = mStageAbandoned ? new MainThreadStage() : mStage;
+    mainThreadStage.prepare(stage, result);
+
+    // Execute the stage in the UI thread, but wait for it to complete.
+    mDispatcher.dispatch(mainThreadStage);
 
-    // Wait for onSuccess to finish
     try {
-      latch.await();
+      mainThreadStage.await();
     } catch (@NonNull final InterruptedException e) {
-      mHandler.post(
-          new Runnable() {
-            @Override
-            public void run() {
-              mParent.onInterrupted(e);
-            }
-          }
-      );
+      if (!mainThreadStage.isDone()) {
+        mStageAbandoned = true;
+      }
+
+      doInterrupted(e);
     }
 
-    if (exceptions[0] != null) {
+    RuntimeException exception = mainThreadStage.takeException();
+    if (exception != null) {
       //noinspection ProhibitedExceptionThrown
-      throw exceptions[0];
+      throw exception;
+    }
+  }
+
+  /**
+   * Runs given stage on the calling thread, for a CallbackDispatcher that would do so anyway.
+   * Skips the hand-off to and the wait for the {@link MainThreadStage}.
+   */
+  private void runStageInline(final int stage, @Nullable final T result) {
+    RuntimeException exception = null;
+    try {
+      runStage(stage, result);
+    } catch (RuntimeException e) {
+      exception = e;
+    }
+
+    if (Thread.interrupted()) {
+      /* Report an interrupt that happened during the stage, as waiting for the stage would have. */
+      doInterrupted(new InterruptedException());
+    }
+
+    if (exception != null) {
+      //noinspection ProhibitedExceptionThrown
+      throw exception;
+    }
+  }
+
+  private void doInterrupted(@NonNull final InterruptedException e) {
+    final AsyncTask<T, E> parent = mParent;
+    dispatch(
+        new Runnable() {
+          @Override
+          public void run() {
+            parent.onInterrupted(e);
+          }
+        }
+    );
+  }
+
+  private void runStage(final int stage, @Nullable final T result) {
+    switch (stage) {
+      case PRE_EXECUTE:
+        mParent.onPreExecute();
+        mParent.recordMetric(TaskMetrics.PRE_EXECUTED);
+        break;
+      case SUCCESS:
+        mParent.onSuccess(result);
+        mParent.recordMetric(TaskMetrics.CALLBACK_DELIVERED);
+        break;
+      case CANCEL:
+        if (mParent.isTimedOut()) {
+          mParent.onTimeout();
+        } else {
+          mParent.onCancelled();
+        }
+        mParent.recordMetric(TaskMetrics.CALLBACK_DELIVERED);
+        break;
+      default:
+        try {
+          mParent.onFinally();
+        } finally {
+          mParent.recordMetric(TaskMetrics.FINISHED);
+        }
+        break;
+    }
+  }
+
+  /**
+   * Runs one of the main thread stages, and wakes up the worker waiting for it.
+   *
+   * The worker parks through {@link LockSupport} rather than waiting on a monitor,
+   * so that a virtual thread waiting for the main thread doesn't pin its carrier thread.
+   */
+  private final class MainThreadStage implements Runnable {
+
+    private int mStageId;
+
+    @Nullable
+    private T mResult;
+
+    @Nullable
+    private RuntimeException mException;
+
+    @Nullable
+    private Thread mWaiter;
+
+    /**
+     * Publishes the fields above: written last by both {@link #prepare(int, Object)} and {@link #run()}.
+     */
+    private volatile boolean mDone;
+
+    void prepare(final int stage, @Nullable final T result) {
+      mStageId = stage;
+      mResult = result;
+      mException = null;
+      mWaiter = Thread.currentThread();
+      mDone = false;
+    }
+
+    void await() throws InterruptedException {
+      while (!mDone) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+
+        LockSupport.park(this);
+      }
+
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+
+    boolean isDone() {
+      return mDone;
+    }
+
+    /**
+     * Returns the RuntimeException thrown by the stage, if it is done.
+     */
+    @Nullable
+    RuntimeException takeException() {
+      if (!mDone) {
+        return null;
+      }
+
+      RuntimeException exception = mException;
+      mResult = null;
+      mException = null;
+      return exception;
+    }
+
+    @Override
+    public void run() {
+      /* Read before the stage is done, after which this stage may be prepared again by another worker. */
+      Thread waiter = mWaiter;
+
+      RuntimeException exception = null;
+      try {
+        if (!mParent.isCallbackSuppressed()) {
+          runStage(mStageId, mResult);
+        }
+      } catch (RuntimeException e) {
+        exception = e;
+      }
+
+      mException = exception;
+      mDone = true;
+      LockSupport.unpark(waiter);
     }
   }
-}
\ No newline at end of file
+}
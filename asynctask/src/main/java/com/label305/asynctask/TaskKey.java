@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Identifies the work of an AsyncTask: its class, combined with its {@link AsyncTask#getKey()}.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+final class TaskKey {
+
+  @NonNull
+  private final Class<?> mTaskClass;
+
+  @NonNull
+  private final Object mKey;
+
+  TaskKey(@NonNull final Class<?> taskClass, @NonNull final Object key) {
+    mTaskClass = taskClass;
+    mKey = key;
+  }
+
+  @NonNull
+  Class<?> getTaskClass() {
+    return mTaskClass;
+  }
+
+  @NonNull
+  Object getKey() {
+    return mKey;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TaskKey)) {
+      return false;
+    }
+
+    TaskKey other = (TaskKey) o;
+    return mTaskClass.equals(other.mTaskClass) && mKey.equals(other.mKey);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * mTaskClass.hashCode() + mKey.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return mTaskClass.getSimpleName() + '[' + mKey + ']';
+  }
+}
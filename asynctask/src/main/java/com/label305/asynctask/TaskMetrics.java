@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The lifecycle timestamps of a single AsyncTask execution, in {@link System#nanoTime()} units.
+ *
+ * A timestamp is {@link #NOT_REACHED} if the task never reached that point, for example because it was cancelled.
+ * Every execution finishes exactly once, including executions that end without calling {@link AsyncTask#onFinally()}.
+ * Durations between two points are {@code -1} if either point was not reached.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public final class TaskMetrics {
+
+  /**
+   * The value of timestamps for stages the task never reached.
+   */
+  public static final long NOT_REACHED = Long.MIN_VALUE;
+
+  static final int ENQUEUED = 0;
+  static final int STARTED = 1;
+  static final int PRE_EXECUTED = 2;
+  static final int BACKGROUND_STARTED = 3;
+  static final int BACKGROUND_DONE = 4;
+  static final int CALLBACK_DELIVERED = 5;
+  static final int FINISHED = 6;
+
+  @NonNull
+  private final Class<?> mTaskClass;
+
+  @NonNull
+  private final TaskMetricsListener mListener;
+
+  /**
+   * Written by the thread performing each stage. Stages are handed off through executors and
+   * callback dispatchers, which ensures visibility by the time the listener is notified.
+   */
+  private final long[] mTimestamps = new long[FINISHED + 1];
+
+  @NonNull
+  private final AtomicBoolean mFinished = new AtomicBoolean();
+
+  TaskMetrics(@NonNull final Class<?> taskClass, @NonNull final TaskMetricsListener listener) {
+    mTaskClass = taskClass;
+    mListener = listener;
+    Arrays.fill(mTimestamps, NOT_REACHED);
+  }
+
+  /**
+   * Records the current time for given event, and notifies the listener when the task has finished.
+   * Only the first {@link #FINISHED} event is recorded.
+   */
+  void record(final int event) {
+    if (event != FINISHED) {
+      mTimestamps[event] = System.nanoTime();
+      return;
+    }
+
+    if (mFinished.compareAndSet(false, true)) {
+      mTimestamps[FINISHED] = System.nanoTime();
+      mListener.onTaskFinished(this);
+    }
+  }
+
+  /**
+   * Returns the class of the executed AsyncTask.
+   */
+  @NonNull
+  public Class<?> getTaskClass() {
+    return mTaskClass;
+  }
+
+  /**
+   * Returns the time at which the task was executed.
+   */
+  public long getEnqueuedNanos() {
+    return mTimestamps[ENQUEUED];
+  }
+
+  /**
+   * Returns the time at which processing of the task started: when a worker thread picked it up,
+   * or in non-blocking mode, when the pre execute stage started.
+   */
+  public long getStartedNanos() {
+    return mTimestamps[STARTED];
+  }
+
+  /**
+   * Returns the time at which {@link AsyncTask#onPreExecute()} returned.
+   */
+  public long getPreExecutedNanos() {
+    return mTimestamps[PRE_EXECUTED];
+  }
+
+  /**
+   * Returns the time at which {@link AsyncTask#doInBackground()} was called.
+   */
+  public long getBackgroundStartedNanos() {
+    return mTimestamps[BACKGROUND_STARTED];
+  }
+
+  /**
+   * Returns the time at which {@link AsyncTask#doInBackground()} returned or threw.
+   */
+  public long getBackgroundDoneNanos() {
+    return mTimestamps[BACKGROUND_DONE];
+  }
+
+  /**
+   * Returns the time at which the result callback, {@link AsyncTask#onSuccess(Object)},
+   * {@link AsyncTask#onException(Exception)} or {@link AsyncTask#onCancelled()}, returned.
+   */
+  public long getCallbackDeliveredNanos() {
+    return mTimestamps[CALLBACK_DELIVERED];
+  }
+
+  /**
+   * Returns the time at which {@link AsyncTask#onFinally()} returned, or at which the task ended without calling it:
+   * when it was cancelled before it started, or when its callbacks were suppressed.
+   */
+  public long getFinishedNanos() {
+    return mTimestamps[FINISHED];
+  }
+
+  /**
+   * Returns the time the task waited in the executor's queue before it started.
+   */
+  public long getQueueDurationNanos() {
+    return duration(ENQUEUED, STARTED);
+  }
+
+  /**
+   * Returns the time from the start of the task until {@link AsyncTask#onPreExecute()} returned,
+   * including the wait for the callback thread.
+   */
+  public long getPreExecuteDurationNanos() {
+    return duration(STARTED, PRE_EXECUTED);
+  }
+
+  /**
+   * Returns the time spent in {@link AsyncTask#doInBackground()}.
+   */
+  public long getBackgroundDurationNanos() {
+    return duration(BACKGROUND_STARTED, BACKGROUND_DONE);
+  }
+
+  /**
+   * Returns the time from the end of {@link AsyncTask#doInBackground()} until the result callback returned,
+   * including the wait for the callback thread.
+   */
+  public long getCallbackDurationNanos() {
+    return duration(BACKGROUND_DONE, CALLBACK_DELIVERED);
+  }
+
+  /**
+   * Returns the time from execution until the task finished.
+   *
+   * @see #getFinishedNanos()
+   */
+  public long getTotalDurationNanos() {
+    return duration(ENQUEUED, FINISHED);
+  }
+
+  private long duration(final int from, final int to) {
+    if (mTimestamps[from] == NOT_REACHED || mTimestamps[to] == NOT_REACHED) {
+      return -1;
+    }
+
+    return mTimestamps[to] - mTimestamps[from];
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives the lifecycle timestamps of every AsyncTask executed while it is installed.
+ *
+ * @see AsyncTask#setTaskMetricsListener(TaskMetricsListener)
+ * @see TaskMetricsRecorder
+ * @author Niek Haarman <niek@label305.com>
+ */
+public interface TaskMetricsListener {
+
+  /**
+   * Called on the callback thread, right after {@link AsyncTask#onFinally()} has returned.
+   * For a task that ends without calling {@link AsyncTask#onFinally()}, it is called on the thread on which the task ended:
+   * the thread cancelling a task that hadn't started yet, or the worker thread of a task whose callbacks were suppressed.
+   *
+   * @param metrics The timestamps of the finished task.
+   */
+  void onTaskFinished(@NonNull TaskMetrics metrics);
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link TaskMetricsListener} that aggregates the metrics of finished tasks in memory,
+ * keeping a set of {@link LatencyHistogram}s per AsyncTask class.
+ *
+ * Usage:
+ * <pre>
+ *   TaskMetricsRecorder recorder = new TaskMetricsRecorder();
+ *   AsyncTask.setTaskMetricsListener(recorder);
+ *   ...
+ *   Log.d(TAG, "Background: " + recorder.getStats(MyTask.class).getBackgroundDuration());
+ * </pre>
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class TaskMetricsRecorder implements TaskMetricsListener {
+
+  @NonNull
+  private final ConcurrentMap<Class<?>, TaskStats> mStats = new ConcurrentHashMap<>();
+
+  @Override
+  public void onTaskFinished(@NonNull final TaskMetrics metrics) {
+    TaskStats stats = mStats.get(metrics.getTaskClass());
+    if (stats == null) {
+      TaskStats newStats = new TaskStats();
+      stats = mStats.putIfAbsent(metrics.getTaskClass(), newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+
+    stats.record(metrics);
+  }
+
+  /**
+   * Returns the statistics for given AsyncTask class, or {@code null} if no such task has finished yet.
+   */
+  @Nullable
+  public TaskStats getStats(@NonNull final Class<?> taskClass) {
+    return mStats.get(taskClass);
+  }
+
+  /**
+   * Returns the statistics of all AsyncTask classes that have finished.
+   */
+  @NonNull
+  public Map<Class<?>, TaskStats> getAllStats() {
+    return Collections.unmodifiableMap(new HashMap<>(mStats));
+  }
+
+  /**
+   * Discards all recorded statistics.
+   */
+  public void reset() {
+    mStats.clear();
+  }
+
+  /**
+   * The aggregated durations of the stages of a single AsyncTask class.
+   *
+   * @see TaskMetrics
+   */
+  public static final class TaskStats {
+
+    private final LatencyHistogram mQueueDuration = new LatencyHistogram();
+
+    private final LatencyHistogram mPreExecuteDuration = new LatencyHistogram();
+
+    private final LatencyHistogram mBackgroundDuration = new LatencyHistogram();
+
+    private final LatencyHistogram mCallbackDuration = new LatencyHistogram();
+
+    private final LatencyHistogram mTotalDuration = new LatencyHistogram();
+
+    TaskStats() {
+    }
+
+    void record(@NonNull final TaskMetrics metrics) {
+      mQueueDuration.record(metrics.getQueueDurationNanos());
+      mPreExecuteDuration.record(metrics.getPreExecuteDurationNanos());
+      mBackgroundDuration.record(metrics.getBackgroundDurationNanos());
+      mCallbackDuration.record(metrics.getCallbackDurationNanos());
+      mTotalDuration.record(metrics.getTotalDurationNanos());
+    }
+
+    /**
+     * @see TaskMetrics#getQueueDurationNanos()
+     */
+    @NonNull
+    public LatencyHistogram getQueueDuration() {
+      return mQueueDuration;
+    }
+
+    /**
+     * @see TaskMetrics#getPreExecuteDurationNanos()
+     */
+    @NonNull
+    public LatencyHistogram getPreExecuteDuration() {
+      return mPreExecuteDuration;
+    }
+
+    /**
+     * @see TaskMetrics#getBackgroundDurationNanos()
+     */
+    @NonNull
+    public LatencyHistogram getBackgroundDuration() {
+      return mBackgroundDuration;
+    }
+
+    /**
+     * @see TaskMetrics#getCallbackDurationNanos()
+     */
+    @NonNull
+    public LatencyHistogram getCallbackDuration() {
+      return mCallbackDuration;
+    }
+
+    /**
+     * @see TaskMetrics#getTotalDurationNanos()
+     */
+    @NonNull
+    public LatencyHistogram getTotalDuration() {
+      return mTotalDuration;
+    }
+
+    @Override
+    public String toString() {
+      return "TaskStats{" +
+          "queue=" + mQueueDuration +
+          ", preExecute=" + mPreExecuteDuration +
+          ", background=" + mBackgroundDuration +
+          ", callback=" + mCallbackDuration +
+          ", total=" + mTotalDuration +
+          '}';
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+/**
+ * The priority with which an AsyncTask is taken from the work queue of a {@link DefaultAsyncTaskExecutor}.
+ * Tasks with a higher priority are started first; tasks with equal priority are started in the order
+ * in which they were executed.
+ *
+ * @see AsyncTask#getPriority()
+ * @author Niek Haarman <niek@label305.com>
+ */
+public enum TaskPriority {
+
+  /**
+   * For work the user is actively waiting for.
+   */
+  IMMEDIATE,
+
+  /**
+   * The default priority.
+   */
+  NORMAL,
+
+  /**
+   * For speculative work, such as prefetching. Tasks with this priority are the first to be shed
+   * under {@link OverflowPolicy#SHED_LOWEST_PRIORITY}.
+   */
+  PREFETCH
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An AsyncTaskExecutor that tracks the tasks launched into it, so that they can be cancelled all at once,
+ * for example when an Activity is destroyed:
+ * <pre>
+ *   private final TaskScope mScope = new TaskScope();
+ *
+ *   protected void onDestroy() {
+ *     super.onDestroy();
+ *     mScope.cancel();
+ *   }
+ * </pre>
+ *
+ * Once a scope has been cancelled, none of the main thread callbacks of its tasks run anymore,
+ * including {@link AsyncTask#onCancelled()} and {@link AsyncTask#onFinally()}: callbacks that have not been posted yet
+ * are dropped without posting them, and callbacks that were already posted return immediately.
+ * Tasks launched into a cancelled scope are cancelled immediately.
+ *
+ * Tasks are tracked in a concurrent set, and remove themselves when their lifecycle finishes,
+ * so the bookkeeping per task is constant.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public final class TaskScope implements AsyncTaskExecutor {
+
+  @NonNull
+  private final AsyncTaskExecutor mDelegate;
+
+  @NonNull
+  private final Set<AsyncTask<?, ?>> mTasks = Collections.newSetFromMap(new ConcurrentHashMap<AsyncTask<?, ?>, Boolean>());
+
+  private volatile boolean mCancelled;
+
+  private volatile boolean mInterrupt;
+
+  /**
+   * Creates a new TaskScope, launching tasks on {@link AsyncTaskExecutor#DEFAULT_EXECUTOR}.
+   */
+  public TaskScope() {
+    this(DEFAULT_EXECUTOR);
+  }
+
+  /**
+   * Creates a new TaskScope.
+   *
+   * @param delegate The AsyncTaskExecutor to launch tasks on.
+   */
+  public TaskScope(@NonNull final AsyncTaskExecutor delegate) {
+    mDelegate = delegate;
+  }
+
+  @Override
+  public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+    task.setScope(this);
+    mTasks.add(task);
+
+    mDelegate.execute(task);
+
+    /* The task may have been missed by a concurrent call to cancel(), since it wasn't executed yet. */
+    if (mCancelled) {
+      task.cancelIfExecuted(mInterrupt);
+      mTasks.remove(task);
+    }
+
+    return task;
+  }
+
+  /**
+   * Cancels all tasks in this scope, and suppresses their remaining main thread callbacks.
+   * Running tasks are allowed to complete.
+   */
+  public void cancel() {
+    cancel(false);
+  }
+
+  /**
+   * Cancels all tasks in this scope, and suppresses their remaining main thread callbacks.
+   * Running tasks are interrupted.
+   */
+  public void cancelInterrupt() {
+    cancel(true);
+  }
+
+  private void cancel(final boolean mayInterruptIfRunning) {
+    mInterrupt = mayInterruptIfRunning;
+    mCancelled = true;
+
+    for (AsyncTask<?, ?> task : mTasks) {
+      task.cancelIfExecuted(mayInterruptIfRunning);
+    }
+
+    mTasks.clear();
+  }
+
+  /**
+   * Returns whether this scope has been cancelled.
+   */
+  public boolean isCancelled() {
+    return mCancelled;
+  }
+
+  /**
+   * Returns the number of tasks in this scope whose lifecycle hasn't finished yet.
+   */
+  public int size() {
+    return mTasks.size();
+  }
+
+  void remove(@NonNull final AsyncTask<?, ?> task) {
+    mTasks.remove(task);
+  }
+}
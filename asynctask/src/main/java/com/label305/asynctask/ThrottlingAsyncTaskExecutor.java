@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An AsyncTaskExecutor that starts at most one task of the same class and key per interval.
+ *
+ * A task that is executed within the interval of the previous one is held back until the interval has passed.
+ * If a newer task is executed in the meantime, it replaces the held back task, so that the newest task always runs.
+ *
+ * Tasks without a key are throttled per class. Superseded tasks are cancelled before they start,
+ * so none of their callbacks are called, not even {@link AsyncTask#onPreExecute()}.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class ThrottlingAsyncTaskExecutor extends SupersedingAsyncTaskExecutor {
+
+  private final long mIntervalNanos;
+
+  /**
+   * Creates a ThrottlingAsyncTaskExecutor on the IO thread pool of the default executors, which performs callbacks on the main thread.
+   */
+  public ThrottlingAsyncTaskExecutor(final long interval, @NonNull final TimeUnit unit) {
+    this(DefaultAsyncTaskExecutor.ioThreadPool(), new HandlerCallbackDispatcher(new Handler(Looper.getMainLooper())), interval, unit);
+  }
+
+  /**
+   * @param executor The Executor to perform background operations on.
+   * @param dispatcher The CallbackDispatcher to perform callbacks on.
+   */
+  public ThrottlingAsyncTaskExecutor(@NonNull final Executor executor,
+                                     @NonNull final CallbackDispatcher dispatcher,
+                                     final long interval,
+                                     @NonNull final TimeUnit unit) {
+    this(executor, dispatcher, SharedScheduler.instance(), unit.toNanos(interval));
+  }
+
+  ThrottlingAsyncTaskExecutor(@NonNull final Executor executor,
+                              @NonNull final CallbackDispatcher dispatcher,
+                              @NonNull final Scheduler scheduler,
+                              final long intervalNanos) {
+    super(executor, dispatcher, scheduler);
+
+    if (intervalNanos <= 0) {
+      throw new IllegalArgumentException("interval must be positive: " + intervalNanos);
+    }
+
+    mIntervalNanos = intervalNanos;
+  }
+
+  @Override
+  long delayNanos(@Nullable final Long lastReleaseNanos, final long nowNanos) {
+    if (lastReleaseNanos == null) {
+      return 0;
+    }
+
+    return lastReleaseNanos + mIntervalNanos - nowNanos;
+  }
+
+  @Override
+  long retentionNanos() {
+    return mIntervalNanos;
+  }
+}
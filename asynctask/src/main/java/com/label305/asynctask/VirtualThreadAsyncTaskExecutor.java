@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An AsyncTaskExecutor which runs every AsyncTask on its own virtual thread.
+ *
+ * Virtual threads are only available on Java 21 and later, so this executor is meant for
+ * JVM hosts, such as tooling and tests, and not for Android. Since a blocked virtual thread
+ * does not hold an OS thread, blocking {@link AsyncTask#doInBackground()} implementations
+ * can scale to many thousands of concurrent tasks.
+ *
+ * Every task gets a thread immediately, so {@link AsyncTask#getPriority()} and
+ * {@link AsyncTask#getExecutionLane()} are ignored.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public class VirtualThreadAsyncTaskExecutor implements AsyncTaskExecutor {
+
+  @NonNull
+  private final ExecutorService mExecutor;
+
+  @NonNull
+  private final CallbackDispatcher mDispatcher;
+
+  private final boolean mNonBlocking;
+
+  /**
+   * @param dispatcher The CallbackDispatcher to perform callbacks on, for example an {@link ExecutorCallbackDispatcher}.
+   *
+   * @throws UnsupportedOperationException if virtual threads are not supported.
+   */
+  public VirtualThreadAsyncTaskExecutor(@NonNull final CallbackDispatcher dispatcher) {
+    this(dispatcher, false);
+  }
+
+  /**
+   * @param dispatcher The CallbackDispatcher to perform callbacks on, for example an {@link ExecutorCallbackDispatcher}.
+   * @param nonBlocking Whether tasks should be executed using {@link AsyncTask#executeNonBlocking(Executor, CallbackDispatcher)}.
+   *
+   * @throws UnsupportedOperationException if virtual threads are not supported.
+   */
+  public VirtualThreadAsyncTaskExecutor(@NonNull final CallbackDispatcher dispatcher, final boolean nonBlocking) {
+    mExecutor = newVirtualThreadPerTaskExecutor();
+    mDispatcher = dispatcher;
+    mNonBlocking = nonBlocking;
+  }
+
+  /**
+   * Returns whether the current runtime supports virtual threads.
+   */
+  public static boolean isSupported() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException ignored) {
+      return false;
+    }
+  }
+
+  @Override
+  public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+    if (mNonBlocking) {
+      return (A) task.executeNonBlocking(mExecutor, mDispatcher);
+    }
+
+    return (A) task.execute(mExecutor, mDispatcher);
+  }
+
+  /**
+   * Stops accepting tasks: tasks that were already executed still complete,
+   * but executing new tasks throws a {@link java.util.concurrent.RejectedExecutionException}.
+   */
+  public void shutdown() {
+    mExecutor.shutdown();
+  }
+
+  @NonNull
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+    } catch (IllegalAccessException e) {
+      throw new UnsupportedOperationException("Virtual threads are not accessible", e);
+    } catch (InvocationTargetException e) {
+      throw new UnsupportedOperationException("Could not create a virtual thread executor", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.lang.ref.WeakReference;
+
+/**
+ * An AsyncTask which holds the target of its callbacks, typically an Activity or a listener, through a WeakReference.
+ *
+ * A long running {@link #doInBackground()} then doesn't keep the target alive. Once the target has been garbage collected,
+ * the main thread stages of this task are skipped without posting anything to the main thread,
+ * and a task that hasn't started yet is cancelled.
+ *
+ * The callbacks of this class receive the target as a parameter. Do not store it in a field of the task,
+ * since that would defeat the purpose of this class:
+ * <pre>
+ *   private static class RetrieveUserTask extends WeakTargetAsyncTask&lt;UserCallback, User, IOException&gt; {
+ *
+ *     RetrieveUserTask(UserCallback callback) {
+ *       super(callback);
+ *     }
+ *
+ *     protected User doInBackground() throws IOException { ... }
+ *
+ *     protected void onSuccess(UserCallback callback, User user) {
+ *       callback.onUserRetrieved(user);
+ *     }
+ *
+ *     protected void onException(UserCallback callback, IOException e) {
+ *       callback.onException(e);
+ *     }
+ *   }
+ * </pre>
+ * Note that an anonymous or non-static inner task class holds a strong reference to its enclosing instance.
+ *
+ * @param <W> the type of the target.
+ * @param <T> the type of the result.
+ * @param <E> the type of the Exception {@link #doInBackground()} may throw.
+ *
+ * @author Niek Haarman <niek@label305.com>
+ */
+public abstract class WeakTargetAsyncTask<W, T, E extends Exception> extends AsyncTask<T, E> {
+
+  @NonNull
+  private final WeakReference<W> mTarget;
+
+  protected WeakTargetAsyncTask(@NonNull final W target) {
+    mTarget = new WeakReference<>(target);
+  }
+
+  /**
+   * Returns the target of the callbacks of this task, or {@code null} if it has been garbage collected.
+   */
+  @Nullable
+  protected final W getTarget() {
+    return mTarget.get();
+  }
+
+  @Override
+  boolean isCallbackTargetCollected() {
+    return mTarget.get() == null;
+  }
+
+  @Override
+  protected final void onPreExecute() {
+    W target = mTarget.get();
+    if (target != null) {
+      onPreExecute(target);
+    }
+  }
+
+  @Override
+  protected final void onSuccess(final T t) {
+    W target = mTarget.get();
+    if (target != null) {
+      onSuccess(target, t);
+    }
+  }
+
+  @Override
+  protected final void onCancelled() {
+    W target = mTarget.get();
+    if (target != null) {
+      onCancelled(target);
+    }
+  }
+
+  @Override
+  protected final void onException(@NonNull final E e) {
+    W target = mTarget.get();
+    if (target != null) {
+      onException(target, e);
+    }
+  }
+
+  @Override
+  protected final void onFinally() {
+    W target = mTarget.get();
+    if (target != null) {
+      onFinally(target);
+    }
+  }
+
+  /**
+   * Called before the asynchronous {@link #doInBackground()} method, on the main thread.
+   *
+   * @see AsyncTask#onPreExecute()
+   */
+  @MainThread
+  protected void onPreExecute(@NonNull final W target) {
+  }
+
+  /**
+   * Called when {@link #doInBackground()} has finished successfully, on the main thread.
+   *
+   * @see AsyncTask#onSuccess(Object)
+   */
+  @MainThread
+  protected void onSuccess(@NonNull final W target, final T t) {
+  }
+
+  /**
+   * Called when the task has been cancelled, on the main thread.
+   *
+   * @see AsyncTask#onCancelled()
+   */
+  @MainThread
+  protected void onCancelled(@NonNull final W target) {
+  }
+
+  /**
+   * Called when {@link #doInBackground()} threw an Exception, on the main thread.
+   *
+   * @see AsyncTask#onException(Exception)
+   */
+  @MainThread
+  protected abstract void onException(@NonNull final W target, @NonNull final E e);
+
+  /**
+   * Guaranteed to be called after all other methods while the target is alive, on the main thread.
+   *
+   * @see AsyncTask#onFinally()
+   */
+  @MainThread
+  protected void onFinally(@NonNull final W target) {
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class AsyncTaskGetTest {
+
+  private final QueueCallbackDispatcher mDispatcher = new QueueCallbackDispatcher();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  @Test
+  public void get_returnsBeforeMainThreadCallbacks() throws Exception {
+    /* Given */
+    ResultTask task = new ResultTask("result", null);
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    mDispatcher.drain();
+
+    /* When */
+    mWorkerQueue.poll().run();
+
+    /* Then */
+    assertThat(task.get(), is("result"));
+    assertThat(task.mSuccessCalled, is(false));
+    assertThat(mDispatcher.isEmpty(), is(false));
+  }
+
+  @Test
+  public void get_inBlockingMode_doesNotWaitForOnSuccess() throws Exception {
+    /* Given */
+    ExecutorService worker = Executors.newSingleThreadExecutor();
+    ExecutorService callbackThread = Executors.newSingleThreadExecutor();
+    final CountDownLatch releaseOnSuccess = new CountDownLatch(1);
+    ResultTask task = new ResultTask("result", null) {
+      @Override
+      protected void onSuccess(final String result) {
+        try {
+          releaseOnSuccess.await();
+        } catch (InterruptedException ignored) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+
+    try {
+      /* When */
+      task.execute(worker, new ExecutorCallbackDispatcher(callbackThread));
+
+      /* Then */
+      assertThat(task.get(5, TimeUnit.SECONDS), is("result"));
+    } finally {
+      releaseOnSuccess.countDown();
+      worker.shutdown();
+      callbackThread.shutdown();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void get_throwsExceptionOfDoInBackground() throws Exception {
+    /* Given */
+    ResultTask task = new ResultTask(null, new IOException());
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+
+    /* When */
+    task.get();
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void getWithTimeout_throwsTimeoutExceptionWhenNotCompleted() throws Exception {
+    /* Given */
+    ResultTask task = new ResultTask("result", null);
+    task.executeNonBlocking(mExecutor, mDispatcher);
+
+    /* When */
+    task.get(10, TimeUnit.MILLISECONDS);
+  }
+
+  @Test(expected = CancellationException.class)
+  public void get_throwsCancellationExceptionWhenCancelled() throws Exception {
+    /* Given */
+    ResultTask task = new ResultTask("result", null);
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    mDispatcher.drain();
+
+    /* When */
+    task.cancel();
+
+    /* Then */
+    task.get();
+  }
+
+  @Test
+  public void resultListener_isNotifiedWhenDoInBackgroundReturns() {
+    /* Given */
+    ResultTask task = new ResultTask("result", null);
+    RecordingListener listener = new RecordingListener();
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    task.addResultListener(listener);
+    mDispatcher.drain();
+
+    /* When */
+    mWorkerQueue.poll().run();
+
+    /* Then */
+    assertThat(listener.mEvents.toString(), is("[onResult result]"));
+    assertThat(task.mSuccessCalled, is(false));
+  }
+
+  @Test
+  public void resultListener_addedAfterCompletion_isNotifiedImmediately() {
+    /* Given */
+    ResultTask task = new ResultTask(null, new IOException("failed"));
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+    RecordingListener listener = new RecordingListener();
+
+    /* When */
+    task.addResultListener(listener);
+
+    /* Then */
+    assertThat(listener.mEvents.toString(), is("[onFailure failed]"));
+  }
+
+  @Test
+  public void get_afterReExecution_returnsResultOfLatestExecution() throws Exception {
+    /* Given */
+    CountingTask task = new CountingTask();
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+
+    /* Then */
+    assertThat(task.get(), is("run 2"));
+  }
+
+  @Test
+  public void resultListener_addedAfterReExecution_waitsForLatestExecution() {
+    /* Given */
+    CountingTask task = new CountingTask();
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    RecordingListener listener = new RecordingListener();
+
+    /* When */
+    task.addResultListener(listener);
+
+    /* Then */
+    assertThat(listener.mEvents.isEmpty(), is(true));
+    drain();
+    assertThat(listener.mEvents.toString(), is("[onResult run 2]"));
+  }
+
+  @Test
+  public void isTimedOut_afterReExecution_isReset() throws Exception {
+    /* Given */
+    CountingTask task = new CountingTask();
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    task.expire();
+    drain();
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+
+    /* Then */
+    assertThat(task.isTimedOut(), is(false));
+    assertThat(task.get(), is("run 1"));
+  }
+
+  private void drain() {
+    while (!mDispatcher.isEmpty() || !mWorkerQueue.isEmpty()) {
+      if (!mDispatcher.runNext()) {
+        mWorkerQueue.poll().run();
+      }
+    }
+  }
+
+  private static class RecordingListener implements ResultListener<String> {
+
+    final List<String> mEvents = new ArrayList<>();
+
+    @Override
+    public void onResult(@Nullable final String result) {
+      mEvents.add("onResult " + result);
+    }
+
+    @Override
+    public void onFailure(@NonNull final Exception e) {
+      mEvents.add("onFailure " + e.getMessage());
+    }
+  }
+
+  private static class ResultTask extends AsyncTask<String, IOException> {
+
+    private final String mResult;
+
+    private final IOException mException;
+
+    volatile boolean mSuccessCalled;
+
+    ResultTask(@Nullable final String result, @Nullable final IOException exception) {
+      mResult = result;
+      mException = exception;
+    }
+
+    @Override
+    protected String doInBackground() throws IOException {
+      if (mException != null) {
+        throw mException;
+      }
+      return mResult;
+    }
+
+    @Override
+    protected void onSuccess(final String result) {
+      mSuccessCalled = true;
+    }
+
+    @Override
+    protected void onException(@NonNull final IOException e) {
+    }
+  }
+
+  private static class CountingTask extends AsyncTask<String, RuntimeException> {
+
+    private int mRunCount;
+
+    @Override
+    protected String doInBackground() {
+      mRunCount++;
+      return "run " + mRunCount;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+}
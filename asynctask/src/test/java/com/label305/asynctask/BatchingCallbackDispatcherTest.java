@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.os.Handler;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BatchingCallbackDispatcherTest {
+
+  private final Queue<Runnable> mMessages = new ArrayDeque<>();
+
+  private final List<Integer> mExecuted = new ArrayList<>();
+
+  private Handler mHandler;
+
+  @Before
+  public void setUp() {
+    mHandler = mock(Handler.class);
+    when(mHandler.post(any(Runnable.class))).then(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+        mMessages.add((Runnable) invocation.getArguments()[0]);
+        return true;
+      }
+    });
+  }
+
+  @Test
+  public void manyCallbacks_areDrainedInSingleMessage() {
+    /* Given */
+    BatchingCallbackDispatcher dispatcher = new BatchingCallbackDispatcher(mHandler, 1, TimeUnit.SECONDS);
+
+    /* When */
+    for (int i = 0; i < 200; i++) {
+      dispatcher.dispatch(new RecordingCallback(i));
+    }
+
+    /* Then */
+    assertThat(mMessages.size(), is(1));
+
+    mMessages.poll().run();
+    assertThat(mExecuted.size(), is(200));
+    assertThat(mMessages.size(), is(0));
+  }
+
+  @Test
+  public void exhaustedBudget_yieldsToNewMessage() {
+    /* Given */
+    BatchingCallbackDispatcher dispatcher = new BatchingCallbackDispatcher(mHandler, 1, TimeUnit.NANOSECONDS);
+    dispatcher.dispatch(new RecordingCallback(0));
+    dispatcher.dispatch(new RecordingCallback(1));
+
+    /* When */
+    mMessages.poll().run();
+
+    /* Then */
+    assertThat(mExecuted.size(), is(1));
+    assertThat(mMessages.size(), is(1));
+
+    mMessages.poll().run();
+    assertThat(mExecuted.get(1), is(1));
+    assertThat(mMessages.size(), is(0));
+  }
+
+  @Test
+  public void callbackDispatchedDuringDrain_isRunInOrder() {
+    /* Given */
+    final BatchingCallbackDispatcher dispatcher = new BatchingCallbackDispatcher(mHandler, 1, TimeUnit.SECONDS);
+    dispatcher.dispatch(new Runnable() {
+      @Override
+      public void run() {
+        mExecuted.add(0);
+        dispatcher.dispatch(new RecordingCallback(2));
+      }
+    });
+    dispatcher.dispatch(new RecordingCallback(1));
+
+    /* When */
+    mMessages.poll().run();
+
+    /* Then */
+    assertThat(mExecuted.size(), is(3));
+    assertThat(mExecuted.get(1), is(1));
+    assertThat(mExecuted.get(2), is(2));
+    assertThat(mMessages.size(), is(0));
+  }
+
+  private class RecordingCallback implements Runnable {
+
+    private final int mId;
+
+    RecordingCallback(final int id) {
+      mId = id;
+    }
+
+    @Override
+    public void run() {
+      mExecuted.add(mId);
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+@SuppressWarnings({ "rawtypes", "HardCodedStringLiteral", "unchecked" })
+public class CachingAsyncTaskExecutorTest {
+
+  private static final long TIME_TO_LIVE = 100;
+
+  private static final long STALE_WHILE_REVALIDATE = 50;
+
+  private final QueueCallbackDispatcher mDispatcher = new QueueCallbackDispatcher();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mWorkerExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  private final AsyncTaskExecutor mDelegate = new AsyncTaskExecutor() {
+    @Override
+    public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+      return task.executeNonBlocking(mWorkerExecutor, mDispatcher);
+    }
+  };
+
+  private long mNow;
+
+  private final List<KeyedTask> mCreatedTasks = new ArrayList<>();
+
+  private final CachingAsyncTaskExecutor.TaskFactory mFactory = new CachingAsyncTaskExecutor.TaskFactory() {
+    @Override
+    public AsyncTask<?, ?> create(@NonNull final Class<?> taskClass, @NonNull final Object key) {
+      KeyedTask task = new KeyedTask((String) key);
+      mCreatedTasks.add(task);
+      return task;
+    }
+  };
+
+  private final CachingAsyncTaskExecutor mExecutor = new CachingAsyncTaskExecutor(mDelegate, mDispatcher, 2, TIME_TO_LIVE, STALE_WHILE_REVALIDATE, mFactory) {
+    @Override
+    long nanoTime() {
+      return mNow;
+    }
+  };
+
+  private final AtomicInteger mRunCount = new AtomicInteger();
+
+  @Test
+  public void freshResult_isDeliveredWithoutWorkerHop() throws Exception {
+    /* Given */
+    mExecutor.execute(new KeyedTask("a"));
+    drain();
+
+    /* When */
+    KeyedTask task = new KeyedTask("a");
+    mExecutor.execute(task);
+    drainCallbacks();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(1));
+    assertThat(mWorkerQueue.isEmpty(), is(true));
+
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onSuccess a1, onFinally]"));
+
+    assertThat(mExecutor.getHitCount(), is(1L));
+    assertThat(mExecutor.getMissCount(), is(1L));
+  }
+
+  @Test
+  public void expiredResult_isRecomputed() throws Exception {
+    /* Given */
+    mExecutor.execute(new KeyedTask("a"));
+    drain();
+    mNow += TIME_TO_LIVE + STALE_WHILE_REVALIDATE;
+
+    /* When */
+    KeyedTask task = new KeyedTask("a");
+    mExecutor.execute(task);
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(2));
+    assertThat(task.mEvents.contains("onSuccess a2"), is(true));
+    assertThat(mExecutor.getMissCount(), is(2L));
+  }
+
+  @Test
+  public void staleResult_isDeliveredWhileRevalidating() throws Exception {
+    /* Given */
+    mExecutor.execute(new KeyedTask("a"));
+    drain();
+    mNow += TIME_TO_LIVE;
+
+    /* When */
+    KeyedTask first = new KeyedTask("a");
+    KeyedTask second = new KeyedTask("a");
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+    drain();
+
+    /* Then */
+    assertThat(first.mEvents.contains("onSuccess a1"), is(true));
+    assertThat(second.mEvents.contains("onSuccess a1"), is(true));
+    assertThat(mRunCount.get(), is(2));
+    assertThat(mExecutor.getStaleHitCount(), is(2L));
+
+    KeyedTask third = new KeyedTask("a");
+    mExecutor.execute(third);
+    drain();
+    assertThat(third.mEvents.contains("onSuccess a2"), is(true));
+  }
+
+  @Test
+  public void staleResult_isRevalidatedThroughFactoryTask() throws Exception {
+    /* Given */
+    mExecutor.execute(new KeyedTask("a"));
+    drain();
+    mNow += TIME_TO_LIVE;
+
+    /* When */
+    KeyedTask task = new KeyedTask("a");
+    mExecutor.execute(task);
+    drain();
+
+    /* Then */
+    assertThat(task.mEvents.contains("doInBackground"), is(false));
+    assertThat(mCreatedTasks.size(), is(1));
+    assertThat(mCreatedTasks.get(0).mEvents, is(Collections.singletonList("doInBackground")));
+
+    KeyedTask next = new KeyedTask("a");
+    mExecutor.execute(next);
+    drain();
+    assertThat(next.mEvents.contains("onSuccess a2"), is(true));
+  }
+
+  @Test
+  public void concurrentMisses_shareSingleRun() throws Exception {
+    /* Given */
+    KeyedTask first = new KeyedTask("a");
+    KeyedTask second = new KeyedTask("a");
+
+    /* When */
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(1));
+    assertThat(first.mEvents.contains("onSuccess a1"), is(true));
+    assertThat(second.mEvents.contains("onSuccess a1"), is(true));
+    assertThat(mExecutor.getMissCount(), is(2L));
+    assertThat(mExecutor.size(), is(1));
+  }
+
+  @Test
+  public void executedTask_getsItsBackgroundSourceBack() throws Exception {
+    /* Given */
+    KeyedTask missed = new KeyedTask("a");
+    mExecutor.execute(missed);
+    drain();
+
+    /* When */
+    KeyedTask hit = new KeyedTask("a");
+    mExecutor.execute(hit);
+    drain();
+
+    /* Then */
+    assertThat(missed.getBackgroundSource(), is(nullValue()));
+    assertThat(hit.getBackgroundSource(), is(nullValue()));
+  }
+
+  @Test
+  public void exception_isNotCached() throws Exception {
+    /* Given */
+    mExecutor.execute(new FailingTask());
+    drain();
+
+    /* When */
+    mExecutor.execute(new FailingTask());
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(2));
+    assertThat(mExecutor.size(), is(0));
+  }
+
+  @Test
+  public void leastRecentlyUsedResult_isEvicted() throws Exception {
+    /* Given */
+    mExecutor.execute(new KeyedTask("a"));
+    mExecutor.execute(new KeyedTask("b"));
+    drain();
+    mExecutor.execute(new KeyedTask("a"));
+    drain();
+
+    /* When */
+    mExecutor.execute(new KeyedTask("c"));
+    drain();
+
+    /* Then */
+    assertThat(mExecutor.size(), is(2));
+    mExecutor.execute(new KeyedTask("a"));
+    drain();
+    assertThat(mRunCount.get(), is(3));
+
+    mExecutor.execute(new KeyedTask("b"));
+    drain();
+    assertThat(mRunCount.get(), is(4));
+  }
+
+  @Test
+  public void invalidate_removesResult() throws Exception {
+    /* Given */
+    mExecutor.execute(new KeyedTask("a"));
+    drain();
+
+    /* When */
+    mExecutor.invalidate(KeyedTask.class, "a");
+    mExecutor.execute(new KeyedTask("a"));
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(2));
+  }
+
+  private void drainCallbacks() {
+    while (mDispatcher.runNext()) {
+      // Keep going
+    }
+  }
+
+  private void drain() {
+    while (!mDispatcher.isEmpty() || !mWorkerQueue.isEmpty()) {
+      if (!mDispatcher.runNext()) {
+        mWorkerQueue.poll().run();
+      }
+    }
+  }
+
+  private class KeyedTask extends AsyncTask<String, Exception> {
+
+    private final String mKey;
+
+    private final List<String> mEvents = new ArrayList<>();
+
+    KeyedTask(final String key) {
+      mKey = key;
+    }
+
+    @Override
+    public Object getKey() {
+      return mKey;
+    }
+
+    @Override
+    protected String doInBackground() throws Exception {
+      mEvents.add("doInBackground");
+      return mKey + mRunCount.incrementAndGet();
+    }
+
+    @Override
+    protected void onPreExecute() {
+      mEvents.add("onPreExecute");
+    }
+
+    @Override
+    protected void onSuccess(final String s) {
+      mEvents.add("onSuccess " + s);
+    }
+
+    @Override
+    protected void onException(@NonNull final Exception e) {
+      mEvents.add("onException");
+    }
+
+    @Override
+    protected void onFinally() {
+      mEvents.add("onFinally");
+    }
+  }
+
+  private class FailingTask extends KeyedTask {
+
+    FailingTask() {
+      super("failing");
+    }
+
+    @Override
+    protected String doInBackground() throws Exception {
+      mRunCount.incrementAndGet();
+      throw new Exception();
+    }
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+@SuppressWarnings({ "rawtypes", "HardCodedStringLiteral", "unchecked" })
+public class CoalescingAsyncTaskExecutorTest {
+
+  private final QueueCallbackDispatcher mDispatcher = new QueueCallbackDispatcher();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mWorkerExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  private final AsyncTaskExecutor mDelegate = new AsyncTaskExecutor() {
+    @Override
+    public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+      return task.executeNonBlocking(mWorkerExecutor, mDispatcher);
+    }
+  };
+
+  private final CoalescingAsyncTaskExecutor mExecutor = new CoalescingAsyncTaskExecutor(mDelegate, mDispatcher);
+
+  private final AtomicInteger mRunCount = new AtomicInteger();
+
+  @Test
+  public void identicalTasks_shareSingleRun() throws Exception {
+    /* Given */
+    KeyedTask first = spy(new KeyedTask("user"));
+    KeyedTask second = spy(new KeyedTask("user"));
+
+    /* When */
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(1));
+    verify(first).onSuccess("user");
+    verify(second).onSuccess("user");
+    verify(first).onFinally();
+    verify(second).onFinally();
+    assertThat(mExecutor.getRunCount(), is(0));
+  }
+
+  @Test
+  public void differentKeys_runSeparately() throws Exception {
+    /* Given */
+    KeyedTask first = spy(new KeyedTask("a"));
+    KeyedTask second = spy(new KeyedTask("b"));
+
+    /* When */
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(2));
+    verify(first).onSuccess("a");
+    verify(second).onSuccess("b");
+  }
+
+  @Test
+  public void taskWithoutKey_isPassedToDelegate() throws Exception {
+    /* Given */
+    KeyedTask first = spy(new KeyedTask(null));
+    KeyedTask second = spy(new KeyedTask(null));
+
+    /* When */
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(2));
+    assertThat(mExecutor.getRunCount(), is(0));
+  }
+
+  @Test
+  public void exception_fansOutToAllWaiters() throws Exception {
+    /* Given */
+    final Exception ex = new Exception();
+    KeyedTask first = spy(new FailingTask(ex));
+    KeyedTask second = spy(new FailingTask(ex));
+
+    /* When */
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(1));
+    verify(first).onException(ex);
+    verify(second).onException(ex);
+    verify(first, never()).onSuccess(anyString());
+    verify(second, never()).onSuccess(anyString());
+  }
+
+  @Test
+  public void cancellingOneWaiter_keepsSharedRun() throws Exception {
+    /* Given */
+    KeyedTask first = spy(new KeyedTask("user"));
+    KeyedTask second = spy(new KeyedTask("user"));
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+
+    /* When */
+    first.cancel();
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(1));
+
+    InOrder inOrder = inOrder(first);
+    inOrder.verify(first).onCancelled();
+    inOrder.verify(first).onFinally();
+    verify(first, never()).onSuccess(anyString());
+
+    verify(second).onSuccess("user");
+  }
+
+  @Test
+  public void cancellingAllWaiters_cancelsSharedRun() throws Exception {
+    /* Given */
+    KeyedTask first = spy(new KeyedTask("user"));
+    KeyedTask second = spy(new KeyedTask("user"));
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+
+    /* When */
+    first.cancel();
+    second.cancel();
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(0));
+    verify(first).onCancelled();
+    verify(second).onCancelled();
+    assertThat(mExecutor.getRunCount(), is(0));
+  }
+
+  @Test
+  public void taskAfterCompletion_startsNewRun() throws Exception {
+    /* Given */
+    mExecutor.execute(new KeyedTask("user"));
+    drain();
+
+    /* When */
+    KeyedTask task = spy(new KeyedTask("user"));
+    mExecutor.execute(task);
+    drain();
+
+    /* Then */
+    assertThat(mRunCount.get(), is(2));
+    verify(task).onSuccess("user");
+  }
+
+  @Test
+  public void sharedRun_doesNotDispatchItsOwnCallbacks() throws Exception {
+    /* Given */
+    mExecutor.execute(new KeyedTask("user"));
+
+    /* When */
+    int dispatched = 0;
+    while (!mDispatcher.isEmpty() || !mWorkerQueue.isEmpty()) {
+      if (mDispatcher.runNext()) {
+        dispatched++;
+      } else {
+        mWorkerQueue.poll().run();
+      }
+    }
+
+    /* Then */
+    assertThat(mRunCount.get(), is(1));
+    assertThat(dispatched, is(2));
+  }
+
+  @Test
+  public void discardedSharedRun_cancelsWaitersAndLeavesNoRun() throws Exception {
+    /* Given */
+    CoalescingAsyncTaskExecutor executor = new CoalescingAsyncTaskExecutor(
+        new AsyncTaskExecutor() {
+          @Override
+          public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+            return task.execute(
+                new Executor() {
+                  @Override
+                  public void execute(@NonNull final Runnable command) {
+                    ((AsyncTaskFuture) command).discard();
+                  }
+                },
+                mDispatcher
+            );
+          }
+        },
+        mDispatcher
+    );
+    KeyedTask first = spy(new KeyedTask("user"));
+
+    /* When */
+    executor.execute(first);
+    KeyedTask second = spy(new KeyedTask("user"));
+    executor.execute(second);
+    drain();
+
+    /* Then */
+    assertThat(first.isCancelled(), is(true));
+    assertThat(second.isCancelled(), is(true));
+    verify(first).onCancelled();
+    verify(first).onFinally();
+    verify(second).onCancelled();
+    verify(second).onFinally();
+    assertThat(mRunCount.get(), is(0));
+    assertThat(executor.getRunCount(), is(0));
+  }
+
+  @Test
+  public void rejectedSharedRun_cancelsWaiter() throws Exception {
+    /* Given */
+    final RejectedExecutionException rejected = new RejectedExecutionException();
+    CoalescingAsyncTaskExecutor executor = new CoalescingAsyncTaskExecutor(
+        new AsyncTaskExecutor() {
+          @Override
+          public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+            throw rejected;
+          }
+        },
+        mDispatcher
+    );
+    KeyedTask task = spy(new KeyedTask("user"));
+
+    /* When */
+    executor.execute(task);
+    drain();
+
+    /* Then */
+    assertThat(task.isCancelled(), is(true));
+    verify(task).onCancelled();
+    verify(task).onFinally();
+    assertThat(executor.getRunCount(), is(0));
+  }
+
+  @Test
+  public void sharedRun_startsAfterOnPreExecuteOfFirstTask() throws Exception {
+    /* Given */
+    KeyedTask first = spy(new KeyedTask("user"));
+
+    /* When */
+    mExecutor.execute(first);
+
+    /* Then */
+    assertThat(mWorkerQueue.isEmpty(), is(true));
+
+    drain();
+    InOrder inOrder = inOrder(first);
+    inOrder.verify(first).onPreExecute();
+    inOrder.verify(first).doInBackground();
+    inOrder.verify(first).onSuccess("user");
+  }
+
+  private void drain() {
+    while (!mDispatcher.isEmpty() || !mWorkerQueue.isEmpty()) {
+      if (!mDispatcher.runNext()) {
+        mWorkerQueue.poll().run();
+      }
+    }
+  }
+
+  private class KeyedTask extends AsyncTask<String, Exception> {
+
+    private final String mKey;
+
+    KeyedTask(final String key) {
+      mKey = key;
+    }
+
+    @Override
+    public Object getKey() {
+      return mKey;
+    }
+
+    @Override
+    protected String doInBackground() throws Exception {
+      mRunCount.incrementAndGet();
+      return mKey;
+    }
+
+    @Override
+    protected void onException(@NonNull final Exception e) {
+    }
+  }
+
+  private class FailingTask extends KeyedTask {
+
+    private final Exception mException;
+
+    FailingTask(final Exception exception) {
+      super("failing");
+      mException = exception;
+    }
+
+    @Override
+    protected String doInBackground() throws Exception {
+      mRunCount.incrementAndGet();
+      throw mException;
+    }
+  }
+}
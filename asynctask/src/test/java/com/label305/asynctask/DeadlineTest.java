@@ -0,0 +1,301 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class DeadlineTest {
+
+  private final ExecutorService mWorkers = Executors.newCachedThreadPool();
+
+  private final ExecutorService mCallbackThread = Executors.newSingleThreadExecutor();
+
+  private final CallbackDispatcher mDispatcher = new ExecutorCallbackDispatcher(mCallbackThread);
+
+  @After
+  public void tearDown() {
+    mWorkers.shutdownNow();
+    mCallbackThread.shutdownNow();
+  }
+
+  @Test
+  public void blocking_expiredDeadline_callsOnTimeout() throws InterruptedException {
+    /* Given */
+    RecordingTask task = new RecordingTask(50, 10000);
+
+    /* When */
+    task.execute(mWorkers, mDispatcher);
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onTimeout, onFinally]"));
+    assertThat(task.isTimedOut(), is(true));
+    assertThat(task.isCancelled(), is(true));
+  }
+
+  @Test
+  public void nonBlocking_expiredDeadline_callsOnTimeout() throws InterruptedException {
+    /* Given */
+    RecordingTask task = new RecordingTask(50, 10000);
+
+    /* When */
+    task.executeNonBlocking(mWorkers, mDispatcher);
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onTimeout, onFinally]"));
+  }
+
+  @Test
+  public void taskWithinDeadline_succeeds() throws InterruptedException {
+    /* Given */
+    RecordingTask task = new RecordingTask(5000, 0);
+
+    /* When */
+    task.execute(mWorkers, mDispatcher);
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onSuccess, onFinally]"));
+    assertThat(task.isTimedOut(), is(false));
+  }
+
+  @Test
+  public void executorDefaultTimeout_appliesToTasksWithoutTimeout() throws InterruptedException {
+    /* Given */
+    AsyncTaskExecutor executor = new DefaultAsyncTaskExecutor.Builder()
+        .setCallbackDispatcher(mDispatcher)
+        .setTimeout(50, TimeUnit.MILLISECONDS)
+        .build();
+    RecordingTask task = new RecordingTask(0, 10000);
+
+    /* When */
+    executor.execute(task);
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onTimeout, onFinally]"));
+  }
+
+  @Test
+  public void sharedScheduler_runsActionsInOrderAndSkipsCancelledOnes() throws InterruptedException {
+    /* Given */
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch latch = new CountDownLatch(2);
+    SharedScheduler scheduler = SharedScheduler.instance();
+
+    /* When */
+    scheduler.schedule(new Recorder(order, 2, latch), TimeUnit.MILLISECONDS.toNanos(60));
+    scheduler.schedule(new Recorder(order, 1, latch), TimeUnit.MILLISECONDS.toNanos(20));
+    scheduler.schedule(new Recorder(order, 3, latch), TimeUnit.MILLISECONDS.toNanos(40)).cancel(false);
+
+    /* Then */
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    Thread.sleep(50);
+    assertThat(order.toString(), is("[1, 2]"));
+  }
+
+  @Test
+  public void sharedScheduler_actionsExpiringInSameTick_runInScheduleOrder() throws InterruptedException {
+    /* Given */
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch latch = new CountDownLatch(10);
+    SharedScheduler scheduler = SharedScheduler.instance();
+
+    /* When */
+    for (int i = 0; i < 10; i++) {
+      scheduler.schedule(new Recorder(order, i, latch), TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    /* Then */
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(order.toString(), is("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9]"));
+  }
+
+  @Test
+  public void sharedScheduler_removesCancelledActionsBeforeTheirBucketComesAround() throws InterruptedException {
+    /* Given */
+    SharedScheduler scheduler = new SharedScheduler();
+    Future<?> timeout = scheduler.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+          }
+        },
+        TimeUnit.MINUTES.toNanos(1)
+    );
+    /* Let the timeout move from the pending queue into its bucket. */
+    Thread.sleep(50);
+
+    /* When */
+    timeout.cancel(false);
+
+    /* Then */
+    for (int i = 0; i < 100 && scheduler.getScheduledCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(scheduler.getScheduledCount(), is(0));
+  }
+
+  @Test
+  public void sharedScheduler_holdsFailureInFutureAndKeepsRunning() throws Exception {
+    /* Given */
+    final RuntimeException failure = new RuntimeException("Expected");
+    final AtomicReference<Throwable> reported = new AtomicReference<>();
+    final CountDownLatch latch = new CountDownLatch(1);
+    Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+    Thread.setDefaultUncaughtExceptionHandler(
+        new Thread.UncaughtExceptionHandler() {
+          @Override
+          public void uncaughtException(final Thread thread, final Throwable e) {
+            reported.set(e);
+          }
+        }
+    );
+
+    try {
+      /* When */
+      SharedScheduler scheduler = new SharedScheduler();
+      Future<?> failing = scheduler.schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              throw failure;
+            }
+          },
+          TimeUnit.MILLISECONDS.toNanos(10)
+      );
+      scheduler.schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              latch.countDown();
+            }
+          },
+          TimeUnit.MILLISECONDS.toNanos(20)
+      );
+
+      /* Then */
+      assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+      try {
+        failing.get();
+        assertThat("get() didn't throw", false, is(true));
+      } catch (ExecutionException e) {
+        assertThat(e.getCause(), is((Throwable) failure));
+      }
+      assertThat(reported.get(), is(nullValue()));
+    } finally {
+      Thread.setDefaultUncaughtExceptionHandler(handler);
+    }
+  }
+
+  private static class Recorder implements Runnable {
+
+    private final List<Integer> mOrder;
+
+    private final int mValue;
+
+    private final CountDownLatch mLatch;
+
+    Recorder(final List<Integer> order, final int value, final CountDownLatch latch) {
+      mOrder = order;
+      mValue = value;
+      mLatch = latch;
+    }
+
+    @Override
+    public void run() {
+      mOrder.add(mValue);
+      mLatch.countDown();
+    }
+  }
+
+  private static class RecordingTask extends AsyncTask<Void, InterruptedException> {
+
+    private final long mTimeoutMillis;
+
+    private final long mSleepMillis;
+
+    private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+
+    RecordingTask(final long timeoutMillis, final long sleepMillis) {
+      mTimeoutMillis = timeoutMillis;
+      mSleepMillis = sleepMillis;
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+      return mTimeoutMillis;
+    }
+
+    @Override
+    protected void onPreExecute() {
+      mEvents.add("onPreExecute");
+    }
+
+    @Override
+    protected Void doInBackground() throws InterruptedException {
+      Thread.sleep(mSleepMillis);
+      return null;
+    }
+
+    @Override
+    protected void onSuccess(final Void aVoid) {
+      mEvents.add("onSuccess");
+    }
+
+    @Override
+    protected void onException(@NonNull final InterruptedException e) {
+      mEvents.add("onException");
+    }
+
+    @Override
+    protected void onTimeout() {
+      mEvents.add("onTimeout");
+    }
+
+    @Override
+    protected void onInterrupted(@NonNull final InterruptedException e) {
+      mEvents.add("onInterrupted");
+    }
+
+    @Override
+    protected void onFinally() {
+      mEvents.add("onFinally");
+      mFinished.countDown();
+    }
+  }
+}
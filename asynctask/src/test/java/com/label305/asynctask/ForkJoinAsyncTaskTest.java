@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class ForkJoinAsyncTaskTest {
+
+  private static final int SIZE = 100000;
+
+  private final ForkJoinPool mPool = new ForkJoinPool(4);
+
+  private final ForkJoinAsyncTaskExecutor mExecutor = new ForkJoinAsyncTaskExecutor(mPool, ImmediateCallbackDispatcher.instance());
+
+  private final Set<Thread> mThreads = Collections.synchronizedSet(new HashSet<Thread>());
+
+  @After
+  public void tearDown() {
+    mPool.shutdownNow();
+  }
+
+  @Test
+  public void execute_computesResultOnPoolWorkers() throws Exception {
+    /* Given */
+    SumTask task = new SumTask();
+
+    /* When */
+    mExecutor.execute(task);
+    task.awaitFinally();
+
+    /* Then */
+    assertThat(task.mResult, is((long) SIZE * (SIZE - 1) / 2));
+    assertThat(mThreads.isEmpty(), is(false));
+    for (Thread thread : mThreads) {
+      assertThat(thread instanceof ForkJoinWorkerThread, is(true));
+      assertThat(((ForkJoinWorkerThread) thread).getPool(), is(mPool));
+    }
+  }
+
+  @Test
+  public void executeOnRegularThread_handsComputationToForkJoinPool() throws Exception {
+    /* Given */
+    SumTask task = new SumTask();
+
+    /* When */
+    task.execute(DefaultAsyncTaskExecutor.ioThreadPool(), ImmediateCallbackDispatcher.instance());
+    task.awaitFinally();
+
+    /* Then */
+    assertThat(task.mResult, is((long) SIZE * (SIZE - 1) / 2));
+    for (Thread thread : mThreads) {
+      assertThat(((ForkJoinWorkerThread) thread).getPool(), is(mPool));
+    }
+  }
+
+  @Test
+  public void cancelledDuringComputation_deliversCancelled() throws Exception {
+    /* Given */
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    SumTask task = new SumTask() {
+      @NonNull
+      @Override
+      protected ForkJoinTask<Long> createComputation() {
+        return new RecursiveTask<Long>() {
+          @Override
+          protected Long compute() {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException ignored) {
+              Thread.currentThread().interrupt();
+            }
+            return 0L;
+          }
+        };
+      }
+    };
+    mExecutor.execute(task);
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+    /* When */
+    task.cancel();
+    release.countDown();
+    task.awaitFinally();
+
+    /* Then */
+    assertThat(task.mCancelled, is(true));
+    assertThat(task.mResult, is(nullValue()));
+  }
+
+  private class SumTask extends ForkJoinAsyncTask<Long, RuntimeException> {
+
+    private final CountDownLatch mFinally = new CountDownLatch(1);
+
+    private volatile Long mResult;
+
+    private volatile boolean mCancelled;
+
+    @NonNull
+    @Override
+    protected ForkJoinTask<Long> createComputation() {
+      return new SumRange(0, SIZE);
+    }
+
+    @NonNull
+    @Override
+    protected ForkJoinPool getForkJoinPool() {
+      return mPool;
+    }
+
+    @Override
+    protected void onSuccess(final Long result) {
+      mResult = result;
+    }
+
+    @Override
+    protected void onCancelled() {
+      mCancelled = true;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+
+    @Override
+    protected void onFinally() {
+      mFinally.countDown();
+    }
+
+    void awaitFinally() throws InterruptedException {
+      assertThat(mFinally.await(5, TimeUnit.SECONDS), is(true));
+    }
+  }
+
+  private class SumRange extends RecursiveTask<Long> {
+
+    private final int mFrom;
+
+    private final int mTo;
+
+    SumRange(final int from, final int to) {
+      mFrom = from;
+      mTo = to;
+    }
+
+    @Override
+    protected Long compute() {
+      mThreads.add(Thread.currentThread());
+
+      if (mTo - mFrom <= 1000) {
+        long sum = 0;
+        for (int i = mFrom; i < mTo; i++) {
+          sum += i;
+        }
+        return sum;
+      }
+
+      int middle = (mFrom + mTo) >>> 1;
+      SumRange left = new SumRange(mFrom, middle);
+      left.fork();
+      return new SumRange(middle, mTo).compute() + left.join();
+    }
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class KeyedSerialAsyncTaskExecutorTest {
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mWorkerExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+
+  @Test
+  public void sameKey_runsOneAtATimeInOrder() {
+    /* Given */
+    KeyedSerialAsyncTaskExecutor executor = new KeyedSerialAsyncTaskExecutor(mWorkerExecutor, ImmediateCallbackDispatcher.instance(), false);
+
+    /* When */
+    executor.execute(new RecordingTask("a", "1"));
+    executor.execute(new RecordingTask("a", "2"));
+    executor.execute(new RecordingTask("a", "3"));
+
+    /* Then */
+    assertThat(mWorkerQueue.size(), is(1));
+
+    mWorkerQueue.poll().run();
+    assertThat(mEvents.toString(), is("[1]"));
+    assertThat(mWorkerQueue.size(), is(1));
+
+    drain();
+    assertThat(mEvents.toString(), is("[1, 2, 3]"));
+  }
+
+  @Test
+  public void differentKeys_runConcurrently() {
+    /* Given */
+    KeyedSerialAsyncTaskExecutor executor = new KeyedSerialAsyncTaskExecutor(mWorkerExecutor, ImmediateCallbackDispatcher.instance(), false);
+
+    /* When */
+    executor.execute(new RecordingTask("a", "1"));
+    executor.execute(new RecordingTask("b", "2"));
+    executor.execute(new RecordingTask(null, "3"));
+
+    /* Then */
+    assertThat(mWorkerQueue.size(), is(3));
+  }
+
+  @Test
+  public void emptyQueue_isDiscarded() {
+    /* Given */
+    KeyedSerialAsyncTaskExecutor executor = new KeyedSerialAsyncTaskExecutor(mWorkerExecutor, ImmediateCallbackDispatcher.instance(), false);
+    executor.execute(new RecordingTask("a", "1"));
+    assertThat(executor.getQueueCount(), is(1));
+
+    /* When */
+    drain();
+
+    /* Then */
+    assertThat(executor.getQueueCount(), is(0));
+
+    executor.execute(new RecordingTask("a", "2"));
+    drain();
+    assertThat(mEvents.toString(), is("[1, 2]"));
+  }
+
+  @Test
+  public void concurrentExecution_keepsOrderPerKey() throws InterruptedException {
+    /* Given */
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    KeyedSerialAsyncTaskExecutor executor = new KeyedSerialAsyncTaskExecutor(pool, ImmediateCallbackDispatcher.instance(), false);
+    int keyCount = 4;
+    int taskCount = 500;
+    final CountDownLatch latch = new CountDownLatch(keyCount * taskCount);
+    final List<List<Integer>> orders = new ArrayList<>();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+
+    /* When */
+    for (int k = 0; k < keyCount; k++) {
+      final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      final AtomicBoolean running = new AtomicBoolean();
+      final Integer key = k;
+      orders.add(order);
+
+      for (int i = 0; i < taskCount; i++) {
+        final int index = i;
+        executor.execute(
+            new AsyncTask<Void, RuntimeException>() {
+              @Override
+              public Object getKey() {
+                return key;
+              }
+
+              @Override
+              protected Void doInBackground() {
+                if (!running.compareAndSet(false, true)) {
+                  overlapped.set(true);
+                }
+                order.add(index);
+                running.set(false);
+                return null;
+              }
+
+              @Override
+              protected void onException(@NonNull final RuntimeException e) {
+              }
+
+              @Override
+              protected void onFinally() {
+                latch.countDown();
+              }
+            }
+        );
+      }
+    }
+
+    /* Then */
+    assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+    pool.shutdown();
+
+    assertThat(overlapped.get(), is(false));
+    for (List<Integer> order : orders) {
+      for (int i = 0; i < taskCount; i++) {
+        assertThat(order.get(i), is(i));
+      }
+    }
+  }
+
+  @Test
+  public void concurrentProducersOnOneKey_runEveryCommandExactlyOnceInOrder() throws Exception {
+    /* Given */
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    final KeyedSerialAsyncTaskExecutor executor = new KeyedSerialAsyncTaskExecutor(pool, ImmediateCallbackDispatcher.instance(), false);
+    int producerCount = 8;
+    final int taskCount = 2000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(producerCount * taskCount);
+    final int[][] runs = new int[producerCount][taskCount];
+    final int[] lastRun = new int[producerCount];
+    final AtomicBoolean outOfOrder = new AtomicBoolean();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    final AtomicBoolean running = new AtomicBoolean();
+    Arrays.fill(lastRun, -1);
+
+    ExecutorService producers = Executors.newFixedThreadPool(producerCount);
+    for (int p = 0; p < producerCount; p++) {
+      final int producer = p;
+      producers.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+              } catch (InterruptedException ignored) {
+                return;
+              }
+
+              for (int i = 0; i < taskCount; i++) {
+                final int index = i;
+                executor.execute(
+                    new AsyncTask<Void, RuntimeException>() {
+                      @Override
+                      public Object getKey() {
+                        return "key";
+                      }
+
+                      @Override
+                      protected Void doInBackground() {
+                        if (!running.compareAndSet(false, true)) {
+                          overlapped.set(true);
+                        }
+                        runs[producer][index]++;
+                        if (lastRun[producer] != index - 1) {
+                          outOfOrder.set(true);
+                        }
+                        lastRun[producer] = index;
+                        running.set(false);
+                        return null;
+                      }
+
+                      @Override
+                      protected void onException(@NonNull final RuntimeException e) {
+                      }
+
+                      @Override
+                      protected void onFinally() {
+                        done.countDown();
+                      }
+                    }
+                );
+
+                /* Let the queue run empty now and then, so that it is discarded while others offer to it. */
+                Thread.yield();
+              }
+            }
+          }
+      );
+    }
+
+    /* When */
+    start.countDown();
+
+    /* Then */
+    assertThat(done.await(20, TimeUnit.SECONDS), is(true));
+    producers.shutdown();
+    pool.shutdown();
+    assertThat(pool.awaitTermination(5, TimeUnit.SECONDS), is(true));
+
+    assertThat(overlapped.get(), is(false));
+    assertThat(outOfOrder.get(), is(false));
+    for (int[] producerRuns : runs) {
+      for (int count : producerRuns) {
+        assertThat(count, is(1));
+      }
+    }
+    assertThat(executor.getQueueCount(), is(0));
+  }
+
+  @Test
+  public void retryingTask_holdsItsPlaceUntilItsOutcomeIsKnown() throws Exception {
+    assertRetriesRunBeforeNextTask(false);
+  }
+
+  @Test
+  public void retryingTask_inNonBlockingMode_holdsItsPlaceUntilItsOutcomeIsKnown() throws Exception {
+    assertRetriesRunBeforeNextTask(true);
+  }
+
+  private void assertRetriesRunBeforeNextTask(final boolean nonBlocking) throws Exception {
+    /* Given */
+    ExecutorService pool = Executors.newCachedThreadPool();
+    KeyedSerialAsyncTaskExecutor executor = new KeyedSerialAsyncTaskExecutor(pool, ImmediateCallbackDispatcher.instance(), nonBlocking);
+    RecordingTask next = new RecordingTask("a", "next");
+
+    try {
+      /* When */
+      executor.execute(new FlakyTask("a", "flaky", 2));
+      executor.execute(next);
+
+      /* Then */
+      next.get(5, TimeUnit.SECONDS);
+      assertThat(mEvents.toString(), is("[flaky 1, flaky 2, flaky 3, next]"));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private void drain() {
+    while (!mWorkerQueue.isEmpty()) {
+      mWorkerQueue.poll().run();
+    }
+  }
+
+  private class RecordingTask extends AsyncTask<Void, RuntimeException> {
+
+    private final String mKey;
+
+    private final String mName;
+
+    RecordingTask(final String key, final String name) {
+      mKey = key;
+      mName = name;
+    }
+
+    @Override
+    public Object getKey() {
+      return mKey;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      mEvents.add(mName);
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+
+  private class FlakyTask extends AsyncTask<Void, IOException> {
+
+    private final String mKey;
+
+    private final String mName;
+
+    private final int mFailures;
+
+    private int mAttempts;
+
+    FlakyTask(final String key, final String name, final int failures) {
+      mKey = key;
+      mName = name;
+      mFailures = failures;
+    }
+
+    @Override
+    public Object getKey() {
+      return mKey;
+    }
+
+    @Override
+    public RetryPolicy<IOException> getRetryPolicy() {
+      return new RetryPolicy.Builder<IOException>()
+          .setInitialDelay(20, TimeUnit.MILLISECONDS)
+          .setJitter(0)
+          .build();
+    }
+
+    @Override
+    protected Void doInBackground() throws IOException {
+      mAttempts++;
+      mEvents.add(mName + " " + mAttempts);
+      if (mAttempts <= mFailures) {
+        throw new IOException();
+      }
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final IOException e) {
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class LaunchLocationPolicyTest {
+
+  @Test
+  public void off_capturesNothing() {
+    assertThat(LaunchLocationPolicy.OFF.capture(), is(nullValue()));
+  }
+
+  @Test
+  public void lazy_capturesCallingMethod() {
+    /* When */
+    Throwable launchLocation = LaunchLocationPolicy.LAZY.capture();
+
+    /* Then */
+    assertThat(launchLocation, is(notNullValue()));
+    assertThat(containsMethod(launchLocation.getStackTrace(), "lazy_capturesCallingMethod"), is(true));
+  }
+
+  @Test
+  public void always_capturesCallingMethod() {
+    /* When */
+    Throwable launchLocation = LaunchLocationPolicy.ALWAYS.capture();
+
+    /* Then */
+    assertThat(launchLocation, is(notNullValue()));
+    assertThat(containsMethod(launchLocation.getStackTrace(), "always_capturesCallingMethod"), is(true));
+  }
+
+  @Test
+  public void sampled_capturesOneInN() {
+    /* Given */
+    LaunchLocationPolicy policy = LaunchLocationPolicy.sampled(4);
+
+    /* When */
+    int captured = 0;
+    for (int i = 0; i < 100; i++) {
+      if (policy.capture() != null) {
+        captured++;
+      }
+    }
+
+    /* Then */
+    assertThat(captured, is(25));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void sampled_nonPositiveInterval_throws() {
+    LaunchLocationPolicy.sampled(0);
+  }
+
+  private static boolean containsMethod(final StackTraceElement[] stackTrace, final String methodName) {
+    for (StackTraceElement element : stackTrace) {
+      if (element.getMethodName().equals(methodName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+@SuppressWarnings({ "rawtypes", "HardCodedStringLiteral", "ProhibitedExceptionThrown", "NewExceptionWithoutArguments", "unchecked" })
+public class NonBlockingAsyncTaskTest {
+
+  private final QueueCallbackDispatcher mDispatcher = new QueueCallbackDispatcher();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  @Test
+  public void successfulExecution_handsOffBetweenStages() throws Exception {
+    /* Given */
+    final String result = "result";
+    TestAsyncTask task = spy(new TestAsyncTask() {
+      @Override
+      protected Object doInBackground() {
+        return result;
+      }
+    });
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+
+    /* Then */
+    assertThat(mWorkerQueue.size(), is(0));
+
+    assertThat(mDispatcher.drain(), is(1));
+    assertThat(mWorkerQueue.size(), is(1));
+
+    mWorkerQueue.poll().run();
+    assertThat(mWorkerQueue.size(), is(0));
+
+    assertThat(mDispatcher.drain(), is(1));
+
+    InOrder inOrder = inOrder(task);
+    inOrder.verify(task).onPreExecute();
+    inOrder.verify(task).doInBackground();
+    inOrder.verify(task).onSuccess(result);
+    inOrder.verify(task).onFinally();
+
+    verify(task, never()).onCancelled();
+    verify(task, never()).onException(any(Exception.class));
+    verify(task, never()).onRuntimeException(any(RuntimeException.class));
+  }
+
+  @Test
+  public void cancelledInPreExecute_doesNotSubmitBackgroundStage() throws Exception {
+    /* Given */
+    TestAsyncTask task = spy(new TestAsyncTask() {
+      @Override
+      protected void onPreExecute() {
+        cancel();
+      }
+    });
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+
+    /* Then */
+    InOrder inOrder = inOrder(task);
+    inOrder.verify(task).onPreExecute();
+    inOrder.verify(task).onCancelled();
+    inOrder.verify(task).onFinally();
+
+    verify(task, never()).doInBackground();
+    verify(task, never()).onSuccess(any());
+  }
+
+  @Test
+  public void cancelledWhileQueued_deliversCancelledAndFinally() throws Exception {
+    /* Given */
+    TestAsyncTask task = spy(new TestAsyncTask());
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    mDispatcher.runNext();
+
+    /* When */
+    task.cancel();
+    drain();
+
+    /* Then */
+    InOrder inOrder = inOrder(task);
+    inOrder.verify(task).onPreExecute();
+    inOrder.verify(task).onCancelled();
+    inOrder.verify(task).onFinally();
+
+    verify(task, never()).doInBackground();
+    verify(task, never()).onSuccess(any());
+  }
+
+  @Test
+  public void doInBackgroundExceptionThrown() throws Exception {
+    /* Given */
+    final Exception ex = new Exception();
+    TestAsyncTask task = spy(new TestAsyncTask() {
+      @Override
+      protected Object doInBackground() throws Exception {
+        throw ex;
+      }
+    });
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+
+    /* Then */
+    InOrder inOrder = inOrder(task);
+    inOrder.verify(task).onPreExecute();
+    inOrder.verify(task).doInBackground();
+    inOrder.verify(task).onException(ex);
+    inOrder.verify(task).onFinally();
+
+    verify(task, never()).onSuccess(any());
+    verify(task, never()).onRuntimeException(any(RuntimeException.class));
+  }
+
+  @Test
+  public void doInBackgroundRuntimeExceptionThrown() throws Exception {
+    /* Given */
+    final RuntimeException rte = new RuntimeException();
+    TestAsyncTask task = spy(new TestAsyncTask() {
+      @Override
+      protected Object doInBackground() throws Exception {
+        throw rte;
+      }
+    });
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    try {
+      drain();
+      assertThat("Execute didn't throw", false, is(true));
+    } catch (RuntimeException e) {
+      assertThat(e, is(rte));
+    }
+
+    /* Then */
+    InOrder inOrder = inOrder(task);
+    inOrder.verify(task).onPreExecute();
+    inOrder.verify(task).doInBackground();
+    inOrder.verify(task).onRuntimeException(rte);
+    inOrder.verify(task).onFinally();
+
+    verify(task, never()).onSuccess(any());
+    verify(task, never()).onException(any(Exception.class));
+  }
+
+  private void drain() {
+    while (!mDispatcher.isEmpty() || !mWorkerQueue.isEmpty()) {
+      if (!mDispatcher.runNext()) {
+        mWorkerQueue.poll().run();
+      }
+    }
+  }
+
+  private static class TestAsyncTask<T, E extends Exception> extends AsyncTask<T, E> {
+
+    @Override
+    protected T doInBackground() throws E {
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final E e) {
+    }
+  }
+}
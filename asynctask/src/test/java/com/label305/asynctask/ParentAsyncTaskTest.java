@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class ParentAsyncTaskTest {
+
+  private final ExecutorService mWorkers = Executors.newCachedThreadPool();
+
+  private final ExecutorService mCallbackThread = Executors.newSingleThreadExecutor();
+
+  private final CallbackDispatcher mDispatcher = new ExecutorCallbackDispatcher(mCallbackThread);
+
+  @After
+  public void tearDown() {
+    mWorkers.shutdownNow();
+    mCallbackThread.shutdownNow();
+  }
+
+  @Test
+  public void children_resultsAreAggregated() throws InterruptedException {
+    /* Given */
+    RecordingParentTask parent = new RecordingParentTask(true) {
+      @Override
+      protected String doInBackground(@NonNull final Children<IOException> children) throws IOException {
+        Children<IOException>.Child<String> first = children.fork(new ChildTask("a", 20));
+        Children<IOException>.Child<String> second = children.fork(new ChildTask("b", 0));
+        children.join();
+        return first.get() + second.get();
+      }
+    };
+
+    /* When */
+    parent.execute(mWorkers, mDispatcher);
+
+    /* Then */
+    assertThat(parent.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(parent.mEvents.toString(), is("[onSuccess ab, onFinally]"));
+  }
+
+  @Test
+  public void failingChild_cancelsSiblings() throws InterruptedException {
+    /* Given */
+    final ChildTask slow = new ChildTask("slow", 10000);
+    RecordingParentTask parent = new RecordingParentTask(true) {
+      @Override
+      protected String doInBackground(@NonNull final Children<IOException> children) throws IOException {
+        children.fork(slow);
+        children.fork(new FailingChildTask());
+        children.join();
+        return "unreachable";
+      }
+    };
+
+    /* When */
+    parent.execute(mWorkers, mDispatcher);
+
+    /* Then */
+    assertThat(parent.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(parent.mEvents.toString(), is("[onException failed, onFinally]"));
+    assertThat(slow.mInterrupted.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void failingChild_withoutSiblingCancellation_waitsForAll() throws InterruptedException {
+    /* Given */
+    final ChildTask slow = new ChildTask("slow", 100);
+    RecordingParentTask parent = new RecordingParentTask(false) {
+      @Override
+      protected String doInBackground(@NonNull final Children<IOException> children) throws IOException {
+        children.fork(slow);
+        children.fork(new FailingChildTask());
+        children.join();
+        return "unreachable";
+      }
+    };
+
+    /* When */
+    parent.execute(mWorkers, mDispatcher);
+
+    /* Then */
+    assertThat(parent.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(parent.mEvents.toString(), is("[onException failed, onFinally]"));
+    assertThat(slow.mCompleted.getCount(), is(0L));
+    assertThat(slow.mInterrupted.getCount(), is(1L));
+  }
+
+  @Test
+  public void cancelledParent_cancelsChildren() throws InterruptedException {
+    /* Given */
+    final ChildTask slow = new ChildTask("slow", 10000);
+    final CountDownLatch forked = new CountDownLatch(1);
+    RecordingParentTask parent = new RecordingParentTask(true) {
+      @Override
+      protected String doInBackground(@NonNull final Children<IOException> children) throws IOException {
+        children.fork(slow);
+        forked.countDown();
+        children.join();
+        return "unreachable";
+      }
+    };
+    parent.execute(mWorkers, mDispatcher);
+    assertThat(forked.await(5, TimeUnit.SECONDS), is(true));
+
+    /* When */
+    parent.cancel();
+
+    /* Then */
+    assertThat(parent.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(parent.mEvents.toString(), is("[onCancelled, onFinally]"));
+    assertThat(slow.mInterrupted.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void unstartedChildren_runOnParentThread() throws InterruptedException {
+    /* Given */
+    final Executor neverRuns = new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+      }
+    };
+    RecordingParentTask parent = new RecordingParentTask(true) {
+      @NonNull
+      @Override
+      protected Executor getChildExecutor() {
+        return neverRuns;
+      }
+
+      @Override
+      protected String doInBackground(@NonNull final Children<IOException> children) throws IOException {
+        Children<IOException>.Child<String> child = children.fork(new ChildTask("inline", 0));
+        children.join();
+        return child.get();
+      }
+    };
+
+    /* When */
+    parent.execute(mWorkers, mDispatcher);
+
+    /* Then */
+    assertThat(parent.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(parent.mEvents.toString(), is("[onSuccess inline, onFinally]"));
+  }
+
+  private abstract static class RecordingParentTask extends ParentAsyncTask<String, IOException> {
+
+    final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+
+    final CountDownLatch mFinished = new CountDownLatch(1);
+
+    private final boolean mCancelsSiblingsOnFailure;
+
+    RecordingParentTask(final boolean cancelsSiblingsOnFailure) {
+      mCancelsSiblingsOnFailure = cancelsSiblingsOnFailure;
+    }
+
+    @Override
+    protected boolean cancelsSiblingsOnFailure() {
+      return mCancelsSiblingsOnFailure;
+    }
+
+    @Override
+    protected void onSuccess(final String result) {
+      mEvents.add("onSuccess " + result);
+    }
+
+    @Override
+    protected void onException(@NonNull final IOException e) {
+      mEvents.add("onException " + e.getMessage());
+    }
+
+    @Override
+    protected void onCancelled() {
+      mEvents.add("onCancelled");
+    }
+
+    @Override
+    protected void onFinally() {
+      mEvents.add("onFinally");
+      mFinished.countDown();
+    }
+  }
+
+  private static class ChildTask extends AsyncTask<String, IOException> {
+
+    final CountDownLatch mInterrupted = new CountDownLatch(1);
+
+    final CountDownLatch mCompleted = new CountDownLatch(1);
+
+    private final String mResult;
+
+    private final long mSleepMillis;
+
+    ChildTask(final String result, final long sleepMillis) {
+      mResult = result;
+      mSleepMillis = sleepMillis;
+    }
+
+    @Override
+    protected String doInBackground() {
+      try {
+        Thread.sleep(mSleepMillis);
+      } catch (InterruptedException ignored) {
+        mInterrupted.countDown();
+        return null;
+      }
+
+      mCompleted.countDown();
+      return mResult;
+    }
+
+    @Override
+    protected void onException(@NonNull final IOException e) {
+    }
+  }
+
+  private static class FailingChildTask extends AsyncTask<String, IOException> {
+
+    @Override
+    protected String doInBackground() throws IOException {
+      throw new IOException("failed");
+    }
+
+    @Override
+    protected void onException(@NonNull final IOException e) {
+    }
+  }
+}
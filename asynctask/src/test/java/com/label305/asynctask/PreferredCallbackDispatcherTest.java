@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class PreferredCallbackDispatcherTest {
+
+  private final QueueCallbackDispatcher mDispatcher = new QueueCallbackDispatcher();
+
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+  private final List<Thread> mCallbackThreads = Collections.synchronizedList(new ArrayList<Thread>());
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdownNow();
+  }
+
+  @Test
+  public void blockingExecution_withImmediateDispatcher_runsCallbacksOnWorkerThread() throws Exception {
+    /* Given */
+    HeadlessTask task = new HeadlessTask();
+
+    /* When */
+    task.execute(mExecutor, mDispatcher);
+    task.awaitFinally();
+
+    /* Then */
+    assertThat(mDispatcher.isEmpty(), is(true));
+    assertThat(mCallbackThreads.size(), is(3));
+    assertThat(mCallbackThreads.get(0), is(task.mBackgroundThread));
+    assertThat(mCallbackThreads.get(1), is(task.mBackgroundThread));
+    assertThat(mCallbackThreads.get(2), is(task.mBackgroundThread));
+  }
+
+  @Test
+  public void nonBlockingExecution_withImmediateDispatcher_runsCompletionOnWorkerThread() throws Exception {
+    /* Given */
+    HeadlessTask task = new HeadlessTask();
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    task.awaitFinally();
+
+    /* Then */
+    assertThat(mDispatcher.isEmpty(), is(true));
+    assertThat(mCallbackThreads.size(), is(3));
+    assertThat(mCallbackThreads.get(1), is(task.mBackgroundThread));
+    assertThat(mCallbackThreads.get(2), is(task.mBackgroundThread));
+  }
+
+  @Test
+  public void withoutPreferredDispatcher_usesGivenDispatcher() throws Exception {
+    /* Given */
+    HeadlessTask task = new HeadlessTask() {
+      @Nullable
+      @Override
+      public CallbackDispatcher getPreferredCallbackDispatcher() {
+        return null;
+      }
+    };
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+
+    /* Then */
+    assertThat(mDispatcher.isEmpty(), is(false));
+    assertThat(mCallbackThreads.isEmpty(), is(true));
+  }
+
+  private class HeadlessTask extends AsyncTask<String, RuntimeException> {
+
+    private final CountDownLatch mFinally = new CountDownLatch(1);
+
+    private volatile Thread mBackgroundThread;
+
+    @Nullable
+    @Override
+    public CallbackDispatcher getPreferredCallbackDispatcher() {
+      return ImmediateCallbackDispatcher.instance();
+    }
+
+    @Override
+    protected void onPreExecute() {
+      mCallbackThreads.add(Thread.currentThread());
+    }
+
+    @Override
+    protected String doInBackground() {
+      mBackgroundThread = Thread.currentThread();
+      return "result";
+    }
+
+    @Override
+    protected void onSuccess(final String result) {
+      mCallbackThreads.add(Thread.currentThread());
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+
+    @Override
+    protected void onFinally() {
+      mCallbackThreads.add(Thread.currentThread());
+      mFinally.countDown();
+    }
+
+    void awaitFinally() throws InterruptedException {
+      assertThat(mFinally.await(5, TimeUnit.SECONDS), is(true));
+    }
+  }
+}
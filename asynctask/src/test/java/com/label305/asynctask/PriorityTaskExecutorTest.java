@@ -0,0 +1,285 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class PriorityTaskExecutorTest {
+
+  private final List<String> mExecuted = Collections.synchronizedList(new ArrayList<String>());
+
+  private final CountDownLatch mBlocker = new CountDownLatch(1);
+
+  @Test
+  public void queuedTasks_startInPriorityOrder() throws Exception {
+    /* Given */
+    PriorityTaskExecutor executor = new PriorityTaskExecutor(1, Integer.MAX_VALUE, OverflowPolicy.REJECT);
+    block(executor);
+
+    /* When */
+    executor.execute(future("prefetch", TaskPriority.PREFETCH));
+    executor.execute(future("normal1", TaskPriority.NORMAL));
+    executor.execute(future("immediate", TaskPriority.IMMEDIATE));
+    executor.execute(future("normal2", TaskPriority.NORMAL));
+    awaitCompletion(4);
+
+    /* Then */
+    assertThat(mExecuted, is(Arrays.asList("immediate", "normal1", "normal2", "prefetch")));
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void reject_fullQueue_throws() throws Exception {
+    /* Given */
+    PriorityTaskExecutor executor = new PriorityTaskExecutor(1, 1, OverflowPolicy.REJECT);
+    block(executor);
+    executor.execute(future("normal1", TaskPriority.NORMAL));
+
+    try {
+      /* When */
+      executor.execute(future("normal2", TaskPriority.NORMAL));
+    } finally {
+      mBlocker.countDown();
+    }
+  }
+
+  @Test
+  public void discard_fullQueue_cancelsNewTask() throws Exception {
+    /* Given */
+    PriorityTaskExecutor executor = new PriorityTaskExecutor(1, 1, OverflowPolicy.DISCARD);
+    block(executor);
+    executor.execute(future("normal1", TaskPriority.NORMAL));
+    AsyncTaskFuture discarded = future("normal2", TaskPriority.NORMAL);
+
+    /* When */
+    executor.execute(discarded);
+    awaitCompletion(1);
+
+    /* Then */
+    assertThat(discarded.isCancelled(), is(true));
+    assertThat(mExecuted, is(Collections.singletonList("normal1")));
+  }
+
+  @Test
+  public void shedLowestPriority_fullQueue_shedsQueuedPrefetchTask() throws Exception {
+    /* Given */
+    PriorityTaskExecutor executor = new PriorityTaskExecutor(1, 2, OverflowPolicy.SHED_LOWEST_PRIORITY);
+    block(executor);
+    AsyncTaskFuture prefetch = future("prefetch", TaskPriority.PREFETCH);
+    executor.execute(prefetch);
+    executor.execute(future("normal", TaskPriority.NORMAL));
+
+    /* When */
+    executor.execute(future("immediate", TaskPriority.IMMEDIATE));
+    awaitCompletion(2);
+
+    /* Then */
+    assertThat(prefetch.isCancelled(), is(true));
+    assertThat(mExecuted, is(Arrays.asList("immediate", "normal")));
+  }
+
+  @Test
+  public void shedLowestPriority_fullQueueWithoutLowerPriority_discardsNewTask() throws Exception {
+    /* Given */
+    PriorityTaskExecutor executor = new PriorityTaskExecutor(1, 1, OverflowPolicy.SHED_LOWEST_PRIORITY);
+    block(executor);
+    executor.execute(future("normal", TaskPriority.NORMAL));
+    AsyncTaskFuture prefetch = future("prefetch", TaskPriority.PREFETCH);
+
+    /* When */
+    executor.execute(prefetch);
+    awaitCompletion(1);
+
+    /* Then */
+    assertThat(prefetch.isCancelled(), is(true));
+    assertThat(mExecuted, is(Collections.singletonList("normal")));
+  }
+
+  @Test
+  public void discard_executedTask_cancelsThroughAsyncTask() throws Exception {
+    /* Given */
+    PriorityTaskExecutor executor = new PriorityTaskExecutor(1, 1, OverflowPolicy.DISCARD);
+    block(executor);
+    new PriorityAsyncTask(TaskPriority.NORMAL).execute(executor, ImmediateCallbackDispatcher.instance());
+    PriorityAsyncTask discarded = new PriorityAsyncTask(TaskPriority.NORMAL);
+    final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    /* When */
+    discarded.execute(executor, ImmediateCallbackDispatcher.instance());
+    discarded.addResultListener(
+        new ResultListener<Void>() {
+          @Override
+          public void onResult(@Nullable final Void result) {
+          }
+
+          @Override
+          public void onFailure(@NonNull final Exception e) {
+            failure.set(e);
+          }
+        }
+    );
+    mBlocker.countDown();
+
+    /* Then */
+    assertThat(discarded.isCancelled(), is(true));
+    assertThat(failure.get() instanceof CancellationException, is(true));
+    try {
+      discarded.get(1, TimeUnit.SECONDS);
+      assertThat("get() didn't throw", false, is(true));
+    } catch (CancellationException ignored) {
+    }
+  }
+
+  @Test
+  public void shedLowestPriority_concurrentOverflows_shedOneVictimEach() throws Exception {
+    /* Given */
+    int capacity = 8;
+    final PriorityTaskExecutor executor = new PriorityTaskExecutor(1, capacity, OverflowPolicy.SHED_LOWEST_PRIORITY);
+    block(executor);
+    final List<AsyncTaskFuture> prefetches = new ArrayList<>();
+    for (int i = 0; i < capacity; i++) {
+      AsyncTaskFuture prefetch = future("prefetch", TaskPriority.PREFETCH);
+      prefetches.add(prefetch);
+      executor.execute(prefetch);
+    }
+
+    final List<AsyncTaskFuture> immediates = Collections.synchronizedList(new ArrayList<AsyncTaskFuture>());
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(capacity);
+    for (int i = 0; i < capacity; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          AsyncTaskFuture immediate = future("immediate", TaskPriority.IMMEDIATE);
+          immediates.add(immediate);
+          try {
+            start.await();
+            executor.execute(immediate);
+          } catch (InterruptedException ignored) {
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+
+    /* When */
+    start.countDown();
+    assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+
+    /* Then */
+    for (AsyncTaskFuture prefetch : prefetches) {
+      assertThat(prefetch.isCancelled(), is(true));
+    }
+    for (AsyncTaskFuture immediate : immediates) {
+      assertThat(immediate.isCancelled(), is(false));
+    }
+    mBlocker.countDown();
+  }
+
+  @Test
+  public void shutdown_completesQueuedTasksAndRejectsNewOnes() throws Exception {
+    /* Given */
+    PriorityTaskExecutor executor = new PriorityTaskExecutor(1, 1, OverflowPolicy.SHED_LOWEST_PRIORITY);
+    block(executor);
+    executor.execute(future("queued", TaskPriority.NORMAL));
+
+    /* When */
+    executor.shutdown();
+
+    /* Then */
+    try {
+      executor.execute(future("new", TaskPriority.IMMEDIATE));
+      assertThat("execute() didn't throw", false, is(true));
+    } catch (RejectedExecutionException ignored) {
+      /* Expected */
+    }
+    awaitCompletion(1);
+    assertThat(mExecuted, is(Collections.singletonList("queued")));
+  }
+
+  private void block(final PriorityTaskExecutor executor) throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          mBlocker.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    });
+    started.await();
+  }
+
+  private void awaitCompletion(final int expectedCount) throws InterruptedException {
+    mBlocker.countDown();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (mExecuted.size() < expectedCount && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    /* Give discarded tasks the opportunity to run, which they shouldn't. */
+    Thread.sleep(50);
+  }
+
+  private AsyncTaskFuture future(final String name, final TaskPriority priority) {
+    return new AsyncTaskFuture(new PriorityAsyncTask(priority), new Runnable() {
+      @Override
+      public void run() {
+        mExecuted.add(name);
+      }
+    });
+  }
+
+  private static class PriorityAsyncTask extends SimpleAsyncTask<Void> {
+
+    private final TaskPriority mPriority;
+
+    PriorityAsyncTask(final TaskPriority priority) {
+      mPriority = priority;
+    }
+
+    @NonNull
+    @Override
+    public TaskPriority getPriority() {
+      return mPriority;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      return null;
+    }
+  }
+}
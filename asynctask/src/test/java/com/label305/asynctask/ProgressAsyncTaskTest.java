@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class ProgressAsyncTaskTest {
+
+  private final QueueCallbackDispatcher mDispatcher = new QueueCallbackDispatcher();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  @Test
+  public void rapidProgress_isConflatedToLatestValue() {
+    /* Given */
+    CountingTask task = new CountingTask(1000000);
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+
+    /* Then */
+    assertThat(task.mEvents, is(Arrays.asList("progress 1000000", "success")));
+  }
+
+  @Test
+  public void progressAfterDelivery_isDeliveredAgain() {
+    /* Given */
+    CountingTask task = new CountingTask(0);
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    mDispatcher.runNext();
+
+    /* When */
+    task.publishProgress(1);
+    mDispatcher.runNext();
+    task.publishProgress(2);
+    mDispatcher.runNext();
+
+    /* Then */
+    assertThat(task.mEvents, is(Arrays.asList("progress 1", "progress 2")));
+  }
+
+  @Test
+  public void nullProgress_isDelivered() {
+    /* Given */
+    CountingTask task = new CountingTask(0);
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    mDispatcher.runNext();
+
+    /* When */
+    task.publishProgress(null);
+    mDispatcher.runNext();
+
+    /* Then */
+    assertThat(task.mEvents, is(Collections.singletonList("progress null")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void progressBeforeExecute_throws() {
+    new CountingTask(0).publishProgress(1);
+  }
+
+  private void drain() {
+    while (!mDispatcher.isEmpty() || !mWorkerQueue.isEmpty()) {
+      if (!mDispatcher.runNext()) {
+        mWorkerQueue.poll().run();
+      }
+    }
+  }
+
+  private static class CountingTask extends ProgressAsyncTask<Void, Integer, RuntimeException> {
+
+    private final int mCount;
+
+    private final List<String> mEvents = new ArrayList<>();
+
+    CountingTask(final int count) {
+      mCount = count;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      for (int i = 1; i <= mCount; i++) {
+        publishProgress(i);
+      }
+      return null;
+    }
+
+    @Override
+    protected void onProgressUpdate(@Nullable final Integer progress) {
+      mEvents.add("progress " + progress);
+    }
+
+    @Override
+    protected void onSuccess(final Void aVoid) {
+      mEvents.add("success");
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+}
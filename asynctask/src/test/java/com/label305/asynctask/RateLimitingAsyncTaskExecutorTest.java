@@ -0,0 +1,254 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class RateLimitingAsyncTaskExecutorTest {
+
+  private static final int PERMITS = 3;
+
+  private static final long PERIOD = 300;
+
+  private static final long INTERVAL = PERIOD / PERMITS;
+
+  private final TestScheduler mScheduler = new TestScheduler();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mWorkerExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  private final List<String> mEvents = new ArrayList<>();
+
+  private final RateLimitingAsyncTaskExecutor mExecutor =
+      new RateLimitingAsyncTaskExecutor(mWorkerExecutor, ImmediateCallbackDispatcher.instance(), mScheduler, PERMITS, PERIOD);
+
+  @Test
+  public void burstUpToPermits_startsImmediately() {
+    /* When */
+    for (int i = 0; i < PERMITS; i++) {
+      mExecutor.execute(new RecordingTask("task" + i));
+    }
+
+    /* Then */
+    assertThat(mWorkerQueue.size(), is(PERMITS));
+    assertThat(mScheduler.getPendingCount(), is(0));
+  }
+
+  @Test
+  public void tasksExceedingLimit_areHeldBackWithoutWorker() {
+    /* Given */
+    for (int i = 0; i < PERMITS; i++) {
+      mExecutor.execute(new RecordingTask("task" + i));
+    }
+    drain();
+
+    /* When */
+    mExecutor.execute(new RecordingTask("fourth"));
+    mExecutor.execute(new RecordingTask("fifth"));
+
+    /* Then */
+    assertThat(mWorkerQueue.isEmpty(), is(true));
+    assertThat(mScheduler.getPendingCount(), is(2));
+
+    mScheduler.advance(INTERVAL - 1);
+    assertThat(mWorkerQueue.isEmpty(), is(true));
+
+    mScheduler.advance(1);
+    drain();
+    assertThat(mEvents.get(mEvents.size() - 1), is("fourth"));
+
+    mScheduler.advance(INTERVAL);
+    drain();
+    assertThat(mEvents.get(mEvents.size() - 1), is("fifth"));
+  }
+
+  @Test
+  public void bucketRefills_afterPeriod() {
+    /* Given */
+    for (int i = 0; i < PERMITS; i++) {
+      mExecutor.execute(new RecordingTask("task" + i));
+    }
+    drain();
+
+    /* When */
+    mScheduler.advance(PERIOD);
+    for (int i = 0; i < PERMITS; i++) {
+      mExecutor.execute(new RecordingTask("task" + i));
+    }
+
+    /* Then */
+    assertThat(mWorkerQueue.size(), is(PERMITS));
+    assertThat(mScheduler.getPendingCount(), is(0));
+  }
+
+  @Test
+  public void differentClasses_haveOwnLimits() {
+    /* When */
+    for (int i = 0; i < PERMITS; i++) {
+      mExecutor.execute(new RecordingTask("task" + i));
+      mExecutor.execute(new OtherRecordingTask("other" + i, null));
+    }
+
+    /* Then */
+    assertThat(mWorkerQueue.size(), is(2 * PERMITS));
+    assertThat(mExecutor.getBucketCount(), is(2));
+  }
+
+  @Test
+  public void equalRateLimitKeys_shareLimitAcrossClasses() {
+    /* When */
+    for (int i = 0; i < PERMITS; i++) {
+      mExecutor.execute(new OtherRecordingTask("other" + i, "endpoint"));
+    }
+    mExecutor.execute(new KeyedRecordingTask("keyed", "endpoint"));
+
+    /* Then */
+    assertThat(mWorkerQueue.size(), is(PERMITS));
+    assertThat(mScheduler.getPendingCount(), is(1));
+    assertThat(mExecutor.getBucketCount(), is(1));
+  }
+
+  @Test
+  public void heldBackTasksOnSharedScheduler_startInExecutionOrder() throws InterruptedException {
+    /* Given */
+    final CountDownLatch latch = new CountDownLatch(20);
+    Executor executor = new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+        command.run();
+        latch.countDown();
+      }
+    };
+    RateLimitingAsyncTaskExecutor rateLimitingExecutor =
+        new RateLimitingAsyncTaskExecutor(executor, ImmediateCallbackDispatcher.instance(), 1, 2, TimeUnit.MILLISECONDS);
+
+    /* When */
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      rateLimitingExecutor.execute(new RecordingTask("task" + i));
+      expected.add("task" + i);
+    }
+
+    /* Then */
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(mEvents, is(expected));
+  }
+
+  @Test
+  public void heldBackTask_rejectedByExecutor_isCancelled() throws Exception {
+    /* Given */
+    final List<Runnable> accepted = new ArrayList<>();
+    Executor executor = new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+        if (accepted.size() == PERMITS) {
+          throw new RejectedExecutionException();
+        }
+        accepted.add(command);
+      }
+    };
+    RateLimitingAsyncTaskExecutor rateLimitingExecutor =
+        new RateLimitingAsyncTaskExecutor(executor, ImmediateCallbackDispatcher.instance(), mScheduler, PERMITS, PERIOD);
+    for (int i = 0; i < PERMITS; i++) {
+      rateLimitingExecutor.execute(new RecordingTask("task" + i));
+    }
+    RecordingTask heldBack = rateLimitingExecutor.execute(new RecordingTask("held back"));
+
+    /* When */
+    mScheduler.advance(INTERVAL);
+
+    /* Then */
+    assertThat(heldBack.isCancelled(), is(true));
+    try {
+      heldBack.get(1, TimeUnit.SECONDS);
+      assertThat("get() didn't throw", false, is(true));
+    } catch (CancellationException ignored) {
+      /* Expected */
+    }
+  }
+
+  private void drain() {
+    while (!mWorkerQueue.isEmpty()) {
+      mWorkerQueue.poll().run();
+    }
+  }
+
+  private class RecordingTask extends AsyncTask<Void, RuntimeException> {
+
+    @NonNull
+    private final String mName;
+
+    RecordingTask(@NonNull final String name) {
+      mName = name;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      mEvents.add(mName);
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+
+  private class KeyedRecordingTask extends RecordingTask {
+
+    @Nullable
+    private final Object mRateLimitKey;
+
+    KeyedRecordingTask(@NonNull final String name, @Nullable final Object rateLimitKey) {
+      super(name);
+      mRateLimitKey = rateLimitKey;
+    }
+
+    @Nullable
+    @Override
+    public Object getRateLimitKey() {
+      return mRateLimitKey;
+    }
+  }
+
+  private class OtherRecordingTask extends KeyedRecordingTask {
+
+    OtherRecordingTask(@NonNull final String name, @Nullable final Object rateLimitKey) {
+      super(name, rateLimitKey);
+    }
+  }
+}
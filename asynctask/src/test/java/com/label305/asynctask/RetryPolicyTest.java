@@ -0,0 +1,344 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.number.OrderingComparison.greaterThanOrEqualTo;
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class RetryPolicyTest {
+
+  private final ExecutorService mWorker = Executors.newSingleThreadExecutor();
+
+  private final ExecutorService mCallbackThread = Executors.newSingleThreadExecutor();
+
+  private final CallbackDispatcher mDispatcher = new ExecutorCallbackDispatcher(mCallbackThread);
+
+  @After
+  public void tearDown() {
+    mWorker.shutdownNow();
+    mCallbackThread.shutdownNow();
+  }
+
+  @Test
+  public void delay_growsExponentiallyUpToMaxDelay() {
+    /* Given */
+    RetryPolicy<IOException> policy = new RetryPolicy.Builder<IOException>()
+        .setInitialDelay(100, TimeUnit.MILLISECONDS)
+        .setMultiplier(2)
+        .setMaxDelay(300, TimeUnit.MILLISECONDS)
+        .setJitter(0)
+        .build();
+
+    /* Then */
+    assertThat(policy.delayNanos(1), is(TimeUnit.MILLISECONDS.toNanos(100)));
+    assertThat(policy.delayNanos(2), is(TimeUnit.MILLISECONDS.toNanos(200)));
+    assertThat(policy.delayNanos(3), is(TimeUnit.MILLISECONDS.toNanos(300)));
+  }
+
+  @Test
+  public void delay_isReducedByAtMostTheJitter() {
+    /* Given */
+    RetryPolicy<IOException> policy = new RetryPolicy.Builder<IOException>()
+        .setInitialDelay(100, TimeUnit.MILLISECONDS)
+        .setJitter(0.25)
+        .build();
+
+    /* Then */
+    for (int i = 0; i < 100; i++) {
+      long delay = policy.delayNanos(1);
+      assertThat(delay, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(75))));
+      assertThat(delay, is(lessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100))));
+    }
+  }
+
+  @Test
+  public void shouldRetry_respectsMaxAttemptsAndCondition() {
+    /* Given */
+    RetryPolicy<IOException> policy = new RetryPolicy.Builder<IOException>()
+        .setMaxAttempts(2)
+        .setRetryCondition(new RetryCondition<IOException>() {
+          @Override
+          public boolean shouldRetry(@NonNull final IOException e) {
+            return !"fatal".equals(e.getMessage());
+          }
+        })
+        .build();
+
+    /* Then */
+    assertThat(policy.shouldRetry(new IOException(), 1), is(true));
+    assertThat(policy.shouldRetry(new IOException(), 2), is(false));
+    assertThat(policy.shouldRetry(new IOException("fatal"), 1), is(false));
+  }
+
+  @Test
+  public void failingTask_isRetriedUntilItSucceeds() throws InterruptedException {
+    /* Given */
+    FlakyTask task = new FlakyTask(2, policy(3));
+
+    /* When */
+    task.execute(mWorker, mDispatcher);
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mAttempts.get(), is(3));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onSuccess, onFinally]"));
+  }
+
+  @Test
+  public void exhaustedAttempts_deliverLastException() throws InterruptedException {
+    /* Given */
+    FlakyTask task = new FlakyTask(10, policy(3));
+
+    /* When */
+    task.execute(mWorker, mDispatcher);
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mAttempts.get(), is(3));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onException 3, onFinally]"));
+  }
+
+  @Test
+  public void backoff_doesNotHoldWorker() throws InterruptedException {
+    /* Given */
+    RetryPolicy<IOException> slowPolicy = new RetryPolicy.Builder<IOException>()
+        .setInitialDelay(200, TimeUnit.MILLISECONDS)
+        .setJitter(0)
+        .build();
+    FlakyTask retrying = new FlakyTask(1, slowPolicy);
+    FlakyTask other = new FlakyTask(0, null);
+
+    /* When */
+    retrying.executeNonBlocking(mWorker, mDispatcher);
+    Thread.sleep(50);
+    other.executeNonBlocking(mWorker, mDispatcher);
+
+    /* Then */
+    assertThat(other.mFinished.await(150, TimeUnit.MILLISECONDS), is(true));
+    assertThat(retrying.mFinished.getCount(), is(1L));
+
+    assertThat(retrying.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(retrying.mEvents.toString(), is("[onPreExecute, onSuccess, onFinally]"));
+  }
+
+  @Test
+  public void cancelDuringBackoff_deliversCancelled() throws InterruptedException {
+    /* Given */
+    RetryPolicy<IOException> slowPolicy = new RetryPolicy.Builder<IOException>()
+        .setInitialDelay(200, TimeUnit.MILLISECONDS)
+        .build();
+    FlakyTask task = new FlakyTask(1, slowPolicy);
+    task.execute(mWorker, mDispatcher);
+    Thread.sleep(50);
+
+    /* When */
+    task.cancel();
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onCancelled, onFinally]"));
+
+    Thread.sleep(300);
+    assertThat(task.mAttempts.get(), is(1));
+  }
+
+  @Test
+  public void cancelDuringBackoff_inNonBlockingMode_deliversCancelled() throws InterruptedException {
+    /* Given */
+    RetryPolicy<IOException> slowPolicy = new RetryPolicy.Builder<IOException>()
+        .setInitialDelay(200, TimeUnit.MILLISECONDS)
+        .build();
+    FlakyTask task = new FlakyTask(1, slowPolicy);
+    task.executeNonBlocking(mWorker, mDispatcher);
+    Thread.sleep(50);
+
+    /* When */
+    task.cancel();
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onCancelled, onFinally]"));
+
+    Thread.sleep(300);
+    assertThat(task.mAttempts.get(), is(1));
+  }
+
+  @Test
+  public void blockingExecution_makesAllAttemptsInSingleSubmission() throws InterruptedException {
+    /* Given */
+    final AtomicInteger submissions = new AtomicInteger();
+    Executor countingExecutor = new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+        submissions.incrementAndGet();
+        mWorker.execute(command);
+      }
+    };
+    FlakyTask task = new FlakyTask(2, policy(3));
+
+    /* When */
+    task.execute(countingExecutor, mDispatcher);
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mAttempts.get(), is(3));
+    assertThat(submissions.get(), is(1));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onSuccess, onFinally]"));
+  }
+
+  @Test
+  public void testAsyncTaskExecutor_completesRetriesBeforeReturning() {
+    /* Given */
+    FlakyTask task = new FlakyTask(2, policy(3));
+
+    /* When */
+    TestAsyncTaskExecutor.instance().execute(task);
+
+    /* Then */
+    assertThat(task.mAttempts.get(), is(3));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onSuccess, onFinally]"));
+  }
+
+  @Test
+  public void rejectedRetry_deliversLastException() throws Exception {
+    /* Given */
+    final AtomicInteger submissions = new AtomicInteger();
+    Executor rejectingRetries = new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+        if (submissions.incrementAndGet() > 1) {
+          throw new RejectedExecutionException();
+        }
+        mWorker.execute(command);
+      }
+    };
+    FlakyTask task = new FlakyTask(10, policy(3));
+
+    /* When */
+    task.executeNonBlocking(rejectingRetries, mDispatcher);
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mAttempts.get(), is(1));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onException 1, onFinally]"));
+    try {
+      task.get(1, TimeUnit.SECONDS);
+      assertThat("get() didn't throw", false, is(true));
+    } catch (IOException e) {
+      assertThat(e.getMessage(), is("1"));
+    }
+  }
+
+  @Test
+  public void executeWithFutureTask_retriesToo() throws InterruptedException {
+    /* Given */
+    FlakyTask task = new FlakyTask(2, policy(3));
+
+    /* When */
+    task.execute(mWorker, mDispatcher, new FutureTask<Void>(new Task<>(task, mDispatcher), null));
+
+    /* Then */
+    assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(task.mAttempts.get(), is(3));
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onSuccess, onFinally]"));
+  }
+
+  @NonNull
+  private static RetryPolicy<IOException> policy(final int maxAttempts) {
+    return new RetryPolicy.Builder<IOException>()
+        .setMaxAttempts(maxAttempts)
+        .setInitialDelay(1, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  private static class FlakyTask extends AsyncTask<String, IOException> {
+
+    private final int mFailures;
+
+    private final RetryPolicy<IOException> mRetryPolicy;
+
+    private final AtomicInteger mAttempts = new AtomicInteger();
+
+    private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+
+    FlakyTask(final int failures, final RetryPolicy<IOException> retryPolicy) {
+      mFailures = failures;
+      mRetryPolicy = retryPolicy;
+    }
+
+    @Override
+    public RetryPolicy<IOException> getRetryPolicy() {
+      return mRetryPolicy;
+    }
+
+    @Override
+    protected void onPreExecute() {
+      mEvents.add("onPreExecute");
+    }
+
+    @Override
+    protected String doInBackground() throws IOException {
+      int attempt = mAttempts.incrementAndGet();
+      if (attempt <= mFailures) {
+        throw new IOException(String.valueOf(attempt));
+      }
+      return "result";
+    }
+
+    @Override
+    protected void onSuccess(final String result) {
+      mEvents.add("onSuccess");
+    }
+
+    @Override
+    protected void onException(@NonNull final IOException e) {
+      mEvents.add("onException " + e.getMessage());
+    }
+
+    @Override
+    protected void onCancelled() {
+      mEvents.add("onCancelled");
+    }
+
+    @Override
+    protected void onFinally() {
+      mEvents.add("onFinally");
+      mFinished.countDown();
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+@SuppressWarnings({ "HardCodedStringLiteral", "unchecked" })
+public class StageTest {
+
+  /**
+   * Never runs the stages it receives, so that the composition has to run them itself.
+   */
+  private final List<Runnable> mQueued = new ArrayList<>();
+
+  private final Executor mExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mQueued.add(command);
+    }
+  };
+
+  @Test
+  public void then_passesResultToContinuation() throws Exception {
+    /* Given */
+    Stage<Integer, IOException> stage = value("4").then(
+        new Continuation<String, Integer, IOException>() {
+          @Override
+          public Integer then(final String s) {
+            return Integer.parseInt(s) * 2;
+          }
+        }
+    );
+
+    /* When */
+    Integer result = stage.get();
+
+    /* Then */
+    assertThat(result, is(8));
+  }
+
+  @Test
+  public void allOf_runsQueuedStagesOnCallingThread() throws Exception {
+    /* Given */
+    Stage<List<String>, IOException> stage = Stage.allOf(mExecutor, Arrays.asList(value("a"), value("b"), value("c")));
+
+    /* When */
+    List<String> result = stage.get();
+
+    /* Then */
+    assertThat(result, is(Arrays.asList("a", "b", "c")));
+    assertThat(mQueued.size(), is(2));
+  }
+
+  @Test(expected = IOException.class)
+  public void allOf_failingStage_throwsException() throws Exception {
+    /* Given */
+    Stage<List<String>, IOException> stage = Stage.allOf(mExecutor, Arrays.asList(value("a"), failure(new IOException())));
+
+    /* When */
+    stage.get();
+  }
+
+  @Test
+  public void zip_combinesResults() throws Exception {
+    /* Given */
+    Stage<String, IOException> stage = Stage.zip(
+        mExecutor, value("a"), value("b"),
+        new Combiner<String, String, String, IOException>() {
+          @Override
+          public String combine(final String a, final String b) {
+            return a + b;
+          }
+        }
+    );
+
+    /* When */
+    String result = stage.get();
+
+    /* Then */
+    assertThat(result, is("ab"));
+  }
+
+  @Test
+  public void anyOf_returnsFirstSuccessfulResult() throws Exception {
+    /* Given */
+    Stage<String, IOException> stage = Stage.anyOf(mExecutor, Arrays.asList(failure(new IOException()), value("b"), value("c")));
+
+    /* When */
+    String result = stage.get();
+
+    /* Then */
+    assertThat(result, is("b"));
+  }
+
+  @Test
+  public void anyOf_returnsFastStageBeforeSlowFirstStage() throws Exception {
+    /* Given */
+    Executor threads = new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+        new Thread(command).start();
+      }
+    };
+    Stage<String, IOException> slow = new Stage<String, IOException>() {
+      @Override
+      public String get() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException ignored) {
+          /* Cancelled once the other stage succeeded. */
+        }
+        return "a";
+      }
+    };
+    Stage<String, IOException> stage = Stage.anyOf(threads, Arrays.asList(slow, value("b")));
+
+    /* When */
+    String result = stage.get();
+
+    /* Then */
+    assertThat(result, is("b"));
+  }
+
+  @Test
+  public void anyOf_allFailing_throwsFirstException() throws Exception {
+    /* Given */
+    IOException first = new IOException();
+    Stage<String, IOException> stage = Stage.anyOf(mExecutor, Arrays.asList(failure(first), failure(new IOException())));
+
+    /* When */
+    try {
+      stage.get();
+      assertThat("get() didn't throw", false, is(true));
+    } catch (IOException e) {
+      /* Then */
+      assertThat(e, is(first));
+    }
+  }
+
+  @Test
+  public void composedAsyncTask_deliversOnlyFinalResult() throws Exception {
+    /* Given */
+    TestAsyncTask intermediate = spy(new TestAsyncTask("a"));
+    Stage<String, IOException> stage = Stage.<String, IOException>of(intermediate).then(
+        new Continuation<String, String, IOException>() {
+          @Override
+          public String then(final String s) {
+            return s + "b";
+          }
+        }
+    );
+    ComposedAsyncTask<String, IOException> task = spy(new TestComposedAsyncTask(stage));
+
+    /* When */
+    TestAsyncTaskExecutor.instance().execute(task);
+
+    /* Then */
+    verify(intermediate).doInBackground();
+    verify(intermediate, never()).onPreExecute();
+    verify(intermediate, never()).onSuccess(anyString());
+    verify(intermediate, never()).onFinally();
+
+    verify(task).onSuccess("ab");
+    verify(task).onFinally();
+  }
+
+  private static Stage<String, IOException> value(final String value) {
+    return new Stage<String, IOException>() {
+      @Override
+      public String get() {
+        return value;
+      }
+    };
+  }
+
+  private static Stage<String, IOException> failure(final IOException exception) {
+    return new Stage<String, IOException>() {
+      @Override
+      public String get() throws IOException {
+        throw exception;
+      }
+    };
+  }
+
+  private static class TestAsyncTask extends AsyncTask<String, IOException> {
+
+    private final String mResult;
+
+    TestAsyncTask(final String result) {
+      mResult = result;
+    }
+
+    @Override
+    protected String doInBackground() {
+      return mResult;
+    }
+
+    @Override
+    protected void onException(@NonNull final IOException e) {
+    }
+  }
+
+  private static class TestComposedAsyncTask extends ComposedAsyncTask<String, IOException> {
+
+    TestComposedAsyncTask(final Stage<String, IOException> stage) {
+      super(stage);
+    }
+
+    @Override
+    protected void onException(@NonNull final IOException e) {
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class SupersedingAsyncTaskExecutorTest {
+
+  private static final long DELAY = 100;
+
+  private final TestScheduler mScheduler = new TestScheduler();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mWorkerExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  private final List<String> mEvents = new ArrayList<>();
+
+  private final DebouncingAsyncTaskExecutor mDebouncer =
+      new DebouncingAsyncTaskExecutor(mWorkerExecutor, ImmediateCallbackDispatcher.instance(), mScheduler, DELAY);
+
+  private final ThrottlingAsyncTaskExecutor mThrottler =
+      new ThrottlingAsyncTaskExecutor(mWorkerExecutor, ImmediateCallbackDispatcher.instance(), mScheduler, DELAY);
+
+  @Test
+  public void debounce_runsOnlyLastTaskOfBurst() {
+    /* Given */
+    RecordingTask first = new RecordingTask("q", "first");
+    RecordingTask second = new RecordingTask("q", "second");
+    RecordingTask third = new RecordingTask("q", "third");
+
+    /* When */
+    mDebouncer.execute(first);
+    mScheduler.advance(DELAY / 2);
+    mDebouncer.execute(second);
+    mScheduler.advance(DELAY / 2);
+    mDebouncer.execute(third);
+
+    /* Then */
+    assertThat(first.isCancelled(), is(true));
+    assertThat(second.isCancelled(), is(true));
+    assertThat(mWorkerQueue.isEmpty(), is(true));
+
+    mScheduler.advance(DELAY);
+    drain();
+
+    assertThat(mEvents.toString(), is("[third onPreExecute, third doInBackground]"));
+    assertThat(mDebouncer.getSlotCount(), is(0));
+  }
+
+  @Test
+  public void debounce_differentKeys_areIndependent() {
+    /* When */
+    mDebouncer.execute(new RecordingTask("a", "a"));
+    mDebouncer.execute(new RecordingTask("b", "b"));
+    mScheduler.advance(DELAY);
+    drain();
+
+    /* Then */
+    assertThat(mEvents.size(), is(4));
+  }
+
+  @Test
+  public void throttle_firstTaskRunsImmediately() {
+    /* When */
+    mThrottler.execute(new RecordingTask("q", "first"));
+
+    /* Then */
+    assertThat(mWorkerQueue.size(), is(1));
+  }
+
+  @Test
+  public void throttle_heldTaskIsReplacedByNewest() {
+    /* Given */
+    mThrottler.execute(new RecordingTask("q", "first"));
+    drain();
+
+    /* When */
+    RecordingTask second = new RecordingTask("q", "second");
+    mThrottler.execute(second);
+    mThrottler.execute(new RecordingTask("q", "third"));
+
+    /* Then */
+    assertThat(second.isCancelled(), is(true));
+    assertThat(mWorkerQueue.isEmpty(), is(true));
+
+    mScheduler.advance(DELAY);
+    drain();
+    assertThat(mEvents.toString(), is("[first onPreExecute, first doInBackground, third onPreExecute, third doInBackground]"));
+  }
+
+  @Test
+  public void throttle_slotExpiresAfterInterval() {
+    /* Given */
+    mThrottler.execute(new RecordingTask("q", "first"));
+    drain();
+
+    /* When */
+    mScheduler.advance(DELAY);
+
+    /* Then */
+    assertThat(mThrottler.getSlotCount(), is(0));
+    mThrottler.execute(new RecordingTask("q", "second"));
+    assertThat(mWorkerQueue.size(), is(1));
+  }
+
+  @Test
+  public void debounce_rejectedHeldTask_isCancelled() {
+    /* Given */
+    Executor rejecting = new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+    DebouncingAsyncTaskExecutor debouncer = new DebouncingAsyncTaskExecutor(rejecting, ImmediateCallbackDispatcher.instance(), mScheduler, DELAY);
+    RecordingTask task = new RecordingTask("q", "task");
+    debouncer.execute(task);
+
+    /* When */
+    mScheduler.advance(DELAY);
+
+    /* Then */
+    assertThat(task.isCancelled(), is(true));
+    assertThat(mEvents.isEmpty(), is(true));
+  }
+
+  private void drain() {
+    while (!mWorkerQueue.isEmpty()) {
+      mWorkerQueue.poll().run();
+    }
+  }
+
+  private class RecordingTask extends AsyncTask<Void, RuntimeException> {
+
+    private final String mKey;
+
+    private final String mName;
+
+    RecordingTask(final String key, final String name) {
+      mKey = key;
+      mName = name;
+    }
+
+    @Override
+    public Object getKey() {
+      return mKey;
+    }
+
+    @Override
+    protected void onPreExecute() {
+      mEvents.add(mName + " onPreExecute");
+    }
+
+    @Override
+    protected Void doInBackground() {
+      mEvents.add(mName + " doInBackground");
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+}
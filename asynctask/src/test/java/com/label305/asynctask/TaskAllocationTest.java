@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Verifies that running the lifecycle of a successful task does not allocate once the Task pool is warm,
+ * both with callbacks performed inline and with callbacks handed off to another thread.
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class TaskAllocationTest {
+
+  private static final int BATCH_SIZE = 1000;
+
+  private static final int WARM_UP_ROUNDS = 200;
+
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      command.run();
+    }
+  };
+
+  private static final CallbackDispatcher DISPATCHER = ImmediateCallbackDispatcher.instance();
+
+  private static volatile Object sSink;
+
+  private com.sun.management.ThreadMXBean mThreadMXBean;
+
+  private final Runnable[] mBatch = new Runnable[BATCH_SIZE];
+
+  private HandOffThread mMainThread;
+
+  private int mBatchSize;
+
+  private final Executor mCapturingExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mBatch[mBatchSize++] = command;
+    }
+  };
+
+  @Before
+  public void setUp() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    mThreadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(mThreadMXBean.isThreadAllocatedMemorySupported());
+    mThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.OFF);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    AsyncTask.setLaunchLocationPolicy(LaunchLocationPolicy.ALWAYS);
+
+    if (mMainThread != null) {
+      mMainThread.quit();
+    }
+  }
+
+  @Test
+  public void runningLifecycle_doesNotAllocate() {
+    /* Given */
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      prepareBatch();
+      runBatch();
+    }
+    prepareBatch();
+
+    /* When */
+    long overhead = measureOverhead();
+    long before = allocatedBytes();
+    runBatch();
+    long allocated = allocatedBytes() - before - overhead;
+
+    /* Then */
+    assertThat("Bytes allocated per task", allocated / BATCH_SIZE, is(0L));
+  }
+
+  @Test
+  public void runningLifecycle_withMainThreadOnOtherThread_doesNotAllocate() throws InterruptedException {
+    /* Given */
+    mMainThread = new HandOffThread();
+    mMainThread.start();
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      prepareBatch(mMainThread);
+      runBatch();
+    }
+    prepareBatch(mMainThread);
+
+    /* When */
+    long overhead = measureOverhead();
+    long before = allocatedBytes() + mMainThread.allocatedBytes();
+    runBatch();
+    long allocated = allocatedBytes() + mMainThread.allocatedBytes() - before - overhead;
+
+    /* Then */
+    assertThat("Bytes allocated per task", allocated / BATCH_SIZE, is(0L));
+  }
+
+  @Test
+  public void steadyStateExecution_onlyAllocatesTaskAndFuture() {
+    /* Given */
+    final Runnable noOp = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      executeBatch();
+      allocateTasksAndFutures(noOp);
+    }
+
+    /* When */
+    long before = allocatedBytes();
+    executeBatch();
+    long executing = allocatedBytes() - before;
+
+    before = allocatedBytes();
+    allocateTasksAndFutures(noOp);
+    long allocating = allocatedBytes() - before;
+
+    /* Then */
+    assertThat("Bytes allocated per task", executing / BATCH_SIZE, is(lessThanOrEqualTo(allocating / BATCH_SIZE)));
+  }
+
+  private void prepareBatch() {
+    prepareBatch(DISPATCHER);
+  }
+
+  private void prepareBatch(@NonNull final CallbackDispatcher dispatcher) {
+    mBatchSize = 0;
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      new NoOpAsyncTask().execute(mCapturingExecutor, dispatcher);
+    }
+  }
+
+  private void runBatch() {
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      mBatch[i].run();
+    }
+  }
+
+  private static void executeBatch() {
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      sSink = new NoOpAsyncTask().execute(DIRECT_EXECUTOR, DISPATCHER);
+    }
+  }
+
+  private static void allocateTasksAndFutures(@NonNull final Runnable runnable) {
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      NoOpAsyncTask task = new NoOpAsyncTask();
+      sSink = task;
+      sSink = new AsyncTaskFuture(task, runnable);
+    }
+  }
+
+  private long measureOverhead() {
+    long before = allocatedBytes();
+    return allocatedBytes() - before;
+  }
+
+  private long allocatedBytes() {
+    return mThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Stands in for the main thread, running callbacks that are handed off to it one at a time, without allocating.
+   */
+  private class HandOffThread extends Thread implements CallbackDispatcher {
+
+    private final AtomicReference<Runnable> mCallback = new AtomicReference<>();
+
+    private volatile boolean mQuit;
+
+    @Override
+    public void dispatch(@NonNull final Runnable callback) {
+      if (!mCallback.compareAndSet(null, callback)) {
+        throw new IllegalStateException("Only one callback can be pending");
+      }
+      LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+      while (!mQuit) {
+        Runnable callback = mCallback.getAndSet(null);
+        if (callback == null) {
+          LockSupport.park(this);
+        } else {
+          callback.run();
+        }
+      }
+    }
+
+    long allocatedBytes() {
+      return mThreadMXBean.getThreadAllocatedBytes(getId());
+    }
+
+    void quit() throws InterruptedException {
+      mQuit = true;
+      LockSupport.unpark(this);
+      join();
+    }
+  }
+
+  private static class NoOpAsyncTask extends AsyncTask<Object, RuntimeException> {
+
+    @Override
+    protected Object doInBackground() {
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.number.OrderingComparison.greaterThanOrEqualTo;
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class TaskMetricsTest {
+
+  private final List<TaskMetrics> mFinished = new ArrayList<>();
+
+  private final TaskMetricsListener mListener = new TaskMetricsListener() {
+    @Override
+    public void onTaskFinished(@NonNull final TaskMetrics metrics) {
+      mFinished.add(metrics);
+    }
+  };
+
+  @After
+  public void tearDown() {
+    AsyncTask.setTaskMetricsListener(null);
+  }
+
+  @Test
+  public void blockingExecution_recordsAllStagesInOrder() {
+    /* Given */
+    AsyncTask.setTaskMetricsListener(mListener);
+
+    /* When */
+    TestAsyncTaskExecutor.instance().execute(new TestAsyncTask());
+
+    /* Then */
+    assertThat(mFinished.size(), is(1));
+    assertStagesInOrder(mFinished.get(0));
+  }
+
+  @Test
+  public void nonBlockingExecution_recordsAllStagesInOrder() {
+    /* Given */
+    AsyncTask.setTaskMetricsListener(mListener);
+    QueueCallbackDispatcher dispatcher = new QueueCallbackDispatcher();
+    final Queue<Runnable> workerQueue = new ArrayDeque<>();
+    Executor executor = new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+        workerQueue.add(command);
+      }
+    };
+
+    /* When */
+    new TestAsyncTask().executeNonBlocking(executor, dispatcher);
+    dispatcher.drain();
+    workerQueue.poll().run();
+    dispatcher.drain();
+
+    /* Then */
+    assertThat(mFinished.size(), is(1));
+    assertStagesInOrder(mFinished.get(0));
+  }
+
+  @Test
+  public void cancelledTask_doesNotRecordBackgroundStage() {
+    /* Given */
+    AsyncTask.setTaskMetricsListener(mListener);
+
+    /* When */
+    TestAsyncTaskExecutor.instance().execute(
+        new TestAsyncTask() {
+          @Override
+          protected void onPreExecute() {
+            cancel();
+          }
+        }
+    );
+
+    /* Then */
+    TaskMetrics metrics = mFinished.get(0);
+    assertThat(metrics.getBackgroundStartedNanos(), is(TaskMetrics.NOT_REACHED));
+    assertThat(metrics.getBackgroundDurationNanos(), is(-1L));
+    assertThat(metrics.getTotalDurationNanos(), is(greaterThanOrEqualTo(0L)));
+  }
+
+  @Test
+  public void blockingTask_cancelledBeforeItStarts_finishes() {
+    /* Given */
+    AsyncTask.setTaskMetricsListener(mListener);
+    Queue<Runnable> workerQueue = new ArrayDeque<>();
+    TestAsyncTask task = new TestAsyncTask().execute(queueExecutor(workerQueue), ImmediateCallbackDispatcher.instance());
+
+    /* When */
+    task.cancel();
+    workerQueue.poll().run();
+
+    /* Then */
+    assertThat(mFinished.size(), is(1));
+    TaskMetrics metrics = mFinished.get(0);
+    assertThat(metrics.getStartedNanos(), is(TaskMetrics.NOT_REACHED));
+    assertThat(metrics.getTotalDurationNanos(), is(greaterThanOrEqualTo(0L)));
+  }
+
+  @Test
+  public void blockingTask_inCancelledScope_finishes() {
+    /* Given */
+    AsyncTask.setTaskMetricsListener(mListener);
+    TaskScope scope = new TaskScope(TestAsyncTaskExecutor.instance());
+
+    /* When */
+    scope.execute(new ScopeCancellingTask(scope));
+
+    /* Then */
+    assertThat(mFinished.size(), is(1));
+    TaskMetrics metrics = mFinished.get(0);
+    assertThat(metrics.getCallbackDeliveredNanos(), is(TaskMetrics.NOT_REACHED));
+    assertThat(metrics.getTotalDurationNanos(), is(greaterThanOrEqualTo(0L)));
+  }
+
+  @Test
+  public void nonBlockingTask_inCancelledScope_finishes() {
+    /* Given */
+    AsyncTask.setTaskMetricsListener(mListener);
+    final QueueCallbackDispatcher dispatcher = new QueueCallbackDispatcher();
+    final Queue<Runnable> workerQueue = new ArrayDeque<>();
+    TaskScope scope = new TaskScope(
+        new AsyncTaskExecutor() {
+          @Override
+          public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+            return task.executeNonBlocking(queueExecutor(workerQueue), dispatcher);
+          }
+        }
+    );
+
+    /* When */
+    scope.execute(new ScopeCancellingTask(scope));
+    dispatcher.drain();
+    workerQueue.poll().run();
+    dispatcher.drain();
+
+    /* Then */
+    assertThat(mFinished.size(), is(1));
+    TaskMetrics metrics = mFinished.get(0);
+    assertThat(metrics.getCallbackDeliveredNanos(), is(TaskMetrics.NOT_REACHED));
+    assertThat(metrics.getTotalDurationNanos(), is(greaterThanOrEqualTo(0L)));
+  }
+
+  @Test
+  public void noListener_recordsNothing() {
+    /* Given */
+    TaskMetricsRecorder recorder = new TaskMetricsRecorder();
+    AsyncTask.setTaskMetricsListener(recorder);
+    AsyncTask.setTaskMetricsListener(null);
+
+    /* When */
+    TestAsyncTaskExecutor.instance().execute(new TestAsyncTask());
+
+    /* Then */
+    assertThat(recorder.getAllStats().isEmpty(), is(true));
+  }
+
+  @Test
+  public void recorder_aggregatesPerTaskClass() {
+    /* Given */
+    TaskMetricsRecorder recorder = new TaskMetricsRecorder();
+    AsyncTask.setTaskMetricsListener(recorder);
+
+    /* When */
+    for (int i = 0; i < 3; i++) {
+      TestAsyncTaskExecutor.instance().execute(new TestAsyncTask());
+    }
+    TestAsyncTaskExecutor.instance().execute(new OtherAsyncTask());
+
+    /* Then */
+    assertThat(recorder.getAllStats().size(), is(2));
+    assertThat(recorder.getStats(TestAsyncTask.class), is(notNullValue()));
+    assertThat(recorder.getStats(TestAsyncTask.class).getTotalDuration().getCount(), is(3L));
+    assertThat(recorder.getStats(OtherAsyncTask.class).getBackgroundDuration().getCount(), is(1L));
+    assertThat(recorder.getStats(String.class), is(nullValue()));
+  }
+
+  @Test
+  public void histogram_reportsPercentileUpperBounds() {
+    /* Given */
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    /* When */
+    for (int i = 0; i < 99; i++) {
+      histogram.record(100);
+    }
+    histogram.record(10000);
+    histogram.record(-1);
+
+    /* Then */
+    assertThat(histogram.getCount(), is(100L));
+    assertThat(histogram.getMaxNanos(), is(10000L));
+    assertThat(histogram.getPercentileNanos(50), is(127L));
+    assertThat(histogram.getPercentileNanos(99), is(127L));
+    assertThat(histogram.getPercentileNanos(100), is(10000L));
+  }
+
+  private static Executor queueExecutor(final Queue<Runnable> queue) {
+    return new Executor() {
+      @Override
+      public void execute(@NonNull final Runnable command) {
+        queue.add(command);
+      }
+    };
+  }
+
+  private static void assertStagesInOrder(final TaskMetrics metrics) {
+    long[] timestamps = {
+        metrics.getEnqueuedNanos(),
+        metrics.getStartedNanos(),
+        metrics.getPreExecutedNanos(),
+        metrics.getBackgroundStartedNanos(),
+        metrics.getBackgroundDoneNanos(),
+        metrics.getCallbackDeliveredNanos(),
+        metrics.getFinishedNanos()
+    };
+
+    assertThat(timestamps[0] == TaskMetrics.NOT_REACHED, is(false));
+    for (int i = 1; i < timestamps.length; i++) {
+      assertThat(timestamps[i - 1], is(lessThanOrEqualTo(timestamps[i])));
+    }
+    assertThat(metrics.getTaskClass() == TestAsyncTask.class, is(true));
+  }
+
+  private static class TestAsyncTask extends AsyncTask<Void, RuntimeException> {
+
+    @Override
+    protected Void doInBackground() {
+      return null;
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+    }
+  }
+
+  private static class OtherAsyncTask extends TestAsyncTask {
+  }
+
+  private static class ScopeCancellingTask extends TestAsyncTask {
+
+    private final TaskScope mScope;
+
+    ScopeCancellingTask(final TaskScope scope) {
+      mScope = scope;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      mScope.cancel();
+      return null;
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class TaskScopeTest {
+
+  private final QueueCallbackDispatcher mDispatcher = new QueueCallbackDispatcher();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  private final AsyncTaskExecutor mNonBlockingExecutor = new AsyncTaskExecutor() {
+    @Override
+    public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+      return task.executeNonBlocking(mExecutor, mDispatcher);
+    }
+  };
+
+  private final TaskScope mScope = new TaskScope(mNonBlockingExecutor);
+
+  @Test
+  public void finishedTasks_leaveScope() {
+    /* Given */
+    RecordingTask task = new RecordingTask();
+    mScope.execute(task);
+    assertThat(mScope.size(), is(1));
+
+    /* When */
+    drain();
+
+    /* Then */
+    assertThat(task.mEvents.toString(), is("[onPreExecute, onSuccess, onFinally]"));
+    assertThat(mScope.size(), is(0));
+  }
+
+  @Test
+  public void cancel_cancelsAllTasksWithoutPosting() {
+    /* Given */
+    RecordingTask first = new RecordingTask();
+    RecordingTask second = new RecordingTask();
+    mScope.execute(first);
+    mScope.execute(second);
+    mDispatcher.drain();
+
+    /* When */
+    mScope.cancel();
+
+    /* Then */
+    assertThat(first.isCancelled(), is(true));
+    assertThat(second.isCancelled(), is(true));
+    assertThat(mDispatcher.isEmpty(), is(true));
+    assertThat(mScope.size(), is(0));
+
+    drain();
+    assertThat(first.mEvents.toString(), is("[onPreExecute]"));
+    assertThat(second.mEvents.toString(), is("[onPreExecute]"));
+  }
+
+  @Test
+  public void cancel_suppressesCallbacksThatWereAlreadyPosted() {
+    /* Given */
+    RecordingTask task = new RecordingTask();
+    mScope.execute(task);
+    mDispatcher.drain();
+    mWorkerQueue.poll().run();
+
+    /* When */
+    mScope.cancel();
+    mDispatcher.drain();
+
+    /* Then */
+    assertThat(task.mEvents.toString(), is("[onPreExecute]"));
+  }
+
+  @Test
+  public void executeOnCancelledScope_cancelsTaskWithoutPosting() {
+    /* Given */
+    mScope.cancel();
+    RecordingTask task = new RecordingTask();
+
+    /* When */
+    mScope.execute(task);
+
+    /* Then */
+    assertThat(task.isCancelled(), is(true));
+    assertThat(mDispatcher.isEmpty(), is(true));
+    assertThat(mScope.size(), is(0));
+  }
+
+  @Test
+  public void blockingTask_inCancelledScope_releasesWorkerWithoutPosting() throws Exception {
+    /* Given */
+    ExecutorService worker = Executors.newSingleThreadExecutor();
+    final AtomicInteger dispatchCount = new AtomicInteger();
+    final CallbackDispatcher dispatcher = new CallbackDispatcher() {
+      @Override
+      public void dispatch(@NonNull final Runnable callback) {
+        dispatchCount.incrementAndGet();
+        callback.run();
+      }
+    };
+    final Executor executor = worker;
+    TaskScope scope = new TaskScope(
+        new AsyncTaskExecutor() {
+          @Override
+          public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+            return task.execute(executor, dispatcher);
+          }
+        }
+    );
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    RecordingTask task = new RecordingTask() {
+      @Override
+      protected String doInBackground() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ignored) {
+          Thread.currentThread().interrupt();
+        }
+        return "result";
+      }
+    };
+    scope.execute(task);
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+    /* When */
+    scope.cancel();
+    int dispatchesBeforeRelease = dispatchCount.get();
+    release.countDown();
+
+    /* Then */
+    worker.shutdown();
+    assertThat(worker.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    assertThat(dispatchCount.get(), is(dispatchesBeforeRelease));
+    assertThat(task.mEvents.toString(), is("[onPreExecute]"));
+  }
+
+  @Test
+  public void blockingTask_cancelledBeforeStart_leavesScope() {
+    /* Given */
+    TaskScope scope = new TaskScope(
+        new AsyncTaskExecutor() {
+          @Override
+          public <T, E extends Exception, A extends AsyncTask<T, E>> A execute(@NonNull final A task) {
+            return task.execute(mExecutor, mDispatcher);
+          }
+        }
+    );
+    RecordingTask task = new RecordingTask();
+    scope.execute(task);
+    assertThat(scope.size(), is(1));
+
+    /* When */
+    task.cancel();
+
+    /* Then */
+    assertThat(scope.size(), is(0));
+  }
+
+  @Test
+  public void cancel_cancelsThroughOverridableMethods() {
+    /* Given */
+    final List<String> cancellations = new ArrayList<>();
+    RecordingTask task = new RecordingTask() {
+      @Override
+      public boolean cancel() {
+        cancellations.add("cancel");
+        return super.cancel();
+      }
+
+      @Override
+      public boolean cancelInterrupt() {
+        cancellations.add("cancelInterrupt");
+        return super.cancelInterrupt();
+      }
+    };
+    RecordingTask interrupted = new RecordingTask() {
+      @Override
+      public boolean cancelInterrupt() {
+        cancellations.add("cancelInterrupt");
+        return super.cancelInterrupt();
+      }
+    };
+    TaskScope other = new TaskScope(mNonBlockingExecutor);
+    mScope.execute(task);
+    other.execute(interrupted);
+
+    /* When */
+    mScope.cancel();
+    other.cancelInterrupt();
+
+    /* Then */
+    assertThat(cancellations.toString(), is("[cancel, cancelInterrupt]"));
+  }
+
+  private void drain() {
+    while (!mDispatcher.isEmpty() || !mWorkerQueue.isEmpty()) {
+      if (!mDispatcher.runNext()) {
+        mWorkerQueue.poll().run();
+      }
+    }
+  }
+
+  private static class RecordingTask extends AsyncTask<String, Exception> {
+
+    final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void onPreExecute() {
+      mEvents.add("onPreExecute");
+    }
+
+    @Override
+    protected String doInBackground() {
+      return "result";
+    }
+
+    @Override
+    protected void onSuccess(final String result) {
+      mEvents.add("onSuccess");
+    }
+
+    @Override
+    protected void onException(@NonNull final Exception e) {
+      mEvents.add("onException");
+    }
+
+    @Override
+    protected void onCancelled() {
+      mEvents.add("onCancelled");
+    }
+
+    @Override
+    protected void onFinally() {
+      mEvents.add("onFinally");
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A Scheduler with a manually advanced clock, which runs due actions on the calling thread.
+ * Should only be used for tests.
+ */
+class TestScheduler implements Scheduler {
+
+  private final List<ScheduledAction> mActions = new ArrayList<>();
+
+  private long mNow;
+
+  @NonNull
+  @Override
+  public Future<?> schedule(@NonNull final Runnable action, final long delayNanos) {
+    ScheduledAction scheduled = new ScheduledAction(action, mNow + delayNanos);
+    mActions.add(scheduled);
+    return scheduled;
+  }
+
+  @Override
+  public long nanoTime() {
+    return mNow;
+  }
+
+  /**
+   * Advances the clock by given amount, running the actions that become due in order of their time.
+   */
+  void advance(final long nanos) {
+    long target = mNow + nanos;
+
+    while (true) {
+      ScheduledAction next = null;
+      for (ScheduledAction action : mActions) {
+        if (action.mTime <= target && (next == null || action.mTime < next.mTime)) {
+          next = action;
+        }
+      }
+
+      if (next == null) {
+        break;
+      }
+
+      mActions.remove(next);
+      mNow = Math.max(mNow, next.mTime);
+      next.run();
+    }
+
+    mNow = target;
+  }
+
+  /**
+   * Returns the number of scheduled actions that haven't run or been cancelled.
+   */
+  int getPendingCount() {
+    int count = 0;
+    for (ScheduledAction action : mActions) {
+      if (!action.isCancelled()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static class ScheduledAction extends FutureTask<Void> {
+
+    private final long mTime;
+
+    ScheduledAction(final Runnable action, final long time) {
+      super(action, null);
+      mTime = time;
+    }
+  }
+}
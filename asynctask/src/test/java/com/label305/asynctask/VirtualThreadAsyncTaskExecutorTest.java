@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs on virtual threads when the test JVM supports them, and verifies the constructor's failure otherwise.
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class VirtualThreadAsyncTaskExecutorTest {
+
+  @Test
+  public void blockingExecution_runsTaskOnVirtualThread() throws Exception {
+    /* Given */
+    assumeTrue(VirtualThreadAsyncTaskExecutor.isSupported());
+    VirtualThreadAsyncTaskExecutor executor = new VirtualThreadAsyncTaskExecutor(ImmediateCallbackDispatcher.instance());
+    RecordingTask task = new RecordingTask();
+
+    try {
+      /* When */
+      executor.execute(task);
+
+      /* Then */
+      assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+      assertThat(task.mEvents, is(Arrays.asList("onPreExecute", "doInBackground", "onSuccess", "onFinally")));
+      assertThat(isVirtual(task.mBackgroundThread), is(true));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void nonBlockingExecution_runsTaskOnVirtualThread() throws Exception {
+    /* Given */
+    assumeTrue(VirtualThreadAsyncTaskExecutor.isSupported());
+    VirtualThreadAsyncTaskExecutor executor = new VirtualThreadAsyncTaskExecutor(ImmediateCallbackDispatcher.instance(), true);
+    RecordingTask task = new RecordingTask();
+
+    try {
+      /* When */
+      executor.execute(task);
+
+      /* Then */
+      assertThat(task.mFinished.await(5, TimeUnit.SECONDS), is(true));
+      assertThat(task.mEvents, is(Arrays.asList("onPreExecute", "doInBackground", "onSuccess", "onFinally")));
+      assertThat(isVirtual(task.mBackgroundThread), is(true));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void withoutVirtualThreads_constructorThrows() {
+    /* Given */
+    assumeFalse(VirtualThreadAsyncTaskExecutor.isSupported());
+
+    /* When */
+    new VirtualThreadAsyncTaskExecutor(ImmediateCallbackDispatcher.instance());
+  }
+
+  /**
+   * Calls {@code Thread.isVirtual()}, which only exists on Java 21 and later.
+   */
+  private static boolean isVirtual(final Thread thread) throws Exception {
+    return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+  }
+
+  private static class RecordingTask extends AsyncTask<Void, RuntimeException> {
+
+    private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+
+    private volatile Thread mBackgroundThread;
+
+    @Override
+    protected void onPreExecute() {
+      mEvents.add("onPreExecute");
+    }
+
+    @Override
+    protected Void doInBackground() {
+      mBackgroundThread = Thread.currentThread();
+      mEvents.add("doInBackground");
+      return null;
+    }
+
+    @Override
+    protected void onSuccess(final Void result) {
+      mEvents.add("onSuccess");
+    }
+
+    @Override
+    protected void onException(@NonNull final RuntimeException e) {
+      mEvents.add("onException");
+    }
+
+    @Override
+    protected void onFinally() {
+      mEvents.add("onFinally");
+      mFinished.countDown();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Label305
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.label305.asynctask;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@SuppressWarnings("HardCodedStringLiteral")
+public class WeakTargetAsyncTaskTest {
+
+  private final QueueCallbackDispatcher mDispatcher = new QueueCallbackDispatcher();
+
+  private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+
+  private final Executor mExecutor = new Executor() {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      mWorkerQueue.add(command);
+    }
+  };
+
+  private final List<String> mEvents = new ArrayList<>();
+
+  @Test
+  public void aliveTarget_receivesCallbacks() {
+    /* Given */
+    Target target = new Target();
+    RecordingTask task = new RecordingTask(target, mEvents);
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    drain();
+
+    /* Then */
+    assertThat(mEvents.toString(), is("[onPreExecute, onSuccess, onFinally]"));
+  }
+
+  @Test
+  public void collectedTarget_beforeExecute_cancelsWithoutPosting() {
+    /* Given */
+    RecordingTask task = new RecordingTask(new Target(), mEvents);
+    awaitCollection(task);
+
+    /* When */
+    task.executeNonBlocking(mExecutor, mDispatcher);
+
+    /* Then */
+    assertThat(task.isCancelled(), is(true));
+    assertThat(mDispatcher.isEmpty(), is(true));
+    assertThat(mWorkerQueue.isEmpty(), is(true));
+    assertThat(mEvents.isEmpty(), is(true));
+  }
+
+  @Test
+  public void collectedTarget_duringBackground_skipsCompletionWithoutPosting() {
+    /* Given */
+    Target target = new Target();
+    RecordingTask task = new RecordingTask(target, mEvents);
+    task.executeNonBlocking(mExecutor, mDispatcher);
+    mDispatcher.drain();
+
+    //noinspection UnusedAssignment
+    target = null;
+    awaitCollection(task);
+
+    /* When */
+    mWorkerQueue.poll().run();
+
+    /* Then */
+    assertThat(mDispatcher.isEmpty(), is(true));
+    assertThat(mEvents.toString(), is("[onPreExecute]"));
+  }
+
+  @Test
+  public void collectedTarget_blockingMode_skipsCallbacks() {
+    /* Given */
+    RecordingTask task = new RecordingTask(new Target(), mEvents);
+    awaitCollection(task);
+
+    /* When */
+    task.execute(mExecutor, ImmediateCallbackDispatcher.instance());
+    mWorkerQueue.poll().run();
+
+    /* Then */
+    assertThat(task.isCancelled(), is(true));
+    assertThat(mEvents.isEmpty(), is(true));
+  }
+
+  private static void awaitCollection(@NonNull final WeakTargetAsyncTask<?, ?, ?> task) {
+    for (int i = 0; i < 100 && task.getTarget() != null; i++) {
+      System.gc();
+    }
+    assertThat("Target was not collected", task.getTarget() == null, is(true));
+  }
+
+  private void drain() {
+    while (!mDispatcher.isEmpty() || !mWorkerQueue.isEmpty()) {
+      if (!mDispatcher.runNext()) {
+        mWorkerQueue.poll().run();
+      }
+    }
+  }
+
+  private static class Target {
+  }
+
+  private static class RecordingTask extends WeakTargetAsyncTask<Target, String, Exception> {
+
+    private final List<String> mEvents;
+
+    RecordingTask(@NonNull final Target target, @NonNull final List<String> events) {
+      super(target);
+      mEvents = events;
+    }
+
+    @Override
+    protected String doInBackground() {
+      return "result";
+    }
+
+    @Override
+    protected void onPreExecute(@NonNull final Target target) {
+      mEvents.add("onPreExecute");
+    }
+
+    @Override
+    protected void onSuccess(@NonNull final Target target, final String result) {
+      mEvents.add("onSuccess");
+    }
+
+    @Override
+    protected void onException(@NonNull final Target target, @NonNull final Exception e) {
+      mEvents.add("onException");
+    }
+
+    @Override
+    protected void onCancelled(@NonNull final Target target) {
+      mEvents.add("onCancelled");
+    }
+
+    @Override
+    protected void onFinally(@NonNull final Target target) {
+      mEvents.add("onFinally");
+    }
+  }
+}